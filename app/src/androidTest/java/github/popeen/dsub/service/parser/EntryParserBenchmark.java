@@ -0,0 +1,252 @@
+package github.popeen.dsub.service.parser;
+
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import github.popeen.dsub.domain.Bookmark;
+import github.popeen.dsub.domain.MusicDirectory;
+import github.popeen.dsub.util.ProgressListener;
+
+/**
+ * Compares entries/sec for the old lookup by name parseEntry against the single pass one on a large getPlaylist
+ * response, in both XML and JSON.  The JSON uses real numbers and booleans like a server sends, so number handling
+ * is part of what is timed.  Numbers are logged, only the parsed results are asserted on.
+ */
+public class EntryParserBenchmark extends AndroidTestCase {
+	private static final String TAG = EntryParserBenchmark.class.getSimpleName();
+	private static final int ENTRIES = 5000;
+	private static final int RUNS = 5;
+
+	public void testXmlEntriesPerSecond() throws Exception {
+		String response = buildXmlResponse();
+		double before = run(response, true);
+		double after = run(response, false);
+		Log.i(TAG, "XML: " + (int) before + " entries/sec before, " + (int) after + " entries/sec after");
+	}
+
+	public void testJsonEntriesPerSecond() throws Exception {
+		String response = buildJsonResponse();
+		double before = run(response, true);
+		double after = run(response, false);
+		Log.i(TAG, "JSON: " + (int) before + " entries/sec before, " + (int) after + " entries/sec after");
+	}
+
+	public void testSamePlaylist() throws Exception {
+		MusicDirectory legacy = new LegacyPlaylistParser(getContext()).parse(new StringReader(buildXmlResponse()), null);
+		MusicDirectory current = new PlaylistParser(getContext(), 1).parse(new StringReader(buildXmlResponse()), null);
+		MusicDirectory json = new PlaylistParser(getContext(), 1).parse(new StringReader(buildJsonResponse()), null);
+
+		assertEquals(ENTRIES, current.getChildrenSize());
+		assertEquals(ENTRIES, json.getChildrenSize());
+		for(int i = 0; i < ENTRIES; i++) {
+			MusicDirectory.Entry expected = legacy.getChildren().get(i);
+			assertEquals(Long.valueOf(5000000L + i), expected.getSize());
+			assertEquals(Integer.valueOf(180 + i % 120), expected.getDuration());
+			for(MusicDirectory.Entry actual: new MusicDirectory.Entry[] {current.getChildren().get(i), json.getChildren().get(i)}) {
+				assertEquals(expected.getId(), actual.getId());
+				assertEquals(expected.getTitle(), actual.getTitle());
+				assertEquals(expected.getArtist(), actual.getArtist());
+				assertEquals(expected.getSuffix(), actual.getSuffix());
+				assertEquals(expected.getTrack(), actual.getTrack());
+				assertEquals(expected.getSize(), actual.getSize());
+				assertEquals(expected.getDuration(), actual.getDuration());
+				assertEquals(expected.getYear(), actual.getYear());
+				assertEquals(expected.getBitRate(), actual.getBitRate());
+				assertEquals(expected.isDirectory(), actual.isDirectory());
+				assertEquals(expected.isVideo(), actual.isVideo());
+				assertEquals(expected.isStarred(), actual.isStarred());
+			}
+		}
+	}
+
+	private double run(String response, boolean legacy) throws Exception {
+		// Warm up first so the JIT doesn't count against whichever goes first
+		parse(response, legacy);
+
+		long start = System.nanoTime();
+		for(int i = 0; i < RUNS; i++) {
+			assertEquals(ENTRIES, parse(response, legacy).getChildrenSize());
+		}
+		long elapsed = System.nanoTime() - start;
+		return ENTRIES * RUNS / (elapsed / 1000000000.0);
+	}
+
+	private MusicDirectory parse(String response, boolean legacy) throws Exception {
+		Reader reader = new StringReader(response);
+		if(legacy) {
+			return new LegacyPlaylistParser(getContext()).parse(reader, null);
+		} else {
+			return new PlaylistParser(getContext(), 1).parse(reader, null);
+		}
+	}
+
+	private static String buildXmlResponse() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("<subsonic-response xmlns=\"http://subsonic.org/restapi\" status=\"ok\" version=\"1.13.0\">");
+		builder.append("<playlist id=\"15\" name=\"Everything\" owner=\"admin\" public=\"false\" songCount=\"").append(ENTRIES).append("\">");
+		for(int i = 0; i < ENTRIES; i++) {
+			builder.append("<entry");
+			Object[][] attributes = getAttributes(i);
+			for(Object[] attribute: attributes) {
+				builder.append(' ').append(attribute[0]).append("=\"").append(attribute[1]).append('"');
+			}
+			builder.append("/>");
+		}
+		builder.append("</playlist></subsonic-response>");
+		return builder.toString();
+	}
+
+	private static String buildJsonResponse() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\"subsonic-response\":{\"status\":\"ok\",\"version\":\"1.13.0\",\"playlist\":{\"id\":\"15\",\"name\":\"Everything\",");
+		builder.append("\"owner\":\"admin\",\"public\":false,\"songCount\":").append(ENTRIES).append(",\"entry\":[");
+		for(int i = 0; i < ENTRIES; i++) {
+			if(i > 0) {
+				builder.append(',');
+			}
+			builder.append('{');
+			Object[][] attributes = getAttributes(i);
+			for(int j = 0; j < attributes.length; j++) {
+				if(j > 0) {
+					builder.append(',');
+				}
+				builder.append('"').append(attributes[j][0]).append("\":");
+				// Numbers and booleans are sent bare in JSON, only strings are quoted
+				Object value = attributes[j][1];
+				if(value instanceof String) {
+					builder.append('"').append(value).append('"');
+				} else {
+					builder.append(value);
+				}
+			}
+			builder.append('}');
+		}
+		builder.append("]}}}");
+		return builder.toString();
+	}
+
+	// Roughly what Subsonic sends for a song: 100 albums of 50 songs by 20 artists, with the same types it uses in JSON
+	private static Object[][] getAttributes(int i) {
+		int album = i / 50;
+		int artist = album % 20;
+		return new Object[][] {
+			{"id", Integer.toString(10000 + i)},
+			{"parent", Integer.toString(500 + album)},
+			{"isDir", false},
+			{"title", "Song " + i},
+			{"album", "Album " + album},
+			{"artist", "Artist " + artist},
+			{"track", i % 50 + 1},
+			{"year", 2004},
+			{"genre", "Rock"},
+			{"coverArt", Integer.toString(500 + album)},
+			{"size", 5000000L + i},
+			{"contentType", "audio/mpeg"},
+			{"suffix", "mp3"},
+			{"duration", 180 + i % 120},
+			{"bitRate", 320},
+			{"path", "Artist " + artist + "/Album " + album + "/" + (i % 50 + 1) + " - Song " + i + ".mp3"},
+			{"isVideo", false},
+			{"created", "2014-02-03T10:12:13.000Z"},
+			{"albumId", Integer.toString(300 + album)},
+			{"artistId", Integer.toString(100 + artist)},
+			{"type", "music"},
+			// Only there when the song is starred
+			i % 7 == 0 ? new Object[] {"starred", "2015-01-01T00:00:00.000Z"} : new Object[] {"playCount", 3}
+		};
+	}
+
+	/**
+	 * parseEntry as it was before the single pass rewrite, looking every attribute up by name
+	 */
+	private static class LegacyPlaylistParser extends MusicDirectoryEntryParser {
+		public LegacyPlaylistParser(Context context) {
+			super(context, 1);
+		}
+
+		public MusicDirectory parse(Reader reader, ProgressListener progressListener) throws Exception {
+			final MusicDirectory dir = new MusicDirectory();
+			if(initResponse(reader)) {
+				parseJson(new JsonElementHandler() {
+					@Override
+					public void onElement(String name, int depth) throws Exception {
+						if(depth == 2 && "entry".equals(name)) {
+							dir.addChild(parseEntryByName());
+						}
+					}
+				});
+			} else {
+				int eventType;
+				do {
+					eventType = nextParseEvent();
+					if (eventType == XmlPullParser.START_TAG && "entry".equals(getElementName())) {
+						dir.addChild(parseEntryByName());
+					}
+				} while (eventType != XmlPullParser.END_DOCUMENT);
+			}
+			return dir;
+		}
+
+		private MusicDirectory.Entry parseEntryByName() {
+			MusicDirectory.Entry entry = new MusicDirectory.Entry();
+			entry.setId(get("id"));
+			entry.setParent(get("parent"));
+			entry.setArtistId(get("artistId"));
+			entry.setTitle(get("title"));
+			if(entry.getTitle() == null) {
+				entry.setTitle(get("name"));
+			}
+			entry.setDirectory(getBoolean("isDir"));
+			entry.setCoverArt(get("coverArt"));
+			entry.setArtist(get("artist"));
+			entry.setStarred(get("starred") != null);
+			entry.setYear(getIntegerWithException("year"));
+			entry.setGenre(get("genre"));
+			entry.setAlbum(get("album"));
+			entry.setRating(getIntegerWithException("userRating"));
+
+			if (!entry.isDirectory()) {
+				entry.setAlbumId(get("albumId"));
+				entry.setTrack(getIntegerWithException("track"));
+				entry.setContentType(get("contentType"));
+				entry.setSuffix(get("suffix"));
+				entry.setTranscodedContentType(get("transcodedContentType"));
+				entry.setTranscodedSuffix(get("transcodedSuffix"));
+				String size = get("size");
+				entry.setSize(size == null ? null : Long.valueOf(size));
+				entry.setDuration(getIntegerWithException("duration"));
+				entry.setBitRate(getIntegerWithException("bitRate"));
+				entry.setPath(get("path"));
+				entry.setVideo(getBoolean("isVideo"));
+				entry.setDiscNumber(getIntegerWithException("discNumber"));
+
+				Integer bookmark = getIntegerWithException("bookmarkPosition");
+				if(bookmark != null) {
+					entry.setBookmark(new Bookmark(bookmark));
+				}
+
+				String type = get("type");
+				if("podcast".equals(type)) {
+					entry.setType(MusicDirectory.Entry.TYPE_PODCAST);
+				} else if("audiobook".equals(type) || (entry.getGenre() != null && "audiobook".equals(entry.getGenre().toLowerCase()))) {
+					entry.setType(MusicDirectory.Entry.TYPE_AUDIO_BOOK);
+				}
+			}
+			return entry;
+		}
+
+		private Integer getIntegerWithException(String name) {
+			String s = get(name);
+			try {
+				return (s == null || "".equals(s)) ? null : Integer.valueOf(s);
+			} catch(Exception e) {
+				return null;
+			}
+		}
+	}
+}
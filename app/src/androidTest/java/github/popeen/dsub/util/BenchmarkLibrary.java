@@ -0,0 +1,83 @@
+package github.popeen.dsub.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import github.popeen.dsub.domain.MusicDirectory;
+
+/**
+ * Made up library the benchmarks run against.  Every artist has four albums of twelve songs, and everything is named
+ * after where it falls in the library, so song i is "Song i" on "Album i / 12" by "Artist i / 48".
+ */
+class BenchmarkLibrary {
+	static final int SONGS_PER_ALBUM = 12;
+	static final int ALBUMS_PER_ARTIST = 4;
+	static final int SONGS_PER_ARTIST = SONGS_PER_ALBUM * ALBUMS_PER_ARTIST;
+
+	private BenchmarkLibrary() {
+	}
+
+	static int getAlbum(int song) {
+		return song / SONGS_PER_ALBUM;
+	}
+	static int getArtist(int song) {
+		return song / SONGS_PER_ARTIST;
+	}
+	static int getTrack(int song) {
+		return song % SONGS_PER_ALBUM + 1;
+	}
+
+	/**
+	 * Relative to the music directory, the way downloads are laid out
+	 */
+	static String getPath(int song) {
+		return "Artist " + getArtist(song) + "/Album " + getAlbum(song) + "/" + getTrack(song) + "-Song " + song + ".mp3";
+	}
+
+	/**
+	 * What the offline catalog would hold for the first songs, each artist and album folder listed before its first song
+	 */
+	static List<OfflineCatalog.Metadata> getFiles(String root, int songs) {
+		List<OfflineCatalog.Metadata> files = new ArrayList<OfflineCatalog.Metadata>();
+		for(int i = 0; i < songs; i++) {
+			File song = new File(root, getPath(i));
+			if(i % SONGS_PER_ARTIST == 0) {
+				files.add(new OfflineCatalog.Metadata(song.getParentFile().getParentFile(), true));
+			}
+			if(i % SONGS_PER_ALBUM == 0) {
+				files.add(new OfflineCatalog.Metadata(song.getParentFile(), true));
+			}
+			files.add(new OfflineCatalog.Metadata(song, false));
+		}
+		return files;
+	}
+
+	/**
+	 * Song the way the parser hands it back, every value in new strings
+	 */
+	static MusicDirectory.Entry getSong(int i) {
+		int album = getAlbum(i);
+		int artist = getArtist(i);
+
+		MusicDirectory.Entry entry = new MusicDirectory.Entry(new String("song-" + i));
+		entry.setParent(new String("album-" + album));
+		entry.setAlbumId(new String("album-" + album));
+		entry.setArtistId(new String("artist-" + artist));
+		entry.setTitle(new String("Song " + i));
+		entry.setAlbum(new String("Album " + album));
+		entry.setArtist(new String("Artist " + artist));
+		entry.setTrack(getTrack(i));
+		entry.setYear(1970 + album % 50);
+		entry.setGenre(new String("Genre " + artist % 20));
+		entry.setContentType(new String("audio/mpeg"));
+		entry.setSuffix(new String("mp3"));
+		entry.setCoverArt(new String("al-" + album));
+		entry.setSize(4000000L + i);
+		entry.setDuration(180 + i % 120);
+		entry.setBitRate(320);
+		entry.setPath(new String(getPath(i)));
+		entry.setDirectory(false);
+		return entry;
+	}
+}
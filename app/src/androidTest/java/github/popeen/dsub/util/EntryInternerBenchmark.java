@@ -0,0 +1,88 @@
+package github.popeen.dsub.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import github.popeen.dsub.domain.MusicDirectory;
+
+/**
+ * Loads a 20k song library the way it ends up in memory, once in its album directories, again in a starred list
+ * and a third time in the play queue, each load parsed into its own strings.  How much heap interning saves depends
+ * too much on the device to fail on, so that is only reported.
+ */
+public class EntryInternerBenchmark extends AndroidTestCase {
+	private static final String TAG = EntryInternerBenchmark.class.getSimpleName();
+	private static final int SONGS = 20000;
+	private static final int COPIES = 3;
+
+	public void testHeapFootprint() throws Exception {
+		long baseline = usedHeap();
+		List<List<MusicDirectory.Entry>> separate = load(false);
+		long separateHeap = usedHeap() - baseline;
+		assertEquals(COPIES, separate.size());
+		separate = null;
+
+		baseline = usedHeap();
+		List<List<MusicDirectory.Entry>> interned = load(true);
+		long internedHeap = usedHeap() - baseline;
+		assertEquals(COPIES, interned.size());
+
+		Log.i(TAG, SONGS + " songs x " + COPIES + " copies: " + separateHeap / 1024 + " KB separate, " + internedHeap / 1024 + " KB interned");
+	}
+
+	public void testSharesValuesNotEntries() {
+		MusicDirectory.Entry first = BenchmarkLibrary.getSong(1);
+		MusicDirectory.Entry second = BenchmarkLibrary.getSong(1);
+		EntryInterner.intern(first);
+		EntryInterner.intern(second);
+
+		// Each copy stays its own entry so changing one can't change the others
+		assertNotSame(first, second);
+		assertSame(first.getId(), second.getId());
+		assertSame(first.getTitle(), second.getTitle());
+
+		MusicDirectory.Entry other = BenchmarkLibrary.getSong(2);
+		EntryInterner.intern(other);
+		// Same album, so the strings should be shared even though the songs differ
+		assertSame(first.getAlbum(), other.getAlbum());
+		assertSame(first.getYear(), other.getYear());
+	}
+
+	public void testKeepsChangesToOneCopy() {
+		MusicDirectory.Entry first = BenchmarkLibrary.getSong(3);
+		MusicDirectory.Entry starred = BenchmarkLibrary.getSong(3);
+		EntryInterner.intern(first);
+		EntryInterner.intern(starred);
+
+		starred.setStarred(true);
+		assertFalse(first.isStarred());
+	}
+
+	private List<List<MusicDirectory.Entry>> load(boolean intern) {
+		List<List<MusicDirectory.Entry>> copies = new ArrayList<List<MusicDirectory.Entry>>();
+		for(int copy = 0; copy < COPIES; copy++) {
+			List<MusicDirectory.Entry> songs = new ArrayList<MusicDirectory.Entry>(SONGS);
+			for(int i = 0; i < SONGS; i++) {
+				MusicDirectory.Entry song = BenchmarkLibrary.getSong(i);
+				if(intern) {
+					EntryInterner.intern(song);
+				}
+				songs.add(song);
+			}
+			copies.add(songs);
+		}
+		return copies;
+	}
+
+	private long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+			System.runFinalization();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,137 @@
+package github.popeen.dsub.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import github.popeen.dsub.domain.MusicDirectory;
+
+/**
+ * Round trips directories through the serialized cache from as many threads as BackgroundTask uses, once with a
+ * single synchronized Kryo like FileUtil used to have and once with FileUtil's per thread Kryo.  Both go straight to
+ * the cache database, skipping the in-memory directory cache so every round trip really is serialized and read back.
+ * Numbers are logged, only the round tripped results are asserted on.
+ */
+public class KryoContentionBenchmark extends AndroidTestCase {
+	private static final String TAG = KryoContentionBenchmark.class.getSimpleName();
+	private static final int THREADS = 8;
+	private static final int ROUND_TRIPS = 50;
+	private static final int ENTRIES = 500;
+
+	private final Kryo sharedKryo = new Kryo();
+
+	public void testRoundTripsPerSecond() throws Exception {
+		MusicDirectory dir = buildDirectory();
+		// Warm up first so the JIT doesn't count against whichever goes first
+		run(dir, true);
+		run(dir, false);
+
+		double before = run(dir, true);
+		double after = run(dir, false);
+		Log.i(TAG, THREADS + " threads: " + (int) before + " round trips/sec before, " + (int) after + " round trips/sec after");
+	}
+
+	public void testSameDirectory() throws Exception {
+		MusicDirectory dir = buildDirectory();
+		assertTrue(FileUtil.serialize(getContext(), dir, "benchmark-same.ser"));
+		MusicDirectory copy = FileUtil.deserialize(getContext(), "benchmark-same.ser", MusicDirectory.class);
+		FileUtil.deleteSerialized(getContext(), "benchmark-same.ser");
+
+		assertEquals(ENTRIES, copy.getChildrenSize());
+		for(int i = 0; i < ENTRIES; i++) {
+			assertEquals(dir.getChildren().get(i).getId(), copy.getChildren().get(i).getId());
+			assertEquals(dir.getChildren().get(i).getTitle(), copy.getChildren().get(i).getTitle());
+		}
+	}
+
+	private double run(final MusicDirectory dir, final boolean legacy) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(THREADS);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i < THREADS; i++) {
+			final String name = "benchmark-" + i + ".ser";
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int j = 0; j < ROUND_TRIPS; j++) {
+							MusicDirectory copy = legacy ? roundTripLegacy(dir, name) : roundTrip(dir, name);
+							if(copy == null || copy.getChildrenSize() != ENTRIES) {
+								throw new AssertionError("Round trip " + j + " on " + name + " lost entries");
+							}
+						}
+					} catch(Throwable t) {
+						failure.compareAndSet(null, t);
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+
+		long startTime = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - startTime;
+
+		for(int i = 0; i < THREADS; i++) {
+			FileUtil.deleteSerialized(getContext(), "benchmark-" + i + ".ser");
+		}
+		if(failure.get() != null) {
+			throw new Exception(failure.get());
+		}
+		return THREADS * ROUND_TRIPS / (elapsed / 1000000000.0);
+	}
+
+	private MusicDirectory roundTrip(MusicDirectory dir, String name) {
+		CacheDBHandler cache = CacheDBHandler.getHandler(getContext());
+		cache.put(name, FileUtil.toSerialized(dir));
+		return FileUtil.fromSerialized(cache.get(name, 0), MusicDirectory.class);
+	}
+
+	private MusicDirectory roundTripLegacy(MusicDirectory dir, String name) {
+		CacheDBHandler cache = CacheDBHandler.getHandler(getContext());
+
+		Output out = new Output(4096, -1);
+		synchronized (sharedKryo) {
+			sharedKryo.writeObject(out, dir);
+		}
+		cache.put(name, out.toBytes());
+
+		Input in = new Input(cache.get(name, 0));
+		synchronized (sharedKryo) {
+			return sharedKryo.readObject(in, MusicDirectory.class);
+		}
+	}
+
+	private MusicDirectory buildDirectory() {
+		MusicDirectory dir = new MusicDirectory();
+		dir.setId("benchmark");
+		for(int i = 0; i < ENTRIES; i++) {
+			MusicDirectory.Entry entry = new MusicDirectory.Entry("song-" + i);
+			entry.setTitle("Song " + i);
+			entry.setArtist("Artist " + (i % 25));
+			entry.setAlbum("Album " + (i % 50));
+			entry.setParent("album-" + (i % 50));
+			entry.setTrack(i % 20 + 1);
+			entry.setDuration(180 + i % 120);
+			entry.setSize(4000000L + i);
+			entry.setSuffix("mp3");
+			entry.setDirectory(false);
+			dir.addChild(entry);
+		}
+		return dir;
+	}
+}
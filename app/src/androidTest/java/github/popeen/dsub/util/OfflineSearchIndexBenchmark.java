@@ -0,0 +1,77 @@
+package github.popeen.dsub.util;
+
+import java.io.File;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import github.popeen.dsub.domain.SearchCritera;
+import github.popeen.dsub.domain.SearchResult;
+
+/**
+ * Searches a 30k song offline library held in the index, the way the search box does as someone types.  Every query has
+ * to come back within 10 ms, with the same results walking the files used to find.
+ */
+public class OfflineSearchIndexBenchmark extends AndroidTestCase {
+	private static final String TAG = OfflineSearchIndexBenchmark.class.getSimpleName();
+	private static final String ROOT = "/sdcard/music";
+	private static final int SONGS = 30000;
+	private static final int RUNS = 20;
+	private static final long MAX_MICROS = 10000;
+
+	private OfflineSearchIndex index;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		index = new OfflineSearchIndex(ROOT);
+		index.onFilesAdded(BenchmarkLibrary.getFiles(ROOT, SONGS));
+	}
+
+	public void testSearchTime() {
+		String[] queries = {"s", "so", "son", "song 12", "album 99", "artist 7 album", "no match here"};
+		for(String query: queries) {
+			SearchCritera criteria = new SearchCritera(query, 20, 40, 40);
+			index.search(criteria);
+
+			long total = 0;
+			long slowest = 0;
+			for(int i = 0; i < RUNS; i++) {
+				long start = System.nanoTime();
+				index.search(criteria);
+				long micros = (System.nanoTime() - start) / 1000;
+				total += micros;
+				slowest = Math.max(slowest, micros);
+			}
+			Log.i(TAG, "\"" + query + "\" over " + index.size() + " names: " + total / RUNS / 1000.0 + " ms, slowest " + slowest / 1000.0 + " ms");
+			assertTrue("\"" + query + "\" took " + slowest / 1000.0 + " ms", slowest < MAX_MICROS);
+		}
+	}
+
+	public void testMatchesInOrder() {
+		SearchResult result = index.search(new SearchCritera("song 2999", 10, 10, 10));
+		assertTrue(result.getSongs().size() > 0);
+		assertEquals("Song 2999", result.getSongs().get(0).getTitle());
+		assertEquals("Album 249", result.getSongs().get(0).getAlbum());
+		assertEquals("Artist 62", result.getSongs().get(0).getArtist());
+
+		// Parts have to be in the same order as the query
+		assertEquals(0, index.search(new SearchCritera("2999 song", 10, 10, 10)).getSongs().size());
+	}
+
+	public void testRespectsCounts() {
+		SearchResult result = index.search(new SearchCritera("a", 5, 7, 0));
+		assertEquals(5, result.getArtists().size());
+		assertEquals(7, result.getAlbums().size());
+		assertEquals(0, result.getSongs().size());
+
+		for(int i = 1; i < result.getAlbums().size(); i++) {
+			assertTrue(result.getAlbums().get(i - 1).getCloseness() >= result.getAlbums().get(i).getCloseness());
+		}
+	}
+
+	public void testRemovedFolder() {
+		index.onFileRemoved(new File(ROOT, "Artist 62"));
+		assertEquals(0, index.search(new SearchCritera("song 2999", 10, 10, 10)).getSongs().size());
+		assertEquals(0, index.search(new SearchCritera("artist 62", 10, 10, 10)).getArtists().size());
+	}
+}
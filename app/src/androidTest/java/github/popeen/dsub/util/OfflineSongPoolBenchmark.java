@@ -0,0 +1,64 @@
+package github.popeen.dsub.util;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Fills a shuffle buffer from a 30k song offline library the way ShufflePlayBuffer asks for it, checking that picks
+ * never repeat and never include anything that was removed.
+ */
+public class OfflineSongPoolBenchmark extends AndroidTestCase {
+	private static final String TAG = OfflineSongPoolBenchmark.class.getSimpleName();
+	private static final String ROOT = "/sdcard/music";
+	private static final int SONGS = 30000;
+	private static final int RUNS = 100;
+
+	private OfflineSongPool pool;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		pool = new OfflineSongPool(ROOT);
+
+		pool.onFilesAdded(BenchmarkLibrary.getFiles(ROOT, SONGS));
+	}
+
+	public void testRefillTime() {
+		assertEquals(SONGS, pool.size());
+
+		long start = System.nanoTime();
+		for(int i = 0; i < RUNS; i++) {
+			assertEquals(20, pool.getRandomSongs(20, null, null, null).size());
+		}
+		Log.i(TAG, "20 random out of " + SONGS + " songs: " + (System.nanoTime() - start) / RUNS / 1000 + " us");
+	}
+
+	public void testNoRepeats() {
+		List<OfflineCatalog.Metadata> songs = pool.getRandomSongs(500, null, null, null);
+		Set<File> files = new HashSet<File>();
+		for(OfflineCatalog.Metadata metadata: songs) {
+			assertFalse(metadata.directory);
+			assertTrue(files.add(metadata.file));
+		}
+	}
+
+	public void testUntaggedIgnoresFilters() {
+		// Nothing has tags, so there is nothing to filter on
+		assertEquals(10, pool.getRandomSongs(10, "Rock", "1990", "1999").size());
+	}
+
+	public void testRemovedFolder() {
+		File artistDir = new File(ROOT, "Artist 0");
+		pool.onFileRemoved(artistDir);
+		assertEquals(SONGS - BenchmarkLibrary.SONGS_PER_ARTIST, pool.size());
+
+		for(OfflineCatalog.Metadata metadata: pool.getRandomSongs(1000, null, null, null)) {
+			assertFalse(metadata.file.getPath().startsWith(artistDir.getPath() + "/"));
+		}
+	}
+}
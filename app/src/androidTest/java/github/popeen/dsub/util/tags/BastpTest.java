@@ -0,0 +1,66 @@
+package github.popeen.dsub.util.tags;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Parses an ID3v2.3 tag built in memory, with the title and ReplayGain frames placed after a large embedded picture
+ * the way most taggers write them.
+ */
+public class BastpTest extends TestCase {
+	private static final int PICTURE_SIZE = 1024 * 1024;
+
+	public void testID3TagsAfterPicture() throws Exception {
+		Tags tags = new Bastp().getTags(new TagReader(buildID3()));
+
+		assertEquals("ID3", tags.getMagic().substring(0, 3));
+		assertEquals("Title", tags.getTitle());
+		assertEquals("Artist", tags.getArtist());
+		assertEquals(-6.5f, tags.getTrackGain());
+		assertEquals(-7.25f, tags.getAlbumGain());
+		assertTrue(tags.getHeaderLength() > PICTURE_SIZE);
+	}
+
+	public void testMissingGain() throws Exception {
+		Tags tags = new Bastp().getTags(new TagReader(new byte[] {'n', 'o', 'n', 'e', 0, 0, 0, 0}));
+		assertNull(tags.getTrackGain());
+		assertNull(tags.getTitle());
+	}
+
+	private byte[] buildID3() throws Exception {
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		writeFrame(frames, "APIC", new byte[PICTURE_SIZE]);
+		writeFrame(frames, "TIT2", text("Title"));
+		writeFrame(frames, "TPE1", text("Artist"));
+		writeFrame(frames, "TXXX", text("REPLAYGAIN_TRACK_GAIN\0-6.50 dB"));
+		writeFrame(frames, "TXXX", text("replaygain_album_gain\0-7.25 dB"));
+		// Padding
+		frames.write(new byte[64]);
+
+		int size = frames.size();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] {'I', 'D', '3', 3, 0, 0});
+		// Tag size is stored 7 bits per byte
+		out.write((size >> 21) & 0x7f);
+		out.write((size >> 14) & 0x7f);
+		out.write((size >> 7) & 0x7f);
+		out.write(size & 0x7f);
+		frames.writeTo(out);
+		return out.toByteArray();
+	}
+
+	private byte[] text(String value) throws Exception {
+		byte[] raw = value.getBytes("ISO-8859-1");
+		byte[] result = new byte[raw.length + 1];
+		System.arraycopy(raw, 0, result, 1, raw.length);
+		return result;
+	}
+
+	private void writeFrame(ByteArrayOutputStream out, String name, byte[] payload) throws Exception {
+		out.write(name.getBytes("ISO-8859-1"));
+		int size = payload.length;
+		out.write(new byte[] {(byte) (size >> 24), (byte) (size >> 16), (byte) (size >> 8), (byte) size, 0, 0});
+		out.write(payload);
+	}
+}
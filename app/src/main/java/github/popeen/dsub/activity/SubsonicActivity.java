@@ -93,6 +93,7 @@ import github.popeen.dsub.updates.UpdateApp;
 import github.popeen.dsub.util.Constants;
 import github.popeen.dsub.util.DrawableTint;
 import github.popeen.dsub.util.ImageLoader;
+import github.popeen.dsub.util.MusicDirectoryCache;
 import github.popeen.dsub.util.KakaduaUtil;
 import github.popeen.dsub.util.SilentBackgroundTask;
 import github.popeen.dsub.util.Util;
@@ -315,6 +316,7 @@ public class SubsonicActivity extends AppCompatActivity implements OnItemSelecte
 
 		populateTabs();
 		getImageLoader().onUIVisible();
+		MusicDirectoryCache.getInstance().onUIVisible();
 		UpdateView.addActiveActivity();
 
         checkIfServerOutdated();
@@ -27,7 +27,7 @@ import java.util.Locale;
 /**
  * Created by Scott on 11/4/13.
  */
-public class Bookmark implements Serializable {
+public class Bookmark implements Serializable, Cloneable {
 	private int position;
 	private String username;
 	private String comment;
@@ -41,6 +41,14 @@ public class Bookmark implements Serializable {
 		this.position = position;
 	}
 
+	public Bookmark copy() {
+		try {
+			return (Bookmark) super.clone();
+		} catch(CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+
 	public int getPosition() {
 		return position;
 	}
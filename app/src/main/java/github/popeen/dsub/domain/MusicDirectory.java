@@ -26,8 +26,13 @@ import android.util.Log;
 
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.io.File;
 import java.io.Serializable;
 import java.util.Collections;
@@ -97,6 +102,32 @@ public class MusicDirectory implements Serializable {
 		this.children = children;
 	}
 
+	/**
+	 * Copy with its own list of children, the entries themselves are shared
+	 */
+	public synchronized MusicDirectory copy() {
+		MusicDirectory copy = new MusicDirectory(new ArrayList<Entry>(children));
+		copy.setId(id);
+		copy.setName(name);
+		copy.setParent(parent);
+		return copy;
+	}
+	/**
+	 * Copy with its own copy of every entry, for keeping around where changes made to the ones handed out can't reach it
+	 */
+	public synchronized MusicDirectory deepCopy() {
+		List<Entry> entries = new ArrayList<Entry>(children.size());
+		for(Entry entry: children) {
+			entries.add(entry.copy());
+		}
+
+		MusicDirectory copy = new MusicDirectory(entries);
+		copy.setId(id);
+		copy.setName(name);
+		copy.setParent(parent);
+		return copy;
+	}
+
     public synchronized List<Entry> getChildren() {
         return getChildren(true, true);
     }
@@ -142,88 +173,120 @@ public class MusicDirectory implements Serializable {
 		EntryComparator.sort(children, byYear);
 	}
 
+	/**
+	 * Compare against a newer copy of this directory by id, in one pass over each
+	 */
+	public synchronized Diff diff(MusicDirectory refreshedDirectory) {
+		Map<String, Entry> refreshedById = refreshedDirectory.getChildrenById();
+		Diff diff = new Diff();
+
+		Set<String> existing = new HashSet<String>(children.size());
+		for(Entry entry: children) {
+			if(entry == null || entry.getId() == null) {
+				continue;
+			}
+
+			existing.add(entry.getId());
+			Entry refreshed = refreshedById.get(entry.getId());
+			if(refreshed == null) {
+				diff.removed.add(entry);
+			} else if(!entry.isMetadataEqual(refreshed)) {
+				diff.changed.put(entry, refreshed);
+			}
+		}
+
+		for(Entry refreshed: refreshedById.values()) {
+			if(!existing.contains(refreshed.getId())) {
+				diff.added.add(refreshed);
+			}
+		}
+
+		return diff;
+	}
+	private synchronized Map<String, Entry> getChildrenById() {
+		Map<String, Entry> byId = new LinkedHashMap<String, Entry>(children.size() * 2);
+		for(Entry entry: children) {
+			if(entry != null && entry.getId() != null && !byId.containsKey(entry.getId())) {
+				byId.put(entry.getId(), entry);
+			}
+		}
+		return byId;
+	}
+
 	public synchronized boolean updateMetadata(MusicDirectory refreshedDirectory) {
-		boolean metadataUpdated = false;
-		Iterator<Entry> it = children.iterator();
-		while(it.hasNext()) {
-			Entry entry = it.next();
-			int index = refreshedDirectory.children.indexOf(entry);
-			if(index != -1) {
-				final Entry refreshed = refreshedDirectory.children.get(index);
-
-				entry.setTitle(refreshed.getTitle());
-				entry.setAlbum(refreshed.getAlbum());
-				entry.setArtist(refreshed.getArtist());
-				entry.setTrack(refreshed.getTrack());
-				entry.setYear(refreshed.getYear());
-				entry.setGenre(refreshed.getGenre());
-				entry.setTranscodedContentType(refreshed.getTranscodedContentType());
-				entry.setTranscodedSuffix(refreshed.getTranscodedSuffix());
-				entry.setDiscNumber(refreshed.getDiscNumber());
-				entry.setStarred(refreshed.isStarred());
-				entry.setRating(refreshed.getRating());
-				entry.setType(refreshed.getType());
-				if(!Util.equals(entry.getCoverArt(), refreshed.getCoverArt())) {
-					metadataUpdated = true;
-					entry.setCoverArt(refreshed.getCoverArt());
-				}
+		final Map<Entry, Entry> changed = diff(refreshedDirectory).changed;
+		if(changed.isEmpty()) {
+			return false;
+		}
 
-				new UpdateHelper.EntryInstanceUpdater(entry) {
-					@Override
-					public void update(Entry found) {
-						found.setTitle(refreshed.getTitle());
-						found.setAlbum(refreshed.getAlbum());
-						found.setArtist(refreshed.getArtist());
-						found.setTrack(refreshed.getTrack());
-						found.setYear(refreshed.getYear());
-						found.setGenre(refreshed.getGenre());
-						found.setTranscodedContentType(refreshed.getTranscodedContentType());
-						found.setTranscodedSuffix(refreshed.getTranscodedSuffix());
-						found.setDiscNumber(refreshed.getDiscNumber());
-						found.setStarred(refreshed.isStarred());
-						found.setRating(refreshed.getRating());
-						found.setType(refreshed.getType());
-						if(!Util.equals(found.getCoverArt(), refreshed.getCoverArt())) {
-							found.setCoverArt(refreshed.getCoverArt());
-							metadataUpdate = DownloadService.METADATA_UPDATED_COVER_ART;
-						}
-					}
-				}.execute();
+		boolean metadataUpdated = false;
+		final Map<String, Entry> refreshedById = new HashMap<String, Entry>(changed.size() * 2);
+		for(Map.Entry<Entry, Entry> change: changed.entrySet()) {
+			Entry entry = change.getKey();
+			Entry refreshed = change.getValue();
+			if(!Util.equals(entry.getCoverArt(), refreshed.getCoverArt())) {
+				metadataUpdated = true;
 			}
+			entry.copyMetadata(refreshed);
+			refreshedById.put(refreshed.getId(), refreshed);
 		}
 
+		// Push the changes out to the play queue and any visible views once for all of them
+		new UpdateHelper.EntryInstanceUpdater(refreshedById) {
+			@Override
+			public void update(Entry found) {
+				Entry refreshed = refreshedById.get(found.getId());
+				if(!Util.equals(found.getCoverArt(), refreshed.getCoverArt())) {
+					metadataUpdate = DownloadService.METADATA_UPDATED_COVER_ART;
+				}
+				found.copyMetadata(refreshed);
+			}
+		}.execute();
+
 		return metadataUpdated;
 	}
 	public synchronized boolean updateEntriesList(Context context, int instance, MusicDirectory refreshedDirectory) {
-		boolean changed = false;
-		Iterator<Entry> it = children.iterator();
-		while(it.hasNext()) {
-			Entry entry = it.next();
-			// No longer exists in here
-			if(refreshedDirectory.children.indexOf(entry) == -1) {
-				it.remove();
-				changed = true;
-			}
+		Diff diff = diff(refreshedDirectory);
+		if(diff.removed.isEmpty() && diff.added.isEmpty()) {
+			return false;
 		}
 
-		// Make sure we contain all children from refreshed set
-		boolean resort = false;
-		for(Entry refreshed: refreshedDirectory.children) {
-			if(!this.children.contains(refreshed)) {
-				this.children.add(refreshed);
-				resort = true;
-				changed = true;
+		if(!diff.removed.isEmpty()) {
+			// Go by id so duplicates of a removed entry go with it
+			Set<String> removed = new HashSet<String>(diff.removed.size() * 2);
+			for(Entry entry: diff.removed) {
+				removed.add(entry.getId());
+			}
+
+			Iterator<Entry> it = children.iterator();
+			while(it.hasNext()) {
+				Entry entry = it.next();
+				if(entry != null && removed.contains(entry.getId())) {
+					it.remove();
+				}
 			}
 		}
 
-		if(resort) {
+		// Make sure we contain all children from refreshed set
+		if(!diff.added.isEmpty()) {
+			this.children.addAll(diff.added);
 			this.sortChildren(context, instance);
 		}
 
-		return changed;
+		return true;
+	}
+
+	/**
+	 * What changed between a directory and a refreshed copy of it.  Changed maps each existing entry to its refreshed
+	 * version, and only has the ones where something updateMetadata copies is different.
+	 */
+	public static class Diff {
+		public final List<Entry> added = new ArrayList<Entry>();
+		public final List<Entry> removed = new ArrayList<Entry>();
+		public final Map<Entry, Entry> changed = new LinkedHashMap<Entry, Entry>();
 	}
 
-    public static class Entry implements Serializable {
+    public static class Entry implements Serializable, Cloneable {
 		public static final int TYPE_SONG = 0;
 		public static final int TYPE_PODCAST = 1;
 		public static final int TYPE_AUDIO_BOOK = 2;
@@ -303,6 +366,19 @@ public class MusicDirectory implements Serializable {
 				if(album != null) {
 					setAlbum(album);
 				}
+				String genre = metadata.extractMetadata(MediaMetadataRetriever.METADATA_KEY_GENRE);
+				if(genre != null) {
+					setGenre(genre);
+				}
+				// Usually just the year, but some taggers write a whole date
+				String year = metadata.extractMetadata(MediaMetadataRetriever.METADATA_KEY_YEAR);
+				if(year != null && year.length() >= 4) {
+					try {
+						setYear(Integer.parseInt(year.substring(0, 4)));
+					} catch(NumberFormatException e) {
+						Log.w(TAG, "Non numbers in year field!");
+					}
+				}
 				metadata.release();
 			} catch(Exception e) {
 				Log.i(TAG, "Device doesn't properly support MediaMetadataRetreiver", e);
@@ -600,6 +676,44 @@ public class MusicDirectory implements Serializable {
 			}
 		}
 
+		/**
+		 * Copy of every field, including for subclasses, with its own bookmark since that is changed in place
+		 */
+		public Entry copy() {
+			try {
+				Entry copy = (Entry) super.clone();
+				if(bookmark != null) {
+					copy.bookmark = bookmark.copy();
+				}
+				return copy;
+			} catch(CloneNotSupportedException e) {
+				throw new AssertionError(e);
+			}
+		}
+
+		private void copyMetadata(Entry refreshed) {
+			setTitle(refreshed.getTitle());
+			setAlbum(refreshed.getAlbum());
+			setArtist(refreshed.getArtist());
+			setTrack(refreshed.getTrack());
+			setYear(refreshed.getYear());
+			setGenre(refreshed.getGenre());
+			setTranscodedContentType(refreshed.getTranscodedContentType());
+			setTranscodedSuffix(refreshed.getTranscodedSuffix());
+			setDiscNumber(refreshed.getDiscNumber());
+			setStarred(refreshed.isStarred());
+			setRating(refreshed.getRating());
+			setType(refreshed.getType());
+			setCoverArt(refreshed.getCoverArt());
+		}
+		private boolean isMetadataEqual(Entry refreshed) {
+			return Util.equals(title, refreshed.getTitle()) && Util.equals(album, refreshed.getAlbum()) && Util.equals(artist, refreshed.getArtist()) &&
+					Util.equals(track, refreshed.getTrack()) && Util.equals(year, refreshed.getYear()) && Util.equals(genre, refreshed.getGenre()) &&
+					Util.equals(transcodedContentType, refreshed.getTranscodedContentType()) && Util.equals(transcodedSuffix, refreshed.getTranscodedSuffix()) &&
+					Util.equals(getDiscNumber(), refreshed.getDiscNumber()) && isStarred() == refreshed.isStarred() && getRating() == refreshed.getRating() &&
+					getType() == refreshed.getType() && Util.equals(coverArt, refreshed.getCoverArt());
+		}
+
         @Override
         public boolean equals(Object o) {
             if (this == o) {
@@ -234,6 +234,10 @@ public class ServerInfo implements Serializable {
 		return false; /*isStockSubsonic(context, instance) && checkServerVersion(context, "1.13", instance) ||
 				isMadsonic(context, instance) && checkServerVersion(context, "2.0", instance);*/
 	}
+	public static boolean canUseJson(Context context, int instance) {
+		// Madsonic and Ampache get XML until their JSON output has been checked against the parsers
+		return isStockSubsonic(context, instance) && checkServerVersion(context, "1.4.0", instance);
+	}
 	public static boolean hasSimilarArtists(Context context) {
 		return !ServerInfo.isMadsonic(context) || ServerInfo.checkServerVersion(context, "2.0");
 	}
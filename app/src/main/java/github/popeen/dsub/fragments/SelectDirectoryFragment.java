@@ -70,6 +70,7 @@ import github.popeen.dsub.service.ServerTooOldException;
 import github.popeen.dsub.util.Constants;
 import github.popeen.dsub.util.LoadingTask;
 import github.popeen.dsub.util.Pair;
+import github.popeen.dsub.util.PartialResultListener;
 import github.popeen.dsub.util.SilentBackgroundTask;
 import github.popeen.dsub.util.TabBackgroundTask;
 import github.popeen.dsub.util.UpdateHelper;
@@ -99,6 +100,7 @@ public class SelectDirectoryFragment extends SubsonicFragment implements Section
 	private List<Entry> albums;
 	private List<Entry> entries;
 	private LoadTask currentTask;
+	private boolean showingPartialEntries = false;
 	private ArtistInfo artistInfo;
 	private String artistInfoDelayed;
 
@@ -645,7 +647,7 @@ public class SelectDirectoryFragment extends SubsonicFragment implements Section
 		}.execute();
 	}
 
-	private abstract class LoadTask extends TabBackgroundTask<Pair<MusicDirectory, Boolean>> {
+	private abstract class LoadTask extends TabBackgroundTask<Pair<MusicDirectory, Boolean>> implements PartialResultListener {
 		private boolean refresh;
 
 		public LoadTask(boolean refresh) {
@@ -700,6 +702,23 @@ public class SelectDirectoryFragment extends SubsonicFragment implements Section
 			currentTask = null;
 		}
 
+		@Override
+		public void onPartialResult(final List<Entry> partial) {
+			// Infinite lists already load a page at a time
+			if(albumListType != null && !"starred".equals(albumListType)) {
+				return;
+			}
+
+			getHandler().post(new Runnable() {
+				@Override
+				public void run() {
+					if(currentTask == LoadTask.this && !isCancelled()) {
+						showPartialEntries(partial);
+					}
+				}
+			});
+		}
+
 		@Override
 		public void updateCache(int changeCode) {
 			if(entryGridAdapter != null && changeCode == CachedMusicService.CACHE_UPDATE_LIST) {
@@ -738,6 +757,26 @@ public class SelectDirectoryFragment extends SubsonicFragment implements Section
 		};
 	}
 
+	private void showPartialEntries(List<Entry> partial) {
+		if(entryGridAdapter == null) {
+			entryGridAdapter = new EntryGridAdapter(context, partial, getImageLoader(), largeAlbums);
+			entryGridAdapter.setRemoveFromPlaylist(playlistId != null);
+			entryGridAdapter.setOnItemClickedListener(this);
+			if(!artist) {
+				entryGridAdapter.setShowArtist(true);
+			}
+
+			recyclerView.setAdapter(entryGridAdapter);
+			recyclerView.setVisibility(View.VISIBLE);
+		} else if(showingPartialEntries) {
+			entryGridAdapter.replaceExistingData(partial);
+		} else {
+			// Refreshing a list that is already showing in full, swapping in the start of it would only shrink it for a moment
+			return;
+		}
+		showingPartialEntries = true;
+	}
+
     private void finishLoading() {
 		boolean validData = !entries.isEmpty() || !albums.isEmpty();
 		if(!validData) {
@@ -852,6 +891,19 @@ public class SelectDirectoryFragment extends SubsonicFragment implements Section
 			}
 		}
 
+		// Don't jump back to the top if the user already started scrolling through the partial list
+		if(scrollToPosition == -1 && showingPartialEntries) {
+			RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+			if(layoutManager instanceof LinearLayoutManager) {
+				int firstVisible = ((LinearLayoutManager) layoutManager).findFirstVisibleItemPosition();
+				if(firstVisible > 0) {
+					scrollToPosition = firstVisible;
+					addedHeader = false;
+				}
+			}
+		}
+		showingPartialEntries = false;
+
 		recyclerView.setAdapter(entryGridAdapter);
 		fastScroller.attachRecyclerView(recyclerView);
 		context.supportInvalidateOptionsMenu();
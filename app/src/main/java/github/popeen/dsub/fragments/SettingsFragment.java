@@ -50,6 +50,8 @@ import github.popeen.dsub.service.DownloadService;
 import github.popeen.dsub.service.HeadphoneListenerService;
 import github.popeen.dsub.service.MusicService;
 import github.popeen.dsub.service.MusicServiceFactory;
+import github.popeen.dsub.util.BandwidthLimiter;
+import github.popeen.dsub.util.CircuitBreaker;
 import github.popeen.dsub.util.Constants;
 import github.popeen.dsub.util.FileUtil;
 import github.popeen.dsub.util.LoadingTask;
@@ -70,6 +72,9 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 	private ListPreference networkTimeout;
 	private CacheLocationPreference cacheLocation;
 	private ListPreference preloadCountWifi;
+	private ListPreference concurrentDownloads;
+	private ListPreference downloadRateLimit;
+	private ListPreference cacheRefresh;
 	private ListPreference preloadCountMobile;
 	private ListPreference keepPlayedCount;
 	private ListPreference tempLoss;
@@ -168,6 +173,9 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 			DownloadService downloadService = DownloadService.getInstance();
 			downloadService.setSleepTimerDuration(Integer.parseInt(sharedPreferences.getString(key, "60")));
 		}
+		else if(Constants.PREFERENCES_KEY_DOWNLOAD_RATE_LIMIT.equals(key)) {
+			BandwidthLimiter.getInstance(context).update();
+		}
 		else if(Constants.PREFERENCES_KEY_SYNC_MOST_RECENT.equals(key)) {
 			SyncUtil.removeMostRecentSyncFiles(context);
 		} else if(Constants.PREFERENCES_KEY_REPLAY_GAIN.equals(key) || Constants.PREFERENCES_KEY_REPLAY_GAIN_BUMP.equals(key) || Constants.PREFERENCES_KEY_REPLAY_GAIN_UNTAGGED.equals(key)) {
@@ -208,6 +216,9 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 		cacheLocation = (CacheLocationPreference) this.findPreference(Constants.PREFERENCES_KEY_CACHE_LOCATION);
 		preloadCountWifi = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_PRELOAD_COUNT_WIFI);
 		preloadCountMobile = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_PRELOAD_COUNT_MOBILE);
+		concurrentDownloads = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_CONCURRENT_DOWNLOADS);
+		downloadRateLimit = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_DOWNLOAD_RATE_LIMIT);
+		cacheRefresh = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_CACHE_REFRESH);
 		keepPlayedCount = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_KEEP_PLAYED_CNT);
 		tempLoss = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_TEMP_LOSS);
 		pauseDisconnect = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_PAUSE_DISCONNECT);
@@ -364,6 +375,9 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 			cacheLocation.setSummary(cacheLocation.getText());
 			preloadCountWifi.setSummary(preloadCountWifi.getEntry());
 			preloadCountMobile.setSummary(preloadCountMobile.getEntry());
+			concurrentDownloads.setSummary(concurrentDownloads.getEntry());
+			downloadRateLimit.setSummary(downloadRateLimit.getEntry());
+			cacheRefresh.setSummary(cacheRefresh.getEntry());
 
 			try {
 				if(megabyteFromat == null) {
@@ -528,6 +542,14 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 		serverSyncPreference.setSummary(R.string.settings_server_sync_summary);
 		serverSyncPreference.setTitle(R.string.settings_server_sync);
 
+		final ListPreference serverConcurrentDownloadsPreference = new ListPreference(context);
+		serverConcurrentDownloadsPreference.setKey(Constants.PREFERENCES_KEY_SERVER_CONCURRENT_DOWNLOADS + instance);
+		serverConcurrentDownloadsPreference.setEntries(R.array.serverConcurrentDownloadsNames);
+		serverConcurrentDownloadsPreference.setEntryValues(R.array.serverConcurrentDownloadsValues);
+		serverConcurrentDownloadsPreference.setDefaultValue("-1");
+		serverConcurrentDownloadsPreference.setTitle(R.string.settings_server_concurrent_downloads);
+		serverConcurrentDownloadsPreference.setDialogTitle(R.string.settings_server_concurrent_downloads);
+
 		final Preference serverOpenBrowser = new Preference(context);
 		serverOpenBrowser.setKey(Constants.PREFERENCES_KEY_OPEN_BROWSER);
 		serverOpenBrowser.setPersistent(false);
@@ -601,6 +623,7 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 		screen.addPreference(serverUsernamePreference);
 		screen.addPreference(serverPasswordPreference);
 		screen.addPreference(serverSyncPreference);
+		screen.addPreference(serverConcurrentDownloadsPreference);
 		screen.addPreference(serverTestConnectionPreference);
 		screen.addPreference(serverOpenBrowser);
 		screen.addPreference(serverRemoveServerPreference);
@@ -683,6 +706,8 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 				testingConnection = true;
 				MusicService musicService = MusicServiceFactory.getMusicService(context);
 				try {
+					// Always actually try the server when the user asks for it
+					CircuitBreaker.resetAll();
 					musicService.setInstance(instance);
 					musicService.ping(context, this);
 					return musicService.isLicenseValid(context, null);
@@ -737,6 +762,7 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 		private EditTextPreference serverLocalNetworkSSID;
 		private EditTextPreference serverInternalUrl;
 		private EditTextPreference username;
+		private ListPreference concurrentDownloads;
 		private PreferenceScreen screen;
 
 		private ServerSettings(int instance) {
@@ -747,6 +773,7 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 			serverLocalNetworkSSID = (EditTextPreference) SettingsFragment.this.findPreference(Constants.PREFERENCES_KEY_SERVER_LOCAL_NETWORK_SSID + instance);
 			serverInternalUrl = (EditTextPreference) SettingsFragment.this.findPreference(Constants.PREFERENCES_KEY_SERVER_INTERNAL_URL + instance);
 			username = (EditTextPreference) SettingsFragment.this.findPreference(Constants.PREFERENCES_KEY_USERNAME + instance);
+			concurrentDownloads = (ListPreference) SettingsFragment.this.findPreference(Constants.PREFERENCES_KEY_SERVER_CONCURRENT_DOWNLOADS + instance);
 
 			if(serverName != null) {
 				serverUrl.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
@@ -815,6 +842,7 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 					serverLocalNetworkSSID.setSummary(serverLocalNetworkSSID.getText());
 					serverInternalUrl.setSummary(serverInternalUrl.getText());
 					username.setSummary(username.getText());
+					concurrentDownloads.setSummary(concurrentDownloads.getEntry());
 
 					setTitle(serverName.getText());
 				}
@@ -94,6 +94,7 @@ import github.popeen.dsub.util.FileUtil;
 import github.popeen.dsub.util.ImageLoader;
 import github.popeen.dsub.util.LoadingTask;
 import github.popeen.dsub.util.MenuUtil;
+import github.popeen.dsub.util.OfflineCatalog;
 import github.popeen.dsub.util.ProgressListener;
 import github.popeen.dsub.util.SilentBackgroundTask;
 import github.popeen.dsub.util.SongDBHandler;
@@ -1489,6 +1490,7 @@ public class SubsonicFragment extends Fragment implements SwipeRefreshLayout.OnR
 			protected Void doInBackground() throws Throwable {
 				MediaStoreService mediaStore = new MediaStoreService(context);
 				FileUtil.recursiveDelete(dir, mediaStore);
+				OfflineCatalog.getCatalog(context).fileRemoved(dir);
 				return null;
 			}
 
@@ -22,9 +22,15 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.http.HttpResponse;
@@ -51,12 +57,16 @@ import github.popeen.dsub.domain.SearchCritera;
 import github.popeen.dsub.domain.SearchResult;
 import github.popeen.dsub.domain.Share;
 import github.popeen.dsub.domain.User;
+import github.popeen.dsub.util.CacheDBHandler;
+import github.popeen.dsub.util.CachePolicy;
+import github.popeen.dsub.util.Pair;
 import github.popeen.dsub.util.SilentBackgroundTask;
 import github.popeen.dsub.util.ProgressListener;
 import github.popeen.dsub.util.SongDBHandler;
 import github.popeen.dsub.util.SyncUtil;
 import github.popeen.dsub.util.TimeLimitedCache;
 import github.popeen.dsub.util.FileUtil;
+import github.popeen.dsub.util.OfflineCatalog;
 import github.popeen.dsub.util.Util;
 
 import static github.popeen.dsub.domain.MusicDirectory.Entry;
@@ -67,18 +77,15 @@ import static github.popeen.dsub.domain.MusicDirectory.Entry;
 public class CachedMusicService implements MusicService {
 	private static final String TAG = CachedMusicService.class.getSimpleName();
 
-    private static final int MUSIC_DIR_CACHE_SIZE = 20;
-    private static final int TTL_MUSIC_DIR = 5 * 60; // Five minutes
 	public static final int CACHE_UPDATE_LIST = 1;
 	public static final int CACHE_UPDATE_METADATA = 2;
-	private static final int CACHED_LAST_FM = 24 * 60;
 
 	private final RESTMusicService musicService;
     private final TimeLimitedCache<Boolean> cachedLicenseValid = new TimeLimitedCache<Boolean>(120, TimeUnit.SECONDS);
-    private final TimeLimitedCache<Indexes> cachedIndexes = new TimeLimitedCache<Indexes>(60 * 60, TimeUnit.SECONDS);
-    private final TimeLimitedCache<List<Playlist>> cachedPlaylists = new TimeLimitedCache<List<Playlist>>(3600, TimeUnit.SECONDS);
+    private final TimeLimitedCache<Indexes> cachedIndexes = new TimeLimitedCache<Indexes>(CachePolicy.Resource.INDEXES.getTtl(), TimeUnit.MILLISECONDS);
+    private final TimeLimitedCache<List<Playlist>> cachedPlaylists = new TimeLimitedCache<List<Playlist>>(CachePolicy.Resource.PLAYLIST.getTtl(), TimeUnit.MILLISECONDS);
     private final TimeLimitedCache<List<MusicFolder>> cachedMusicFolders = new TimeLimitedCache<List<MusicFolder>>(10 * 3600, TimeUnit.SECONDS);
-	private final TimeLimitedCache<List<PodcastChannel>> cachedPodcastChannels = new TimeLimitedCache<List<PodcastChannel>>(10 * 3600, TimeUnit.SECONDS);
+	private final TimeLimitedCache<List<PodcastChannel>> cachedPodcastChannels = new TimeLimitedCache<List<PodcastChannel>>(CachePolicy.Resource.PODCAST.getTtl(), TimeUnit.MILLISECONDS);
     private String restUrl;
 	private String musicFolderId;
 	private boolean isTagBrowsing = false;
@@ -114,15 +121,21 @@ public class CachedMusicService implements MusicService {
     }
 
     @Override
-    public List<MusicFolder> getMusicFolders(boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+    public List<MusicFolder> getMusicFolders(boolean refresh, final Context context, ProgressListener progressListener) throws Exception {
         checkSettingsChanged(context);
         if (refresh) {
             cachedMusicFolders.clear();
         }
         List<MusicFolder> result = cachedMusicFolders.get();
         if (result == null) {
-        	if(!refresh) {
-        		result = FileUtil.deserialize(context, getCacheName(context, "musicFolders"), ArrayList.class);
+			String cacheName = getCacheName(context, "musicFolders");
+        	if(!refresh && useCached(context, CachePolicy.Resource.INDEXES, cacheName, new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return getMusicFolders(true, context, null);
+				}
+			})) {
+        		result = FileUtil.deserialize(context, cacheName, ArrayList.class);
         	}
 
         	if(result == null) {
@@ -142,7 +155,7 @@ public class CachedMusicService implements MusicService {
 	}
 
 	@Override
-    public Indexes getIndexes(String musicFolderId, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+    public Indexes getIndexes(final String musicFolderId, boolean refresh, final Context context, ProgressListener progressListener) throws Exception {
         checkSettingsChanged(context);
         if (refresh) {
             cachedIndexes.clear();
@@ -152,7 +165,12 @@ public class CachedMusicService implements MusicService {
         if (result == null) {
 			String name = Util.isTagBrowsing(context, musicService.getInstance(context)) ? "artists" : "indexes";
 			name = getCacheName(context, name, musicFolderId);
-			if(!refresh) {
+			if(!refresh && useCached(context, CachePolicy.Resource.INDEXES, name, new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return getIndexes(musicFolderId, true, context, null);
+				}
+			})) {
 				result = FileUtil.deserialize(context, name, Indexes.class);
 			}
 
@@ -168,29 +186,40 @@ public class CachedMusicService implements MusicService {
     @Override
     public MusicDirectory getMusicDirectory(final String id, final String name, final boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
 		MusicDirectory dir = null;
-		final MusicDirectory cached = FileUtil.deserialize(context, getCacheName(context, "directory", id), MusicDirectory.class);
-		if(!refresh && cached != null) {
+		final String cacheName = getCacheName(context, "directory", id);
+		final MusicDirectory cached = FileUtil.deserialize(context, cacheName, MusicDirectory.class);
+		CachePolicy.Freshness freshness = refresh || cached == null ? CachePolicy.Freshness.EXPIRED : CachePolicy.getFreshness(context, CachePolicy.Resource.DIRECTORY, cacheName);
+		if(freshness != CachePolicy.Freshness.EXPIRED) {
 			dir = cached;
+		}
 
+		if(freshness == CachePolicy.Freshness.STALE && CachePolicy.beginRevalidate(context, CachePolicy.Resource.DIRECTORY, cacheName)) {
 			new SilentBackgroundTask<Void>(context) {
 				MusicDirectory refreshed;
 				private boolean metadataUpdated;
 
 				@Override
 				protected Void doInBackground() throws Throwable {
-					refreshed = musicService.getMusicDirectory(id, name, true, context, null);
+					Pair<MusicDirectory, String> response = musicService.getDirectoryIfChanged("getMusicDirectory", id, name, FileUtil.getCacheDigest(context, cacheName), context);
+					refreshed = response.getFirst();
+					if(refreshed == null) {
+						// Nothing changed on the server since the cache was written
+						FileUtil.touchSerialized(context, cacheName);
+						return null;
+					}
 					updateAllSongs(context, refreshed);
 
 					metadataUpdated = cached.updateMetadata(refreshed);
 					deleteRemovedEntries(context, refreshed, cached);
-					FileUtil.serialize(context, refreshed, getCacheName(context, "directory", id));
+					saveWithDigest(context, refreshed, cacheName, response.getSecond());
 					return null;
 				}
 
 				// Update which entries exist
 				@Override
 				public void done(Void result) {
-					if(progressListener != null) {
+					CachePolicy.endRevalidate(cacheName, true);
+					if(progressListener != null && refreshed != null) {
 						if(cached.updateEntriesList(context, musicService.getInstance(context), refreshed)) {
 
 							progressListener.updateCache(CACHE_UPDATE_LIST);
@@ -204,6 +233,7 @@ public class CachedMusicService implements MusicService {
 				@Override
 				public void error(Throwable error) {
 					Log.e(TAG, "Failed to refresh music directory", error);
+					CachePolicy.endRevalidate(cacheName, false);
 				}
 			}.execute();
 		}
@@ -211,7 +241,7 @@ public class CachedMusicService implements MusicService {
 		if(dir == null) {
 			dir = musicService.getMusicDirectory(id, name, refresh, context, progressListener);
 			updateAllSongs(context, dir);
-			FileUtil.serialize(context, dir, getCacheName(context, "directory", id));
+			saveWithDigest(context, dir, cacheName, null);
 
 
 			// If a cached copy exists to check against, look for removes
@@ -225,26 +255,37 @@ public class CachedMusicService implements MusicService {
 	@Override
 	public MusicDirectory getArtist(final String id, final String name, final boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
 		MusicDirectory dir = null;
-		final MusicDirectory cached = FileUtil.deserialize(context, getCacheName(context, "artist", id), MusicDirectory.class);
-		if(!refresh && cached != null) {
+		final String cacheName = getCacheName(context, "artist", id);
+		final MusicDirectory cached = FileUtil.deserialize(context, cacheName, MusicDirectory.class);
+		CachePolicy.Freshness freshness = refresh || cached == null ? CachePolicy.Freshness.EXPIRED : CachePolicy.getFreshness(context, CachePolicy.Resource.DIRECTORY, cacheName);
+		if(freshness != CachePolicy.Freshness.EXPIRED) {
 			dir = cached;
+		}
 
+		if(freshness == CachePolicy.Freshness.STALE && CachePolicy.beginRevalidate(context, CachePolicy.Resource.DIRECTORY, cacheName)) {
 			new SilentBackgroundTask<Void>(context) {
 				MusicDirectory refreshed;
 
 				@Override
 				protected Void doInBackground() throws Throwable {
-					refreshed = musicService.getArtist(id, name, refresh, context, null);
+					Pair<MusicDirectory, String> response = musicService.getDirectoryIfChanged("getArtist", id, name, FileUtil.getCacheDigest(context, cacheName), context);
+					refreshed = response.getFirst();
+					if(refreshed == null) {
+						FileUtil.touchSerialized(context, cacheName);
+						return null;
+					}
+
 					cached.updateMetadata(refreshed);
 					deleteRemovedEntries(context, refreshed, cached);
-					FileUtil.serialize(context, refreshed, getCacheName(context, "artist", id));
+					saveWithDigest(context, refreshed, cacheName, response.getSecond());
 					return null;
 				}
 
 				// Update which entries exist
 				@Override
 				public void done(Void result) {
-					if(progressListener != null) {
+					CachePolicy.endRevalidate(cacheName, true);
+					if(progressListener != null && refreshed != null) {
 						if(cached.updateEntriesList(context, musicService.getInstance(context), refreshed)) {
 
 							progressListener.updateCache(CACHE_UPDATE_LIST);
@@ -255,13 +296,14 @@ public class CachedMusicService implements MusicService {
 				@Override
 				public void error(Throwable error) {
 					Log.e(TAG, "Failed to refresh getArtist", error);
+					CachePolicy.endRevalidate(cacheName, false);
 				}
 			}.execute();
 		}
 
 		if(dir == null) {
 			dir = musicService.getArtist(id, name, refresh, context, progressListener);
-			FileUtil.serialize(context, dir, getCacheName(context, "artist", id));
+			saveWithDigest(context, dir, cacheName, null);
 
 			// If a cached copy exists to check against, look for removes
 			deleteRemovedEntries(context, dir, cached);
@@ -274,29 +316,39 @@ public class CachedMusicService implements MusicService {
 	@Override
 	public MusicDirectory getAlbum(final String id, final String name, final boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
 		MusicDirectory dir = null;
-		final MusicDirectory cached = FileUtil.deserialize(context, getCacheName(context, "album", id), MusicDirectory.class);
-		if(!refresh && cached != null) {
+		final String cacheName = getCacheName(context, "album", id);
+		final MusicDirectory cached = FileUtil.deserialize(context, cacheName, MusicDirectory.class);
+		CachePolicy.Freshness freshness = refresh || cached == null ? CachePolicy.Freshness.EXPIRED : CachePolicy.getFreshness(context, CachePolicy.Resource.DIRECTORY, cacheName);
+		if(freshness != CachePolicy.Freshness.EXPIRED) {
 			dir = cached;
+		}
 
+		if(freshness == CachePolicy.Freshness.STALE && CachePolicy.beginRevalidate(context, CachePolicy.Resource.DIRECTORY, cacheName)) {
 			new SilentBackgroundTask<Void>(context) {
 				MusicDirectory refreshed;
 				private boolean metadataUpdated;
 
 				@Override
 				protected Void doInBackground() throws Throwable {
-					refreshed = musicService.getAlbum(id, name, refresh, context, null);
+					Pair<MusicDirectory, String> response = musicService.getDirectoryIfChanged("getAlbum", id, name, FileUtil.getCacheDigest(context, cacheName), context);
+					refreshed = response.getFirst();
+					if(refreshed == null) {
+						FileUtil.touchSerialized(context, cacheName);
+						return null;
+					}
 					updateAllSongs(context, refreshed);
 
 					metadataUpdated = cached.updateMetadata(refreshed);
 					deleteRemovedEntries(context, refreshed, cached);
-					FileUtil.serialize(context, refreshed, getCacheName(context, "album", id));
+					saveWithDigest(context, refreshed, cacheName, response.getSecond());
 					return null;
 				}
 
 				// Update which entries exist
 				@Override
 				public void done(Void result) {
-					if(progressListener != null) {
+					CachePolicy.endRevalidate(cacheName, true);
+					if(progressListener != null && refreshed != null) {
 						if(cached.updateEntriesList(context, musicService.getInstance(context), refreshed)) {
 
 							progressListener.updateCache(CACHE_UPDATE_LIST);
@@ -310,6 +362,7 @@ public class CachedMusicService implements MusicService {
 				@Override
 				public void error(Throwable error) {
 					Log.e(TAG, "Failed to refresh getAlbum", error);
+					CachePolicy.endRevalidate(cacheName, false);
 				}
 			}.execute();
 		}
@@ -317,7 +370,7 @@ public class CachedMusicService implements MusicService {
 		if(dir == null) {
 			dir = musicService.getAlbum(id, name, refresh, context, progressListener);
 			updateAllSongs(context, dir);
-			FileUtil.serialize(context, dir, getCacheName(context, "album", id));
+			saveWithDigest(context, dir, cacheName, null);
 
 			// If a cached copy exists to check against, look for removes
 			deleteRemovedEntries(context, dir, cached);
@@ -333,16 +386,22 @@ public class CachedMusicService implements MusicService {
     }
 
     @Override
-    public MusicDirectory getPlaylist(boolean refresh, String id, String name, Context context, ProgressListener progressListener) throws Exception {
+    public MusicDirectory getPlaylist(boolean refresh, final String id, final String name, final Context context, ProgressListener progressListener) throws Exception {
 		MusicDirectory dir = null;
-		MusicDirectory cachedPlaylist = FileUtil.deserialize(context, getCacheName(context, "playlist", id), MusicDirectory.class);
-		if(!refresh) {
+		String cacheName = getCacheName(context, "playlist", id);
+		MusicDirectory cachedPlaylist = FileUtil.deserialize(context, cacheName, MusicDirectory.class);
+		if(!refresh && cachedPlaylist != null && useCached(context, CachePolicy.Resource.PLAYLIST, cacheName, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getPlaylist(true, id, name, context, null);
+			}
+		})) {
 			dir = cachedPlaylist;
 		}
 		if(dir == null) {
 			dir = musicService.getPlaylist(refresh, id, name, context, progressListener);
 			updateAllSongs(context, dir);
-			FileUtil.serialize(context, dir, getCacheName(context, "playlist", id));
+			FileUtil.serialize(context, dir, cacheName);
 
 			File playlistFile = FileUtil.getPlaylistFile(context, Util.getServerName(context, musicService.getInstance(context)), dir.getName());
 			if(cachedPlaylist == null || !playlistFile.exists() || !cachedPlaylist.getChildren().equals(dir.getChildren())) {
@@ -373,17 +432,23 @@ public class CachedMusicService implements MusicService {
     }
 
     @Override
-    public List<Playlist> getPlaylists(boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+    public List<Playlist> getPlaylists(boolean refresh, final Context context, ProgressListener progressListener) throws Exception {
         checkSettingsChanged(context);
         List<Playlist> result = refresh ? null : cachedPlaylists.get();
         if (result == null) {
-        	if(!refresh) {
-        		result = FileUtil.deserialize(context, getCacheName(context, "playlist"), ArrayList.class);
+			String cacheName = getCacheName(context, "playlist");
+        	if(!refresh && useCached(context, CachePolicy.Resource.PLAYLIST, cacheName, new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return getPlaylists(true, context, null);
+				}
+			})) {
+        		result = FileUtil.deserialize(context, cacheName, ArrayList.class);
         	}
         	
         	if(result == null) {
 	        	result = musicService.getPlaylists(refresh, context, progressListener);
-	        	FileUtil.serialize(context, new ArrayList<Playlist>(result), getCacheName(context, "playlist"));
+	        	FileUtil.serialize(context, new ArrayList<Playlist>(result), cacheName);
         	}
             cachedPlaylists.set(result);
         }
@@ -393,7 +458,7 @@ public class CachedMusicService implements MusicService {
     @Override
     public void createPlaylist(String id, String name, List<Entry> entries, Context context, ProgressListener progressListener) throws Exception {
 		cachedPlaylists.clear();
-		Util.delete(new File(context.getCacheDir(), getCacheName(context, "playlist")));
+		FileUtil.deleteSerialized(context, getCacheName(context, "playlist"));
         musicService.createPlaylist(id, name, entries, context, progressListener);
     }
 	
@@ -576,7 +641,7 @@ public class CachedMusicService implements MusicService {
 									// Only save if actually added to artist
 									if (changed) {
 										musicDirectory.replaceChildren(objects);
-										FileUtil.serialize(context, musicDirectory, cacheName);
+										saveWithDigest(context, musicDirectory, cacheName, null);
 									}
 								}
 							}.execute();
@@ -745,6 +810,10 @@ public class CachedMusicService implements MusicService {
     public HttpResponse getDownloadInputStream(Context context, Entry song, long offset, int maxBitrate, SilentBackgroundTask task) throws Exception {
         return musicService.getDownloadInputStream(context, song, offset, maxBitrate, task);
     }
+	@Override
+	public HttpResponse getDownloadInputStream(Context context, Entry song, long offset, long end, int maxBitrate, SilentBackgroundTask task) throws Exception {
+		return musicService.getDownloadInputStream(context, song, offset, end, maxBitrate, task);
+	}
 
 	@Override
 	public String getMusicUrl(Context context, Entry song, int maxBitrate) throws Exception {
@@ -846,16 +915,22 @@ public class CachedMusicService implements MusicService {
 	}
 	
 	@Override
-	public List<Genre> getGenres(boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+	public List<Genre> getGenres(boolean refresh, final Context context, ProgressListener progressListener) throws Exception {
 		List<Genre> result = null;
 
-		if(!refresh) {
-			result = FileUtil.deserialize(context, getCacheName(context, "genre"), ArrayList.class);
+		String cacheName = getCacheName(context, "genre");
+		if(!refresh && useCached(context, CachePolicy.Resource.GENRE, cacheName, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getGenres(true, context, null);
+			}
+		})) {
+			result = FileUtil.deserialize(context, cacheName, ArrayList.class);
 		}
 
 		if(result == null) {
 			result = musicService.getGenres(refresh, context, progressListener);
-			FileUtil.serialize(context, new ArrayList<Genre>(result), getCacheName(context, "genre"));
+			FileUtil.serialize(context, new ArrayList<Genre>(result), cacheName);
 		}
 
 		return result;
@@ -891,18 +966,24 @@ public class CachedMusicService implements MusicService {
 	}
 
 	@Override
-	public List<PodcastChannel> getPodcastChannels(boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+	public List<PodcastChannel> getPodcastChannels(boolean refresh, final Context context, ProgressListener progressListener) throws Exception {
 		checkSettingsChanged(context);
 		List<PodcastChannel> result = refresh ? null : cachedPodcastChannels.get();
 
 		if (result == null) {
-			if(!refresh) {
-				result = FileUtil.deserialize(context, getCacheName(context, "podcast"), ArrayList.class);
+			String cacheName = getCacheName(context, "podcast");
+			if(!refresh && useCached(context, CachePolicy.Resource.PODCAST, cacheName, new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return getPodcastChannels(true, context, null);
+				}
+			})) {
+				result = FileUtil.deserialize(context, cacheName, ArrayList.class);
 			}
 			
 			if(result == null) {
 				result = musicService.getPodcastChannels(refresh, context, progressListener);
-				FileUtil.serialize(context, new ArrayList<PodcastChannel>(result), getCacheName(context, "podcast"));
+				FileUtil.serialize(context, new ArrayList<PodcastChannel>(result), cacheName);
 			}
 			cachedPodcastChannels.set(result);
 		}
@@ -911,18 +992,24 @@ public class CachedMusicService implements MusicService {
 	}
 	
 	@Override
-	public MusicDirectory getPodcastEpisodes(boolean refresh, String id, Context context, ProgressListener progressListener) throws Exception {
+	public MusicDirectory getPodcastEpisodes(boolean refresh, final String id, final Context context, ProgressListener progressListener) throws Exception {
 		String altId = "p-" + id;
 		MusicDirectory result = null;
 
-		if(!refresh) {
-			result = FileUtil.deserialize(context, getCacheName(context, "directory", altId), MusicDirectory.class, 10);
+		String cacheName = getCacheName(context, "directory", altId);
+		if(!refresh && useCached(context, CachePolicy.Resource.PODCAST, cacheName, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getPodcastEpisodes(true, id, context, null);
+			}
+		})) {
+			result = FileUtil.deserialize(context, cacheName, MusicDirectory.class);
 		}
 
 		if(result == null) {
 			result = musicService.getPodcastEpisodes(refresh, id, context, progressListener);
 			updateAllSongs(context, result);
-			FileUtil.serialize(context, result, getCacheName(context, "directory", altId));
+			FileUtil.serialize(context, result, cacheName);
 		}
 
 		return result;
@@ -1166,11 +1253,16 @@ public class CachedMusicService implements MusicService {
 	}
 
 	@Override
-	public ArtistInfo getArtistInfo(String id, boolean refresh, boolean allowNetwork, Context context, ProgressListener progressListener) throws Exception {
+	public ArtistInfo getArtistInfo(final String id, boolean refresh, boolean allowNetwork, final Context context, ProgressListener progressListener) throws Exception {
 		String cacheName = getCacheName(context, "artistInfo", id);
 		ArtistInfo info = null;
-		if(!refresh) {
-			info = FileUtil.deserialize(context, cacheName, ArtistInfo.class, CACHED_LAST_FM);
+		if(!refresh && useCached(context, CachePolicy.Resource.ARTIST_INFO, cacheName, !allowNetwork ? null : new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getArtistInfo(id, true, true, context, null);
+			}
+		})) {
+			info = FileUtil.deserialize(context, cacheName, ArtistInfo.class);
 		}
 
 		if(info == null && allowNetwork) {
@@ -1242,6 +1334,44 @@ public class CachedMusicService implements MusicService {
   		return name + "-" + s.hashCode() + ".ser";
   	}
 
+	private void saveWithDigest(Context context, MusicDirectory dir, String cacheName, String digest) {
+		if(FileUtil.serialize(context, dir, cacheName)) {
+			FileUtil.setCacheDigest(context, cacheName, digest);
+		} else {
+			FileUtil.setCacheDigest(context, cacheName, null);
+		}
+	}
+
+	/**
+	 * Whether the cached copy is still good enough to show, starting a background refresh of it first if it is stale
+	 * @param refresh Fetches and saves it again, null to never refresh it in the background
+	 */
+	private boolean useCached(Context context, CachePolicy.Resource resource, final String cacheName, final Callable<?> refresh) {
+		CachePolicy.Freshness freshness = CachePolicy.getFreshness(context, resource, cacheName);
+		if(freshness == CachePolicy.Freshness.STALE && refresh != null && CachePolicy.beginRevalidate(context, resource, cacheName)) {
+			new SilentBackgroundTask<Void>(context) {
+				@Override
+				protected Void doInBackground() throws Throwable {
+					refresh.call();
+					return null;
+				}
+
+				@Override
+				public void done(Void result) {
+					CachePolicy.endRevalidate(cacheName, true);
+				}
+
+				@Override
+				public void error(Throwable error) {
+					Log.w(TAG, "Failed to refresh " + cacheName, error);
+					CachePolicy.endRevalidate(cacheName, false);
+				}
+			}.execute();
+		}
+
+		return freshness != CachePolicy.Freshness.EXPIRED;
+	}
+
 	private void deleteRemovedEntries(Context context, MusicDirectory dir, MusicDirectory cached) {
 		if(cached != null) {
 			List<Entry> oldList = new ArrayList<Entry>();
@@ -1257,6 +1387,7 @@ public class CachedMusicService implements MusicService {
 			for(Entry entry: oldList) {
 				File file = FileUtil.getEntryFile(context, entry);
 				FileUtil.recursiveDelete(file, store);
+				OfflineCatalog.getCatalog(context).fileRemoved(file);
 			}
 		}
 	}
@@ -1366,14 +1497,20 @@ public class CachedMusicService implements MusicService {
 		}
 		public void save(ArrayList<Entry> objects) {
 			musicDirectory.replaceChildren(objects);
-			FileUtil.serialize(context, musicDirectory, cacheName);
+			// Changed locally, so the next refresh can't be skipped based on the server response
+			saveWithDigest(context, musicDirectory, cacheName, null);
 		}
 	}
 	private abstract class PlaylistDirectoryUpdater {
 		Context context;
-		
-		public PlaylistDirectoryUpdater(Context context) {
+		Collection<String> ids;
+
+		/**
+		 * @param ids Entries to look for, only the playlists the entry index says hold one of them are opened
+		 */
+		public PlaylistDirectoryUpdater(Context context, Collection<String> ids) {
 			this.context = context;
+			this.ids = ids;
 		}
 		
 		public abstract boolean checkResult(Entry check);
@@ -1385,8 +1522,13 @@ public class CachedMusicService implements MusicService {
 				// No playlist list cache, nothing to update!
 				return;
 			}
-			
+
+			Map<String, Set<String>> containing = CacheDBHandler.getHandler(context).getNamesContaining(ids);
 			for(Playlist playlist: playlists) {
+				if(!containing.containsKey(getCacheName(context, "playlist", playlist.getId()))) {
+					continue;
+				}
+
 				new MusicDirectoryUpdater(context, "playlist", playlist.getId(), false) {
 					@Override
 					public boolean checkResult(Entry check) {
@@ -1424,8 +1566,9 @@ public class CachedMusicService implements MusicService {
 			// Make sure it is up to date
 			isTagBrowsing = Util.isTagBrowsing(context, musicService.getInstance(context));
 			
-			// Run through each entry, trying to update the directory it is in
-			final List<Entry> songs = new ArrayList<Entry>();
+			// Work out which directory each entry is in first, so every directory is only read and written once
+			Map<String, EntryContainer> containers = new LinkedHashMap<String, EntryContainer>();
+			final Map<String, Entry> songs = new HashMap<String, Entry>();
 			for(final Entry entry: entries) {
 				if(isTagBrowsing) {
 					// If starring album, needs to reference artist instead
@@ -1465,48 +1608,38 @@ public class CachedMusicService implements MusicService {
 						}
 					}.execute();
 				} else {
-					new MusicDirectoryUpdater(context, cacheName, parent) {
-						@Override
-						public boolean checkResult(Entry check) {
-							return GenericEntryUpdater.this.checkResult(entry, check);
-						}
-						
-						@Override
-						public void updateResult(List<Entry> objects, Entry result) {
-							GenericEntryUpdater.this.updateResult(result);
-						}
-					}.execute();
+					addToContainer(containers, cacheName, parent, entry);
 				}
 				
 				if(entry instanceof PodcastEpisode) {
-					new MusicDirectoryUpdater(context, cacheName, "p-" + entry.getParent()) {
-						@Override
-						public boolean checkResult(Entry check) {
-							return GenericEntryUpdater.this.checkResult(entry, check);
-						}
-						
-						@Override
-						public void updateResult(List<Entry> objects, Entry result) {
-							GenericEntryUpdater.this.updateResult(result);
-						}
-					}.execute();
+					addToContainer(containers, cacheName, "p-" + entry.getParent(), entry);
 				} else if(!entry.isDirectory()) {
-					songs.add(entry);
+					songs.put(entry.getId(), entry);
 				}
 			}
+
+			for(final EntryContainer container: containers.values()) {
+				new MusicDirectoryUpdater(context, container.cacheName, container.id, false) {
+					@Override
+					public boolean checkResult(Entry check) {
+						Entry entry = container.entries.get(check.getId());
+						return entry != null && GenericEntryUpdater.this.checkResult(entry, check);
+					}
+					
+					@Override
+					public void updateResult(List<Entry> objects, Entry result) {
+						GenericEntryUpdater.this.updateResult(result);
+					}
+				}.execute();
+			}
 			
-			// Only run through playlists once and check each song against it
+			// Only open the playlists that have one of the songs in them
 			if(songs.size() > 0) {
-				new PlaylistDirectoryUpdater(context) {
+				new PlaylistDirectoryUpdater(context, songs.keySet()) {
 					@Override
 					public boolean checkResult(Entry check) {
-						for(Entry entry: songs) {
-							if(GenericEntryUpdater.this.checkResult(entry, check)) {
-								return true;
-							}
-						}
-						
-						return false;
+						Entry entry = songs.get(check.getId());
+						return entry != null && GenericEntryUpdater.this.checkResult(entry, check);
 					}
 					
 					@Override
@@ -1516,6 +1649,26 @@ public class CachedMusicService implements MusicService {
 				}.execute();
 			}
 		}
+
+		private void addToContainer(Map<String, EntryContainer> containers, String cacheName, String id, Entry entry) {
+			String key = cacheName + "/" + id;
+			EntryContainer container = containers.get(key);
+			if(container == null) {
+				container = new EntryContainer(cacheName, id);
+				containers.put(key, container);
+			}
+			container.entries.put(entry.getId(), entry);
+		}
+	}
+	private static class EntryContainer {
+		final String cacheName;
+		final String id;
+		final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+		EntryContainer(String cacheName, String id) {
+			this.cacheName = cacheName;
+			this.id = id;
+		}
 	}
 	private class BookmarkUpdater extends GenericEntryUpdater {
 		public BookmarkUpdater(Context context, Entry entry) {
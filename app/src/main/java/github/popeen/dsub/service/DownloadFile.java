@@ -18,23 +18,46 @@
  */
 package github.popeen.dsub.service;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.Context;
 import android.net.wifi.WifiManager;
 import android.os.PowerManager;
 import android.util.Log;
 import github.popeen.dsub.domain.MusicDirectory;
+import github.popeen.dsub.util.BandwidthLimiter;
 import github.popeen.dsub.util.Constants;
+import github.popeen.dsub.util.EntryInterner;
 import github.popeen.dsub.util.SilentBackgroundTask;
 import github.popeen.dsub.util.FileUtil;
+import github.popeen.dsub.util.OfflineCatalog;
+import github.popeen.dsub.util.SongDBHandler;
+import github.popeen.dsub.util.ThroughputMeter;
 import github.popeen.dsub.util.Util;
 import github.popeen.dsub.util.CacheCleaner;
+import github.popeen.dsub.util.tags.BastpUtil;
 import github.daneren2005.serverproxy.BufferFile;
 
 import org.apache.http.Header;
@@ -49,11 +72,40 @@ import org.apache.http.HttpStatus;
 public class DownloadFile implements BufferFile {
     private static final String TAG = DownloadFile.class.getSimpleName();
     private static final int MAX_FAILURES = 5;
+	// Only split files big enough to be worth the extra connections
+	private static final long SEGMENTED_MIN_SIZE = 32L * 1024L * 1024L;
+	private static final long SEGMENT_MIN_SIZE = 8L * 1024L * 1024L;
+	private static final int MAX_SEGMENTS = 4;
+	// Reads start small and grow while the network keeps filling the buffer
+	private static final int MIN_BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_BUFFER_SIZE = 256 * 1024;
+	private static final long CANCEL_CHECK_INTERVAL = 500L;
+
+	// One thread watches every copy for cancellation rather than a thread per download
+	private static final ScheduledExecutorService cancelWatchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "DownloadFile_watchdog");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	// Segments after the first are read here, the number running at once is bounded by the download workers
+	private static final ExecutorService segmentExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "DownloadFile_segment");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
     private final Context context;
     private final MusicDirectory.Entry song;
     private final File partialFile;
     private final File completeFile;
     private final File saveFile;
+	private final File segmentedFile;
+	private final File segmentedStateFile;
 
     private final MediaStoreService mediaStoreService;
     private DownloadTask downloadTask;
@@ -65,11 +117,17 @@ public class DownloadFile implements BufferFile {
 	private boolean saveWhenDone = false;
 	private boolean completeWhenDone = false;
 	private Long contentLength = null;
-	private long currentSpeed = 0;
+	private final ThroughputMeter throughput = new ThroughputMeter();
 	private boolean rateLimit = false;
+	// Sync downloads give way to whatever is on screen too, like they always have
+	private boolean screenRateLimit = false;
+	private boolean segmentedUnsupported = false;
+	// Bytes written across all segments while a segmented download is running, -1 otherwise
+	private final AtomicLong segmentedSize = new AtomicLong(-1);
 
     public DownloadFile(Context context, MusicDirectory.Entry song, boolean save) {
         this.context = context;
+        EntryInterner.intern(song);
         this.song = song;
         this.save = save;
         saveFile = FileUtil.getSongFile(context, song);
@@ -78,6 +136,9 @@ public class DownloadFile implements BufferFile {
                 ".partial." + FileUtil.getExtension(saveFile.getName()));
         completeFile = new File(saveFile.getParent(), FileUtil.getBaseName(saveFile.getName()) +
                 ".complete." + FileUtil.getExtension(saveFile.getName()));
+		segmentedFile = new File(saveFile.getParent(), FileUtil.getBaseName(saveFile.getName()) +
+				".partial.segments." + FileUtil.getExtension(saveFile.getName()));
+		segmentedStateFile = new File(segmentedFile.getPath() + ".state");
         mediaStoreService = new MediaStoreService(context);
     }
 
@@ -127,7 +188,10 @@ public class DownloadFile implements BufferFile {
 	}
 
 	public long getCurrentSize() {
-		if(partialFile.exists()) {
+		long segmented = segmentedSize.get();
+		if(segmented >= 0) {
+			return segmented;
+		} else if(partialFile.exists()) {
 			return partialFile.length();
 		} else {
 			File file = getCompleteFile();
@@ -158,16 +222,21 @@ public class DownloadFile implements BufferFile {
 	}
 
 	public long getBytesPerSecond() {
-		return currentSpeed;
+		return throughput.getBytesPerSecond();
 	}
 
     public synchronized void download() {
-    	rateLimit = false;
-        preDownload();
-        downloadTask.execute();
+		download(false);
     }
+	public synchronized void download(boolean rateLimit) {
+		this.rateLimit = rateLimit;
+		screenRateLimit = false;
+		preDownload();
+		downloadTask.execute();
+	}
     public synchronized void downloadNow(MusicService musicService) {
     	rateLimit = true;
+		screenRateLimit = true;
     	preDownload();
 		downloadTask.setMusicService(musicService);
 		try {
@@ -183,6 +252,7 @@ public class DownloadFile implements BufferFile {
 			bitRate = getActualBitrate();
 		}
 		downloadTask = new DownloadTask(context);
+		throughput.reset();
     }
 
     public synchronized void cancelDownload() {
@@ -220,6 +290,12 @@ public class DownloadFile implements BufferFile {
     public File getPartialFile() {
         return partialFile;
     }
+	public File getSegmentedFile() {
+		return segmentedFile;
+	}
+	public File getSegmentedStateFile() {
+		return segmentedStateFile;
+	}
 
     public boolean isSaved() {
         return saveFile.exists();
@@ -279,9 +355,18 @@ public class DownloadFile implements BufferFile {
 		// Delete all possible versions of the file
 		File parent = partialFile.getParentFile();
         Util.delete(partialFile);
+        Util.delete(segmentedFile);
+        Util.delete(segmentedStateFile);
         Util.delete(completeFile);
         Util.delete(saveFile);
 		FileUtil.deleteEmptyDir(parent);
+
+		OfflineCatalog catalog = OfflineCatalog.getCatalog(context);
+		catalog.fileRemoved(completeFile);
+		catalog.fileRemoved(saveFile);
+		if(!parent.exists()) {
+			catalog.fileRemoved(parent);
+		}
     }
 
     public void unpin() {
@@ -352,6 +437,55 @@ public class DownloadFile implements BufferFile {
 	public boolean getPlaying() {
 		return isPlaying;
 	}
+
+	private boolean isSegmentable() {
+		if(segmentedUnsupported || isPlaying || song.isVideo() || song.getSize() == null || song.getSize() < SEGMENTED_MIN_SIZE) {
+			return false;
+		}
+
+		// Resume where a single stream left off instead of starting over in pieces
+		if(partialFile.length() > 0) {
+			return false;
+		}
+
+		// Transcoded streams don't have a fixed length so byte ranges can't be trusted
+		if(song.getTranscodedSuffix() != null && !song.getTranscodedSuffix().equals(song.getSuffix())) {
+			return false;
+		}
+		return bitRate == 0 || (song.getBitRate() != null && bitRate >= song.getBitRate());
+	}
+	private static int getSegmentCount(long size) {
+		return (int) Math.max(1, Math.min(MAX_SEGMENTS, size / SEGMENT_MIN_SIZE));
+	}
+	private static long getSegmentStart(int segment, int segments, long size) {
+		return (size / segments) * segment;
+	}
+	private static long getSegmentEnd(int segment, int segments, long size) {
+		if(segment == segments - 1) {
+			return size - 1;
+		} else {
+			return getSegmentStart(segment + 1, segments, size) - 1;
+		}
+	}
+	private static long getContentRangeTotal(HttpResponse response) {
+		// Content-Range: bytes 0-1023/146515
+		Header header = response.getFirstHeader("Content-Range");
+		if(header == null || header.getValue() == null) {
+			return -1;
+		}
+
+		String value = header.getValue();
+		int index = value.lastIndexOf('/');
+		if(index == -1) {
+			return -1;
+		}
+
+		try {
+			return Long.parseLong(value.substring(index + 1).trim());
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
 	
 	private void deleteFromStore() {
 		try {
@@ -361,6 +495,16 @@ public class DownloadFile implements BufferFile {
 		}
 	}
 	private void saveToStore() {
+		File completeFile = getCompleteFile();
+		// Read once now instead of every time it starts playing
+		if(FileUtil.isMusicFile(completeFile)) {
+			try {
+				BastpUtil.storeReplayGainValues(context, completeFile);
+			} catch(Exception e) {
+				Log.w(TAG, "Failed to store replay gain", e);
+			}
+		}
+		OfflineCatalog.getCatalog(context).fileAdded(completeFile);
 		if(!Util.getPreferences(context).getBoolean(Constants.PREFERENCES_KEY_HIDE_MEDIA, false)) {
 			try {
 				mediaStoreService.saveInMediaStore(this);
@@ -370,6 +514,8 @@ public class DownloadFile implements BufferFile {
 		}
 	}
 	private void renameInStore(File start, File end) {
+		OfflineCatalog.getCatalog(context).fileRenamed(start, end);
+		SongDBHandler.getHandler(context).renameReplayGain(start.getPath(), end.getPath(), end.lastModified());
 		try {
 			mediaStoreService.renameInMediaStore(start, end);
 		} catch(Exception e) {
@@ -398,11 +544,20 @@ public class DownloadFile implements BufferFile {
 
     private class DownloadTask extends SilentBackgroundTask<Void> {
 		private MusicService musicService;
+		private final List<SegmentRequest> segmentRequests = new CopyOnWriteArrayList<SegmentRequest>();
 
 		public DownloadTask(Context context) {
 			super(context);
 		}
 
+		@Override
+		public void cancel() {
+			super.cancel();
+			for(SegmentRequest request: segmentRequests) {
+				request.abort();
+			}
+		}
+
         @Override
         public Void doInBackground() throws InterruptedException {
             InputStream in = null;
@@ -452,27 +607,73 @@ public class DownloadFile implements BufferFile {
 					compare = true;
 				}
 				if(compare) {
-					// Attempt partial HTTP GET, appending to the file if it exists.
-					HttpResponse response = musicService.getDownloadInputStream(context, song, partialFile.length(), bitRate, DownloadTask.this);
-					Header contentLengthHeader = response.getFirstHeader("Content-Length");
-					if(contentLengthHeader != null) {
-						String contentLengthString = contentLengthHeader.getValue();
-						if(contentLengthString != null) {
-							Log.i(TAG, "Content Length: " + contentLengthString);
-							contentLength = Long.parseLong(contentLengthString);
+					HttpResponse response = null;
+					boolean segmented = false;
+					if(isSegmentable()) {
+						long size = song.getSize();
+						List<Segment> segments = loadSegments(musicService, size);
+						Segment first = null;
+						for(Segment segment: segments) {
+							if(!segment.isDone()) {
+								first = segment;
+								break;
+							}
+						}
+
+						if(first == null) {
+							downloadSegmented(segments, size);
+							segmented = true;
+						} else {
+							// Ask for the first missing segment only, a server which ignores Range sends the whole file instead
+							response = musicService.getDownloadInputStream(context, song, first.getPosition(), first.end, bitRate, DownloadTask.this);
+							if(response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT) {
+								if(getContentRangeTotal(response) == size) {
+									first.response = response;
+									downloadSegmented(segments, size);
+									segmented = true;
+									response = null;
+								} else {
+									// Can't trust the size we were given, so start over with a single stream
+									Log.i(TAG, "Content-Range does not match size of " + song + ", not segmenting");
+									Util.close(response.getEntity().getContent());
+									segmentedUnsupported = true;
+									deleteSegments();
+									response = null;
+								}
+							} else {
+								Log.i(TAG, "Range request not honoured for " + song + ", falling back to single stream");
+								segmentedUnsupported = true;
+								deleteSegments();
+							}
 						}
 					}
-					in = response.getEntity().getContent();
-					boolean partial = response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT;
-					if (partial) {
-						Log.i(TAG, "Executed partial HTTP GET, skipping " + partialFile.length() + " bytes");
+
+					if(response == null && !segmented) {
+						// Attempt partial HTTP GET, appending to the file if it exists.
+						response = musicService.getDownloadInputStream(context, song, partialFile.length(), bitRate, DownloadTask.this);
 					}
 
-					out = new FileOutputStream(partialFile, partial);
-					long n = copy(in, out);
-					Log.i(TAG, "Downloaded " + n + " bytes to " + partialFile);
-					out.flush();
-					out.close();
+					if(response != null) {
+						Header contentLengthHeader = response.getFirstHeader("Content-Length");
+						if(contentLengthHeader != null) {
+							String contentLengthString = contentLengthHeader.getValue();
+							if(contentLengthString != null) {
+								Log.i(TAG, "Content Length: " + contentLengthString);
+								contentLength = Long.parseLong(contentLengthString);
+							}
+						}
+						in = response.getEntity().getContent();
+						boolean partial = response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT;
+						if (partial) {
+							Log.i(TAG, "Executed partial HTTP GET, skipping " + partialFile.length() + " bytes");
+						}
+
+						out = new FileOutputStream(partialFile, partial);
+						long n = copy(in, out.getChannel());
+						Log.i(TAG, "Downloaded " + n + " bytes to " + partialFile);
+						out.flush();
+						out.close();
+					}
 
 					if (isCancelled()) {
 						throw new Exception("Download of '" + song + "' was cancelled");
@@ -557,6 +758,237 @@ public class DownloadFile implements BufferFile {
 			this.musicService = musicService;
 		}
 
+		/**
+		 * Picks up the segments left over from a download that was paused or failed, as long as they were for a file of the same size
+		 */
+		private List<Segment> loadSegments(MusicService musicService, long size) {
+			List<Segment> segments = new ArrayList<Segment>();
+			if(segmentedFile.length() == size && segmentedStateFile.exists()) {
+				BufferedReader reader = null;
+				try {
+					reader = new BufferedReader(new FileReader(segmentedStateFile));
+					String line;
+					while((line = reader.readLine()) != null) {
+						String[] parts = line.split(" ");
+						Segment segment = new Segment(musicService, Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+						segment.done = Math.min(Long.parseLong(parts[2]), segment.end - segment.start + 1);
+						segments.add(segment);
+					}
+				} catch(Exception e) {
+					Log.w(TAG, "Failed to read segments of " + song, e);
+					segments.clear();
+				} finally {
+					Util.close(reader);
+				}
+
+				if(!segments.isEmpty() && segments.get(segments.size() - 1).end == size - 1) {
+					Log.i(TAG, "Resuming " + segments.size() + " segments of " + song);
+					return segments;
+				}
+				segments.clear();
+			}
+
+			int count = getSegmentCount(size);
+			for(int i = 0; i < count; i++) {
+				segments.add(new Segment(musicService, getSegmentStart(i, count, size), getSegmentEnd(i, count, size)));
+			}
+			return segments;
+		}
+		private void saveSegments(List<Segment> segments) {
+			FileWriter writer = null;
+			try {
+				writer = new FileWriter(segmentedStateFile);
+				for(Segment segment: segments) {
+					writer.write(segment.start + " " + segment.end + " " + segment.done + "\n");
+				}
+			} catch(IOException e) {
+				Log.w(TAG, "Failed to save segments of " + song, e);
+				Util.close(writer);
+				Util.delete(segmentedStateFile);
+				return;
+			}
+			Util.close(writer);
+		}
+		private void deleteSegments() {
+			Util.delete(segmentedFile);
+			Util.delete(segmentedStateFile);
+		}
+
+		private void downloadSegmented(List<Segment> segments, long size) throws Exception {
+			Log.i(TAG, "Downloading " + song + " in " + segments.size() + " segments");
+			contentLength = size;
+
+			// Preallocate so every segment can write straight into its own range
+			if(segmentedFile.length() != size) {
+				RandomAccessFile file = new RandomAccessFile(segmentedFile, "rw");
+				try {
+					file.setLength(size);
+				} finally {
+					Util.close(file);
+				}
+			}
+
+			long done = 0;
+			for(Segment segment: segments) {
+				done += segment.done;
+			}
+			segmentedSize.set(done);
+
+			try {
+				// The first missing segment is already open, so read it on this thread while the rest run alongside
+				Segment first = null;
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				for(Segment segment: segments) {
+					if(segment.isDone()) {
+						continue;
+					}
+
+					if(first == null) {
+						first = segment;
+					} else {
+						futures.add(segmentExecutor.submit(segment));
+					}
+				}
+
+				if(first != null) {
+					first.run();
+				}
+				for(Future<?> future: futures) {
+					try {
+						future.get();
+					} catch(ExecutionException e) {
+						Log.w(TAG, "Segment of " + song + " failed", e);
+					}
+				}
+
+				boolean rangeIgnored = false;
+				Exception error = null;
+				for(Segment segment: segments) {
+					rangeIgnored |= segment.rangeIgnored;
+					if(error == null) {
+						error = segment.error;
+					}
+				}
+
+				if(rangeIgnored) {
+					// Nothing can be resumed from a server that doesn't do ranges
+					segmentedUnsupported = true;
+					deleteSegments();
+				} else if(error != null || isCancelled()) {
+					// Keep what is there so the next try only fetches what is missing
+					saveSegments(segments);
+				}
+
+				if(error != null) {
+					throw error;
+				} else if(isCancelled()) {
+					throw new Exception("Download of '" + song + "' was cancelled");
+				}
+			} finally {
+				segmentedSize.set(-1);
+			}
+
+			// All of the segments are in place, so the merged file becomes the partial like a normal download
+			Util.renameFile(segmentedFile, partialFile);
+			Util.delete(segmentedStateFile);
+		}
+
+		/**
+		 * Stands in for the download task on the request of each later segment, since a task only holds one cancel listener
+		 */
+		private class SegmentRequest extends SilentBackgroundTask<Void> {
+			public SegmentRequest() {
+				super(context);
+			}
+
+			@Override
+			protected Void doInBackground() {
+				return null;
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return DownloadTask.this.isCancelled();
+			}
+
+			public void abort() {
+				OnCancelListener listener = cancelListener;
+				if(listener != null) {
+					listener.onCancel();
+				}
+			}
+		}
+
+		private class Segment implements Runnable {
+			private final MusicService musicService;
+			private final long start;
+			private final long end;
+			// Bytes of the segment already written to the file
+			private long done = 0;
+			private HttpResponse response;
+			private Exception error;
+			private boolean rangeIgnored = false;
+
+			public Segment(MusicService musicService, long start, long end) {
+				this.musicService = musicService;
+				this.start = start;
+				this.end = end;
+			}
+
+			public boolean isDone() {
+				return start + done > end;
+			}
+			public long getPosition() {
+				return start + done;
+			}
+
+			@Override
+			public void run() {
+				InputStream in = null;
+				RandomAccessFile file = null;
+				try {
+					if(response == null) {
+						SegmentRequest request = new SegmentRequest();
+						segmentRequests.add(request);
+						try {
+							if(isCancelled()) {
+								return;
+							}
+							response = musicService.getDownloadInputStream(context, song, getPosition(), end, bitRate, request);
+						} finally {
+							segmentRequests.remove(request);
+						}
+					}
+					in = response.getEntity().getContent();
+					if(response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+						rangeIgnored = true;
+						throw new IOException("Range " + getPosition() + "-" + end + " of '" + song + "' was not honoured");
+					}
+
+					file = new RandomAccessFile(segmentedFile, "rw");
+					file.seek(getPosition());
+					copy(in, file.getChannel(), segmentedSize);
+					if(!isDone() && !isCancelled()) {
+						throw new IOException("Segment " + start + "-" + end + " of '" + song + "' ended after " + done + " bytes");
+					}
+				} catch(Exception e) {
+					error = e;
+				} finally {
+					Util.close(in);
+					if(file != null) {
+						try {
+							// Whatever made it to the file counts, even if the copy stopped part way through
+							done = Math.min(file.getChannel().position() - start, end - start + 1);
+						} catch(IOException e) {
+							Log.w(TAG, "Failed to get position of segment of " + song, e);
+						}
+						Util.close(file);
+					}
+					response = null;
+				}
+			}
+		}
+
         private void downloadAndSaveCoverArt(MusicService musicService) throws Exception {
             try {
                 if (song.getCoverArt() != null) {
@@ -571,62 +1003,73 @@ public class DownloadFile implements BufferFile {
             }
         }
 
-        private long copy(final InputStream in, OutputStream out) throws IOException, InterruptedException {
-
-            // Start a thread that will close the input stream if the task is
-            // cancelled, thus causing the copy() method to return.
-            new Thread("DownloadFile_copy") {
-                @Override
-                public void run() {
-                    while (true) {
-                        Util.sleepQuietly(3000L);
-                        if (isCancelled()) {
-                            Util.close(in);
-                            return;
-                        }
-                        if (!isRunning()) {
-                            return;
-                        }
-                    }
-                }
-            }.start();
-
-            byte[] buffer = new byte[1024 * 16];
-            long count = 0;
-            int n;
-            long lastLog = System.currentTimeMillis();
-			long lastCount = 0;
-
-			boolean activeLimit = rateLimit;
-            while (!isCancelled() && (n = in.read(buffer)) != -1) {
-                out.write(buffer, 0, n);
-                count += n;
-				lastCount += n;
-
-                long now = System.currentTimeMillis();
-                if (now - lastLog > 3000L) {  // Only every so often.
-                    Log.i(TAG, "Downloaded " + Util.formatBytes(count) + " of " + song);
-					currentSpeed = lastCount / ((now - lastLog) / 1000L);
-                    lastLog = now;
-					lastCount = 0;
-					
-					// Re-establish every few seconds whether screen is on or not
-					if(rateLimit) {
-						PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
-						if(pm.isScreenOn()) {
-							activeLimit = true;
-						} else {
-							activeLimit = false;
+        private long copy(final InputStream in, FileChannel out) throws IOException, InterruptedException {
+			return copy(in, out, null);
+		}
+		/**
+		 * @param progress Bytes copied are added to this as they are written, for copies which are only part of the file
+		 */
+		private long copy(final InputStream in, FileChannel out, AtomicLong progress) throws IOException, InterruptedException {
+			// Close the input stream from the shared watchdog if the task is cancelled, thus causing the copy() method to return.
+			ScheduledFuture<?> watch = cancelWatchdog.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					if (isCancelled()) {
+						Util.close(in);
+					}
+				}
+			}, CANCEL_CHECK_INTERVAL, CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+
+			try {
+				// Only as big as reads have grown to, and gone along with the copy instead of staying on the thread
+				byte[] array = new byte[MIN_BUFFER_SIZE];
+				ByteBuffer buffer = ByteBuffer.wrap(array);
+				int readSize = MIN_BUFFER_SIZE;
+				long count = 0;
+				int n;
+				long lastLog = System.currentTimeMillis();
+
+				BandwidthLimiter limiter = rateLimit ? BandwidthLimiter.getInstance(context) : null;
+				while (!isCancelled() && (n = in.read(array, 0, readSize)) != -1) {
+					buffer.clear();
+					buffer.limit(n);
+					while (buffer.hasRemaining()) {
+						out.write(buffer);
+					}
+					count += n;
+					throughput.add(n);
+					if (progress != null) {
+						progress.addAndGet(n);
+					}
+
+					// Fewer, larger reads on a fast connection, but keep them small when sharing a limited rate
+					if (limiter != null && limiter.isLimiting(screenRateLimit)) {
+						readSize = MIN_BUFFER_SIZE;
+					} else if (n == readSize && readSize < MAX_BUFFER_SIZE) {
+						readSize *= 2;
+						if (readSize > array.length) {
+							array = new byte[readSize];
+							buffer = ByteBuffer.wrap(array);
 						}
+					} else if (n < readSize / 4 && readSize > MIN_BUFFER_SIZE) {
+						readSize /= 2;
 					}
-                }
-                
-                // If screen is on and rateLimit is true, stop downloading from exhausting bandwidth
-                if(activeLimit) {
-                	Thread.sleep(10L);
-                }
-            }
-            return count;
+
+					long now = System.currentTimeMillis();
+					if (now - lastLog > 3000L) {  // Only every so often.
+						Log.i(TAG, "Downloaded " + Util.formatBytes(count) + " of " + song + " at " + Util.formatBytes(throughput.getBytesPerSecond()) + "/s");
+						lastLog = now;
+					}
+
+					// Give way to streaming and whatever the user is doing on screen
+					if (limiter != null) {
+						limiter.acquire(n, screenRateLimit);
+					}
+				}
+				return count;
+			} finally {
+				watch.cancel(false);
+			}
         }
     }
 }
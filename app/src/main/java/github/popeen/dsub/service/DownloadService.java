@@ -43,7 +43,10 @@ import github.popeen.dsub.domain.RepeatMode;
 import github.popeen.dsub.domain.ServerInfo;
 import github.popeen.dsub.receiver.MediaButtonIntentReceiver;
 import github.popeen.dsub.util.ArtistRadioBuffer;
+import github.popeen.dsub.util.BandwidthLimiter;
 import github.popeen.dsub.util.ImageLoader;
+import github.popeen.dsub.util.MusicDirectoryCache;
+import github.popeen.dsub.util.MusicDirectoryWatcher;
 import github.popeen.dsub.util.Notifications;
 import github.popeen.dsub.util.SilentBackgroundTask;
 import github.popeen.dsub.util.Constants;
@@ -137,6 +140,7 @@ public class DownloadService extends Service {
 	private final DownloadServiceLifecycleSupport lifecycleSupport = new DownloadServiceLifecycleSupport(this);
 	private ShufflePlayBuffer shufflePlayBuffer;
 	private ArtistRadioBuffer artistRadioBuffer;
+	private MediaStoreService mediaStoreService;
 
 	private final LruCache<MusicDirectory.Entry, DownloadFile> downloadFileCache = new LruCache<MusicDirectory.Entry, DownloadFile>(100);
 	private final List<DownloadFile> cleanupCandidates = new ArrayList<DownloadFile>();
@@ -146,6 +150,7 @@ public class DownloadService extends Service {
 	private int currentPlayingIndex = -1;
 	private DownloadFile nextPlaying;
 	private DownloadFile currentDownloading;
+	private final List<DownloadFile> currentDownloads = new ArrayList<DownloadFile>();
 	private SilentBackgroundTask bufferTask;
 	private SilentBackgroundTask nextPlayingTask;
 	private PlayerState playerState = IDLE;
@@ -281,6 +286,12 @@ public class DownloadService extends Service {
 		instance = this;
 		shufflePlayBuffer = new ShufflePlayBuffer(this);
 		artistRadioBuffer = new ArtistRadioBuffer(this);
+
+		// Keep everything built from the music directory up to date with what is copied in or deleted from it
+		MusicDirectoryWatcher watcher = MusicDirectoryWatcher.getWatcher(this);
+		mediaStoreService = new MediaStoreService(this);
+		watcher.addOnFilesChangedListener(mediaStoreService);
+		watcher.start();
 		lifecycleSupport.onCreate();
 	}
 
@@ -293,22 +304,32 @@ public class DownloadService extends Service {
 
 	@Override
 	public void onTrimMemory(int level) {
-		ImageLoader imageLoader = SubsonicActivity.getStaticImageLoader(this);
-		if(imageLoader != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-			Log.i(TAG, "Memory Trim Level: " + level);
-			if (level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
-				if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
-					imageLoader.onLowMemory(0.75f);
-				} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
-					imageLoader.onLowMemory(0.50f);
-				} else if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
-					imageLoader.onLowMemory(0.25f);
-				}
-			} else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
-				imageLoader.onLowMemory(0.25f);
-			} else if(level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
-				imageLoader.onLowMemory(0.75f);
+		if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+			return;
+		}
+
+		Log.i(TAG, "Memory Trim Level: " + level);
+		float percent = 0;
+		if (level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+			if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+				percent = 0.75f;
+			} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+				percent = 0.50f;
+			} else if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+				percent = 0.25f;
 			}
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+			percent = 0.25f;
+		} else if(level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+			percent = 0.75f;
+		}
+
+		if(percent > 0) {
+			ImageLoader imageLoader = SubsonicActivity.getStaticImageLoader(this);
+			if(imageLoader != null) {
+				imageLoader.onLowMemory(percent);
+			}
+			MusicDirectoryCache.getInstance().onLowMemory(percent);
 		}
 	}
 
@@ -324,6 +345,9 @@ public class DownloadService extends Service {
 		}
 		lifecycleSupport.onDestroy();
 
+		// Left watching for the rest of the process, starting over would make everything built from it walk again
+		MusicDirectoryWatcher.getWatcher(this).removeOnFilesChangedListener(mediaStoreService);
+
 		try {
 			Intent i = new Intent(AudioEffect.ACTION_CLOSE_AUDIO_EFFECT_CONTROL_SESSION);
 			i.putExtra(AudioEffect.EXTRA_AUDIO_SESSION, audioSessionId);
@@ -677,9 +701,10 @@ public class DownloadService extends Service {
 	}
 
 	public synchronized void clearBackground() {
-		if(currentDownloading != null && backgroundDownloadList.contains(currentDownloading)) {
-			currentDownloading.cancelDownload();
-			currentDownloading = null;
+		for(DownloadFile downloadFile: new ArrayList<DownloadFile>(currentDownloads)) {
+			if(backgroundDownloadList.contains(downloadFile)) {
+				cancelDownload(downloadFile);
+			}
 		}
 		backgroundDownloadList.clear();
 		revision++;
@@ -770,9 +795,10 @@ public class DownloadService extends Service {
 		reset();
 		downloadList.clear();
 		onSongsChanged();
-		if (currentDownloading != null && !backgroundDownloadList.contains(currentDownloading)) {
-			currentDownloading.cancelDownload();
-			currentDownloading = null;
+		for(DownloadFile downloadFile: new ArrayList<DownloadFile>(currentDownloads)) {
+			if(!backgroundDownloadList.contains(downloadFile)) {
+				cancelDownload(downloadFile);
+			}
 		}
 		setCurrentPlaying(null, false);
 
@@ -800,9 +826,8 @@ public class DownloadService extends Service {
 	}
 
 	public synchronized void remove(DownloadFile downloadFile) {
-		if (downloadFile == currentDownloading) {
-			currentDownloading.cancelDownload();
-			currentDownloading = null;
+		if (currentDownloads.contains(downloadFile)) {
+			cancelDownload(downloadFile);
 		}
 		if (downloadFile == currentPlaying) {
 			reset();
@@ -822,9 +847,8 @@ public class DownloadService extends Service {
 		checkDownloads();
 	}
 	public synchronized void removeBackground(DownloadFile downloadFile) {
-		if (downloadFile == currentDownloading && downloadFile != currentPlaying && downloadFile != nextPlaying) {
-			currentDownloading.cancelDownload();
-			currentDownloading = null;
+		if (currentDownloads.contains(downloadFile) && downloadFile != currentPlaying && downloadFile != nextPlaying) {
+			cancelDownload(downloadFile);
 		}
 
 		backgroundDownloadList.remove(downloadFile);
@@ -985,6 +1009,9 @@ public class DownloadService extends Service {
 	public DownloadFile getCurrentDownloading() {
 		return currentDownloading;
 	}
+	public synchronized List<DownloadFile> getCurrentDownloads() {
+		return new ArrayList<DownloadFile>(currentDownloads);
+	}
 
 	public DownloadFile getNextPlaying() {
 		return nextPlaying;
@@ -1730,9 +1757,9 @@ public class DownloadService extends Service {
 		if (remoteState != LOCAL) {
 			reset();
 
-			// Cancel current download, if necessary.
-			if (currentDownloading != null) {
-				currentDownloading.cancelDownload();
+			// Cancel current downloads, if necessary.
+			for(DownloadFile downloadFile: new ArrayList<DownloadFile>(currentDownloads)) {
+				cancelDownload(downloadFile);
 			}
 
 			// Cancels current setup tasks
@@ -2167,68 +2194,68 @@ public class DownloadService extends Service {
 			return;
 		}
 
-		// Need to download current playing and not casting?
-		if (currentPlaying != null && remoteState == LOCAL && currentPlaying != currentDownloading && !currentPlaying.isWorkDone()) {
-			// Cancel current download, if necessary.
-			if (currentDownloading != null) {
-				currentDownloading.cancelDownload();
-			}
+		// Free up the slots of any workers which have finished, failed or been cancelled
+		pruneDownloads();
+		int maxDownloads = Util.getMaxConcurrentDownloads(this);
+		int preloadCount = Util.getPreloadCount(this);
 
-			currentDownloading = currentPlaying;
-			currentDownloading.download();
-			cleanupCandidates.add(currentDownloading);
+		// Current playing and next always get a worker when not casting, even if it means bumping a lower priority download
+		if (currentPlaying != null && remoteState == LOCAL) {
+			startPriorityDownload(currentPlaying, maxDownloads);
+			if (nextPlaying != null && (nextPlaying.shouldSave() || preloadCount > 0)) {
+				startPriorityDownload(nextPlaying, maxDownloads);
+			}
 		}
 
-		// Find a suitable target for download.
-		else if (currentDownloading == null || currentDownloading.isWorkDone() || currentDownloading.isFailed() && ((!downloadList.isEmpty() && remoteState == LOCAL) || !backgroundDownloadList.isEmpty())) {
-			currentDownloading = null;
-			int n = size();
-
-			int preloaded = 0;
-
-			if(n != 0 && (remoteState == LOCAL || Util.shouldCacheDuringCasting(this))) {
-				int start = currentPlaying == null ? 0 : getCurrentPlayingIndex();
-				if(start == -1) {
-					start = 0;
-				}
-				int i = start;
-				do {
-					DownloadFile downloadFile = downloadList.get(i);
-					if (!downloadFile.isWorkDone() && !downloadFile.isFailedMax()) {
-						if (downloadFile.shouldSave() || preloaded < Util.getPreloadCount(this)) {
-							currentDownloading = downloadFile;
-							currentDownloading.download();
-							cleanupCandidates.add(currentDownloading);
-							if(i == (start + 1)) {
-								setNextPlayerState(DOWNLOADING);
-							}
-							break;
+		// Preload lane: fill the remaining workers with upcoming songs in the play queue
+		int n = size();
+		int preloaded = 0;
+		if(n != 0 && (remoteState == LOCAL || Util.shouldCacheDuringCasting(this))) {
+			int start = currentPlaying == null ? 0 : getCurrentPlayingIndex();
+			if(start == -1) {
+				start = 0;
+			}
+			int i = start;
+			do {
+				DownloadFile downloadFile = downloadList.get(i);
+				if (!downloadFile.isWorkDone() && !downloadFile.isFailedMax()) {
+					if (currentDownloads.contains(downloadFile)) {
+						if (currentPlaying != downloadFile) {
+							preloaded++;
+						}
+					} else if (currentDownloads.size() < maxDownloads && (downloadFile.shouldSave() || preloaded < preloadCount) && !isDownloadScheduled(downloadFile)) {
+						startDownload(downloadFile, false);
+						if (currentPlaying != downloadFile) {
+							preloaded++;
+						}
+						if(i == (start + 1)) {
+							setNextPlayerState(DOWNLOADING);
 						}
-					} else if (currentPlaying != downloadFile) {
-						preloaded++;
 					}
+				} else if (currentPlaying != downloadFile) {
+					preloaded++;
+				}
 
-					i = (i + 1) % n;
-				} while (i != start);
-			}
-
-			if((preloaded + 1 == n || preloaded >= Util.getPreloadCount(this) || downloadList.isEmpty() || remoteState != LOCAL) && !backgroundDownloadList.isEmpty()) {
-				for(int i = 0; i < backgroundDownloadList.size(); i++) {
-					DownloadFile downloadFile = backgroundDownloadList.get(i);
-					if(downloadFile.isWorkDone() && (!downloadFile.shouldSave() || downloadFile.isSaved()) || downloadFile.isFailedMax()) {
-						// Don't need to keep list like active song list
-						backgroundDownloadList.remove(i);
-						revision++;
-						i--;
-					} else {
-						currentDownloading = downloadFile;
-						currentDownloading.download();
-						cleanupCandidates.add(currentDownloading);
-						break;
-					}
+				i = (i + 1) % n;
+			} while (i != start);
+		}
+
+		// Background lane: only gets workers once the play queue has what it needs
+		if((preloaded + 1 == n || preloaded >= preloadCount || downloadList.isEmpty() || remoteState != LOCAL) && !backgroundDownloadList.isEmpty()) {
+			for(int i = 0; i < backgroundDownloadList.size() && currentDownloads.size() < maxDownloads; i++) {
+				DownloadFile downloadFile = backgroundDownloadList.get(i);
+				if(downloadFile.isWorkDone() && (!downloadFile.shouldSave() || downloadFile.isSaved()) || downloadFile.isFailedMax()) {
+					// Don't need to keep list like active song list
+					backgroundDownloadList.remove(i);
+					revision++;
+					i--;
+				} else if(!currentDownloads.contains(downloadFile) && !isDownloadScheduled(downloadFile)) {
+					startDownload(downloadFile, false);
 				}
 			}
 		}
+		currentDownloading = currentDownloads.isEmpty() ? null : currentDownloads.get(0);
+		BandwidthLimiter.getInstance(this).setStreaming(currentPlaying != null && currentDownloads.contains(currentPlaying));
 
 		if(!backgroundDownloadList.isEmpty()) {
 			Notifications.showDownloadingNotification(this, this, handler, currentDownloading, backgroundDownloadList.size());
@@ -2242,6 +2269,79 @@ public class DownloadService extends Service {
 		cleanup();
 	}
 
+	private synchronized void startPriorityDownload(DownloadFile downloadFile, int maxDownloads) {
+		if (downloadFile.isWorkDone() || downloadFile.isFailedMax() || currentDownloads.contains(downloadFile)) {
+			return;
+		}
+
+		// Another instance of the same song might already be writing to the partial file
+		for (DownloadFile active : new ArrayList<DownloadFile>(currentDownloads)) {
+			if (active.getPartialFile().equals(downloadFile.getPartialFile())) {
+				if (active == currentPlaying || active == nextPlaying) {
+					// Same song queued twice in a row, this one is done as soon as that one is
+					return;
+				}
+				cancelDownload(active);
+			}
+		}
+
+		// Bump a background download first, then any preload which isn't current or next
+		if (currentDownloads.size() >= maxDownloads) {
+			DownloadFile bumped = null;
+			for (DownloadFile active : currentDownloads) {
+				if (active != currentPlaying && active != nextPlaying) {
+					if (backgroundDownloadList.contains(active)) {
+						bumped = active;
+						break;
+					} else if (bumped == null) {
+						bumped = active;
+					}
+				}
+			}
+
+			if (bumped == null) {
+				return;
+			}
+			cancelDownload(bumped);
+		}
+
+		startDownload(downloadFile, true);
+	}
+	private synchronized void startDownload(DownloadFile downloadFile, boolean priority) {
+		// Background downloads share a limited rate so they don't starve streaming or the UI
+		downloadFile.download(backgroundDownloadList.contains(downloadFile));
+		if (priority) {
+			currentDownloads.add(0, downloadFile);
+		} else {
+			currentDownloads.add(downloadFile);
+		}
+		cleanupCandidates.add(downloadFile);
+	}
+	private synchronized void cancelDownload(DownloadFile downloadFile) {
+		downloadFile.cancelDownload();
+		currentDownloads.remove(downloadFile);
+		if (downloadFile == currentDownloading) {
+			currentDownloading = currentDownloads.isEmpty() ? null : currentDownloads.get(0);
+		}
+	}
+	private synchronized void pruneDownloads() {
+		Iterator<DownloadFile> iterator = currentDownloads.iterator();
+		while (iterator.hasNext()) {
+			DownloadFile downloadFile = iterator.next();
+			if (downloadFile.isWorkDone() || downloadFile.isFailed() || downloadFile.isDownloadCancelled()) {
+				iterator.remove();
+			}
+		}
+	}
+	private synchronized boolean isDownloadScheduled(DownloadFile downloadFile) {
+		for (DownloadFile active : currentDownloads) {
+			if (active.getPartialFile().equals(downloadFile.getPartialFile())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private synchronized void checkRemovePlayed() {
 		boolean changed = false;
 		SharedPreferences prefs = Util.getPreferences(this);
@@ -2351,7 +2451,7 @@ public class DownloadService extends Service {
 		Iterator<DownloadFile> iterator = cleanupCandidates.iterator();
 		while (iterator.hasNext()) {
 			DownloadFile downloadFile = iterator.next();
-			if (downloadFile != currentPlaying && downloadFile != currentDownloading) {
+			if (downloadFile != currentPlaying && !currentDownloads.contains(downloadFile)) {
 				if (downloadFile.cleanup()) {
 					iterator.remove();
 				}
@@ -2529,6 +2629,20 @@ public class DownloadService extends Service {
 		}
 	}
 
+	/**
+	 * Tracks of the same album share its album gain, so the stored one tells even when the album names don't match.
+	 * Only looks at what is already stored for the other file, it is never read from here.
+	 */
+	private boolean isSameAlbum(DownloadFile downloadFile, float albumGain, DownloadFile other) {
+		String albumName = downloadFile.getSong().getAlbum();
+		if(albumName != null && albumName.equals(other.getSong().getAlbum())) {
+			return true;
+		}
+
+		float[] rg = BastpUtil.peekReplayGainValues(this, other.getFile().getPath());
+		return rg != null && rg[1] == albumGain;
+	}
+
 	private void applyReplayGain(MediaPlayer mediaPlayer, DownloadFile downloadFile) {
 		if(currentPlaying == null) {
 			return;
@@ -2538,22 +2652,22 @@ public class DownloadService extends Service {
 		try {
 			float adjust = 0f;
 			if (prefs.getBoolean(Constants.PREFERENCES_KEY_REPLAY_GAIN, false)) {
-				float[] rg = BastpUtil.getReplayGainValues(downloadFile.getFile().getCanonicalPath()); /* track, album */
+				// Stored when it was downloaded or indexed offline, so this is only a lookup
+				float[] rg = BastpUtil.getReplayGainValues(this, downloadFile.getFile().getPath()); /* track, album */
 				boolean singleAlbum = false;
 				
 				String replayGainType = prefs.getString(Constants.PREFERENCES_KEY_REPLAY_GAIN_TYPE, "1");
-				// 1 => Smart replay gain
-				if("1".equals(replayGainType)) {
+				// 1 => Smart replay gain, which only matters if there is an album gain to use
+				if("1".equals(replayGainType) && rg[1] != 0) {
 					// Check if part of at least <REQUIRED_ALBUM_MATCHES> consequetive songs of the same album
 					
 					int index = downloadList.indexOf(downloadFile);
 					if(index != -1) {
-						String albumName = downloadFile.getSong().getAlbum();
 						int matched = 0;
 						
 						// Check forwards
 						for(int i = index + 1; i < downloadList.size() && matched < REQUIRED_ALBUM_MATCHES; i++) {
-							if(albumName.equals(downloadList.get(i).getSong().getAlbum())) {
+							if(isSameAlbum(downloadFile, rg[1], downloadList.get(i))) {
 								matched++;
 							} else {
 								break;
@@ -2562,7 +2676,7 @@ public class DownloadService extends Service {
 						
 						// Check backwards
 						for(int i = index - 1; i >= 0 && matched < REQUIRED_ALBUM_MATCHES; i--) {
-							if(albumName.equals(downloadList.get(i).getSong().getAlbum())) {
+							if(isSameAlbum(downloadFile, rg[1], downloadList.get(i))) {
 								matched++;
 							} else {
 								break;
@@ -305,7 +305,7 @@ public class DownloadServiceLifecycleSupport {
 		state.changed = lastChange = new Date();
 
 		Log.i(TAG, "Serialized currentPlayingIndex: " + state.currentPlayingIndex + ", currentPlayingPosition: " + state.currentPlayingPosition);
-		FileUtil.serialize(downloadService, state, FILENAME_DOWNLOADS_SER);
+		FileUtil.serialize(downloadService, state, FILENAME_DOWNLOADS_SER, true);
 
 		// If we are on Subsonic 5.2+, save play queue
 		if(serializeRemote && ServerInfo.canSavePlayQueue(downloadService) && !Util.isOffline(downloadService) && state.songs.size() > 0) {
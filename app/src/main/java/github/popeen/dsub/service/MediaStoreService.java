@@ -19,6 +19,7 @@
 package github.popeen.dsub.service;
 
 import java.io.File;
+import java.util.Map;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
@@ -29,12 +30,13 @@ import android.provider.MediaStore;
 import android.util.Log;
 import github.popeen.dsub.domain.MusicDirectory;
 import github.popeen.dsub.util.FileUtil;
+import github.popeen.dsub.util.MusicDirectoryWatcher;
 import github.popeen.dsub.util.Util;
 
 /**
  * @author Sindre Mehus
  */
-public class MediaStoreService {
+public class MediaStoreService implements MusicDirectoryWatcher.OnFilesChangedListener {
 
 	private static final String TAG = MediaStoreService.class.getSimpleName();
 	private static final Uri ALBUM_ART_URI = Uri.parse("content://media/external/audio/albumart");
@@ -165,6 +167,63 @@ public class MediaStoreService {
 		}
 	}
 
+	/**
+	 * Files removed or moved by anyone, which might have been put in the media store by a download.  New files are left
+	 * to downloads putting them in themselves, or the system's own scanner.
+	 */
+	@Override
+	public void onFilesChanged(MusicDirectoryWatcher.Changes changes) {
+		for(File file: changes.removed) {
+			deleteTreeFromMediaStore(file);
+		}
+		for(Map.Entry<File, File> rename: changes.renamed.entrySet()) {
+			if(rename.getValue().isDirectory()) {
+				renameTreeInMediaStore(rename.getKey(), rename.getValue());
+			} else {
+				renameInMediaStore(rename.getKey(), rename.getValue());
+			}
+		}
+	}
+
+	/**
+	 * A file, or a folder along with everything in it, without knowing which since it is already gone
+	 */
+	private void deleteTreeFromMediaStore(File file) {
+		ContentResolver contentResolver = context.getContentResolver();
+		String path = file.getAbsolutePath();
+		// Everything that starts with path + '/', without having to escape LIKE patterns
+		String selection = MediaStore.MediaColumns.DATA + "=? OR (" + MediaStore.MediaColumns.DATA + ">=? AND " + MediaStore.MediaColumns.DATA + "<?)";
+		String[] selectionArgs = new String[]{path, path + "/", path + "0"};
+
+		int n = contentResolver.delete(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, selection, selectionArgs);
+		n += contentResolver.delete(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, selection, selectionArgs);
+		if (n > 0) {
+			Log.i(TAG, "Deleting " + n + " media store rows for " + file);
+		}
+	}
+
+	private void renameTreeInMediaStore(File start, File end) {
+		ContentResolver contentResolver = context.getContentResolver();
+		String path = start.getAbsolutePath();
+
+		Cursor cursor = contentResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+				new String[]{MediaStore.MediaColumns.DATA},
+				MediaStore.MediaColumns.DATA + ">=? AND " + MediaStore.MediaColumns.DATA + "<?",
+				new String[]{path + "/", path + "0"}, null);
+		if(cursor == null) {
+			return;
+		}
+
+		try {
+			while(cursor.moveToNext()) {
+				String data = cursor.getString(0);
+				renameInMediaStore(new File(data), new File(end.getAbsolutePath() + data.substring(path.length())));
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
 	private void insertAlbumArt(int albumId, DownloadFile downloadFile) {
 		ContentResolver contentResolver = context.getContentResolver();
 
@@ -24,7 +24,6 @@ import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -56,6 +55,9 @@ import github.popeen.dsub.domain.Share;
 import github.popeen.dsub.domain.User;
 import github.popeen.dsub.util.Constants;
 import github.popeen.dsub.util.FileUtil;
+import github.popeen.dsub.util.OfflineCatalog;
+import github.popeen.dsub.util.OfflineSearchIndex;
+import github.popeen.dsub.util.OfflineSongPool;
 import github.popeen.dsub.util.Pair;
 import github.popeen.dsub.util.ProgressListener;
 import github.popeen.dsub.util.SilentBackgroundTask;
@@ -88,6 +90,24 @@ public class OfflineMusicService implements MusicService {
         List<Artist> artists = new ArrayList<Artist>();
 		List<Entry> entries = new ArrayList<>();
         File root = FileUtil.getMusicDirectory(context);
+		OfflineCatalog catalog = getCatalog(context);
+		if(catalog != null) {
+			for(OfflineCatalog.Metadata metadata: catalog.getChildren(root)) {
+				File file = metadata.file;
+				if(metadata.directory) {
+					Artist artist = new Artist();
+					artist.setId(file.getPath());
+					artist.setIndex(file.getName().substring(0, 1));
+					artist.setName(file.getName());
+					artists.add(artist);
+				} else {
+					entries.add(OfflineCatalog.createEntry(file, getName(file, false), root.getPath(), metadata, false));
+				}
+			}
+
+			return new Indexes(0L, Collections.<Artist>emptyList(), artists, entries);
+		}
+
         for (File file : FileUtil.listFiles(root)) {
             if (file.isDirectory()) {
                 Artist artist = new Artist();
@@ -115,11 +135,22 @@ public class OfflineMusicService implements MusicService {
 
 		Set<String> names = new HashSet<String>();
 
-		for (File file : FileUtil.listMediaFiles(dir)) {
-			String name = getName(file);
-			if (name != null & !names.contains(name)) {
-				names.add(name);
-				result.addChild(createEntry(context, file, name, true, isPodcast));
+		OfflineCatalog catalog = getCatalog(context);
+		if(catalog != null) {
+			String root = FileUtil.getMusicDirectory(context).getPath();
+			for(OfflineCatalog.Metadata metadata: catalog.getChildren(dir)) {
+				String name = getName(metadata.file, metadata.directory);
+				if(name != null && names.add(name)) {
+					result.addChild(OfflineCatalog.createEntry(metadata.file, name, root, metadata, isPodcast));
+				}
+			}
+		} else {
+			for (File file : FileUtil.listMediaFiles(dir)) {
+				String name = getName(file);
+				if (name != null & !names.contains(name)) {
+					names.add(name);
+					result.addChild(createEntry(context, file, name, true, isPodcast));
+				}
 			}
 		}
 		result.sortChildren(Util.getPreferences(context).getBoolean(Constants.PREFERENCES_KEY_CUSTOM_SORT_ENABLED, true));
@@ -137,18 +168,26 @@ public class OfflineMusicService implements MusicService {
 	}
 
 	private String getName(File file) {
-        String name = file.getName();
-        if (file.isDirectory()) {
-            return name;
-        }
+		return OfflineCatalog.getName(file);
+	}
+	private String getName(File file, boolean directory) {
+		return OfflineCatalog.getName(file, directory);
+	}
 
-        if (name.endsWith(".partial") || name.contains(".partial.") || name.equals(Constants.ALBUM_ART_FILE)) {
-            return null;
-        }
+	/**
+	 * The catalog once it has been built for the current music directory and kept up to date by the watcher since,
+	 * otherwise null after starting to scan it
+	 */
+	private OfflineCatalog getCatalog(Context context) {
+		OfflineCatalog catalog = OfflineCatalog.getCatalog(context);
+		if(catalog.isCurrent()) {
+			return catalog;
+		}
 
-        name = name.replace(".complete", "");
-        return FileUtil.getBaseName(name);
-    }
+		// Walk the files this time, the scan only reads files that changed so it will be caught up by next time
+		catalog.scanInBackground();
+		return null;
+	}
 
 	private Entry createEntry(Context context, File file) {
 		return createEntry(context, file, getName(file));
@@ -160,60 +199,8 @@ public class OfflineMusicService implements MusicService {
         return createEntry(context, file, name, load, false);
     }
 	private Entry createEntry(Context context, File file, String name, boolean load, boolean isPodcast) {
-		Entry entry;
-		if(isPodcast) {
-			PodcastEpisode episode = new PodcastEpisode();
-			episode.setStatus("completed");
-			entry = episode;
-		} else {
-			entry = new Entry();
-		}
-		entry.setDirectory(file.isDirectory());
-		entry.setId(file.getPath());
-		entry.setParent(file.getParent());
-		entry.setSize(file.length());
 		String root = FileUtil.getMusicDirectory(context).getPath();
-		if(!file.getParentFile().getParentFile().getPath().equals(root)) {
-			entry.setGrandParent(file.getParentFile().getParent());
-		}
-		entry.setPath(file.getPath().replaceFirst("^" + root + "/" , ""));
-		String title = name;
-		if (file.isFile()) {
-			File artistFolder = file.getParentFile().getParentFile();
-			File albumFolder = file.getParentFile();
-			if(artistFolder.getPath().equals(root)) {
-				entry.setArtist(albumFolder.getName());
-			} else {
-				entry.setArtist(artistFolder.getName());
-			}
-			entry.setAlbum(albumFolder.getName());
-
-			int index = name.indexOf('-');
-			if(index != -1) {
-				try {
-					entry.setTrack(Integer.parseInt(name.substring(0, index)));
-					title = title.substring(index + 1);
-				} catch(Exception e) {
-					// Failed parseInt, just means track filled out
-				}
-			}
-
-			if(load) {
-				entry.loadMetadata(file);
-			}
-		}
-
-		entry.setTitle(title);
-		entry.setSuffix(FileUtil.getExtension(file.getName().replace(".complete", "")));
-
-		File albumArt = FileUtil.getAlbumArtFile(context, entry);
-		if (albumArt.exists()) {
-			entry.setCoverArt(albumArt.getPath());
-		}
-		if(FileUtil.isVideoFile(file)) {
-			entry.setVideo(true);
-		}
-		return entry;
+		return OfflineCatalog.createEntry(file, name, root, OfflineCatalog.Metadata.read(context, file, root, load), isPodcast);
 	}
 
     @Override
@@ -229,6 +216,10 @@ public class OfflineMusicService implements MusicService {
 	public HttpResponse getDownloadInputStream(Context context, Entry song, long offset, int maxBitrate, SilentBackgroundTask task) throws Exception {
 		throw new OfflineException(ERRORMSG);
 	}
+	@Override
+	public HttpResponse getDownloadInputStream(Context context, Entry song, long offset, long end, int maxBitrate, SilentBackgroundTask task) throws Exception {
+		throw new OfflineException(ERRORMSG);
+	}
 
 	@Override
 	public String getMusicUrl(Context context, Entry song, int maxBitrate) throws Exception {
@@ -247,14 +238,18 @@ public class OfflineMusicService implements MusicService {
 
 	@Override
     public SearchResult search(SearchCritera criteria, Context context, ProgressListener progressListener) throws Exception {
+		if(getCatalog(context) != null) {
+			return OfflineSearchIndex.getIndex(context).search(criteria);
+		}
+
 		List<Artist> artists = new ArrayList<Artist>();
 		List<Entry> albums = new ArrayList<Entry>();
 		List<Entry> songs = new ArrayList<Entry>();
         File root = FileUtil.getMusicDirectory(context);
 		int closeness = 0;
-        for (File artistFile : FileUtil.listFiles(root)) {
+		for (File artistFile : FileUtil.listFiles(root)) {
 			String artistName = artistFile.getName();
-            if (artistFile.isDirectory()) {
+			if (artistFile.isDirectory()) {
 				if((closeness = matchCriteria(criteria, artistName)) > 0) {
 					Artist artist = new Artist();
 					artist.setId(artistFile.getPath());
@@ -263,10 +258,10 @@ public class OfflineMusicService implements MusicService {
 					artist.setCloseness(closeness);
 					artists.add(artist);
 				}
-				
+
 				recursiveAlbumSearch(artistName, artistFile, criteria, context, albums, songs);
-            }
-        }
+			}
+		}
 		
 		Collections.sort(artists, new Comparator<Artist>() {
 			public int compare(Artist lhs, Artist rhs) {
@@ -481,6 +476,9 @@ public class OfflineMusicService implements MusicService {
 			MusicDirectory playlist = new MusicDirectory();
 			String line = buffer.readLine();
 	    	if(!"#EXTM3U".equals(line)) return playlist;
+
+			OfflineCatalog catalog = getCatalog(context);
+			String root = FileUtil.getMusicDirectory(context).getPath();
 			
 			while( (line = buffer.readLine()) != null ){
 				// No matter what, end file can't have .complete in it
@@ -497,7 +495,12 @@ public class OfflineMusicService implements MusicService {
 				
 				String entryName = getName(entryFile);
 				if(checkFile.exists() && entryName != null){
-					playlist.addChild(createEntry(context, entryFile, entryName, false));
+					OfflineCatalog.Metadata metadata = catalog == null ? null : catalog.getMetadata(checkFile);
+					if(metadata != null) {
+						playlist.addChild(OfflineCatalog.createEntry(entryFile, entryName, root, metadata, false));
+					} else {
+						playlist.addChild(createEntry(context, entryFile, entryName, false));
+					}
 				}
 			}
 			
@@ -715,10 +718,18 @@ public class OfflineMusicService implements MusicService {
 	@Override
     public MusicDirectory getRandomSongs(int size, String folder, String genre, String startYear, String endYear, Context context, ProgressListener progressListener) throws Exception {
         File root = FileUtil.getMusicDirectory(context);
-        List<File> children = new LinkedList<File>();
-        listFilesRecursively(root, children);
         MusicDirectory result = new MusicDirectory();
 
+		if(getCatalog(context) != null) {
+			for(OfflineCatalog.Metadata metadata: OfflineSongPool.getPool(context).getRandomSongs(size, genre, startYear, endYear)) {
+				result.addChild(OfflineCatalog.createEntry(metadata.file, getName(metadata.file, false), root.getPath(), metadata, false));
+			}
+			return result;
+		}
+
+        List<File> children = new ArrayList<File>();
+        listFilesRecursively(root, children);
+
         if (children.isEmpty()) {
             return result;
         }
@@ -30,6 +30,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.http.Header;
@@ -67,6 +68,7 @@ import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.net.Uri;
 import android.os.Looper;
 import android.util.Log;
 
@@ -104,6 +106,9 @@ import github.popeen.dsub.service.ssl.TrustSelfSignedStrategy;
 import github.popeen.dsub.util.BackgroundTask;
 import github.popeen.dsub.util.Pair;
 import github.popeen.dsub.util.SilentBackgroundTask;
+import github.popeen.dsub.util.SingleFlight;
+import github.popeen.dsub.util.CircuitBreaker;
+import github.popeen.dsub.util.RetryPolicy;
 import github.popeen.dsub.util.Constants;
 import github.popeen.dsub.util.FileUtil;
 import github.popeen.dsub.util.ProgressListener;
@@ -128,9 +133,13 @@ public class RESTMusicService implements MusicService {
     // Allow 20 seconds extra timeout per MB offset.
     private static final double TIMEOUT_MILLIS_PER_OFFSET_BYTE = 20000.0 / 1000000.0;
 
-    private static final int HTTP_REQUEST_MAX_ATTEMPTS = 5;
+    private static final RetryPolicy RETRY_POLICY = new RetryPolicy(5, 1000L, 16000L);
     private static final long REDIRECTION_CHECK_INTERVAL_MILLIS = 60L * 60L * 1000L;
 
+    // Shared by every instance so the UI, Android Auto and background refreshes can all join the same request
+    // Each result is the parsed directory along with a digest of the raw response, for refreshes to compare against
+    private static final SingleFlight<DirectoryResponse> directoryRequests = new SingleFlight<DirectoryResponse>();
+
     private final DefaultHttpClient httpClient;
     private long redirectionLastChecked;
     private int redirectionNetworkType = -1;
@@ -253,18 +262,7 @@ public class RESTMusicService implements MusicService {
 
     @Override
     public MusicDirectory getMusicDirectory(String id, String name, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
-		SharedPreferences prefs = Util.getPreferences(context);
-		String cacheLocn = prefs.getString(Constants.PREFERENCES_KEY_CACHE_LOCATION, null);
-		if(cacheLocn != null && id.indexOf(cacheLocn) != -1) {
-			String search = Util.parseOfflineIDSearch(context, id, cacheLocn);
-			SearchCritera critera = new SearchCritera(search, 1, 1, 0);
-			SearchResult result = searchNew(critera, context, progressListener);
-			if(result.getArtists().size() == 1) {
-				id = result.getArtists().get(0).getId();
-			} else if(result.getAlbums().size() == 1) {
-				id = result.getAlbums().get(0).getId();
-			}
-		}
+		id = resolveOfflineId(id, context, progressListener);
 
 		MusicDirectory dir = null;
 		int index, start = 0;
@@ -288,35 +286,147 @@ public class RESTMusicService implements MusicService {
 		return dir;
     }
 
-	private MusicDirectory getMusicDirectoryImpl(String id, String name, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
-		Reader reader = getReader(context, progressListener, "getMusicDirectory", null, "id", id);
-		try {
-			return new MusicDirectoryParser(context, getInstance(context)).parse(name, reader, progressListener);
-		} finally {
-			Util.close(reader);
+	/**
+	 * Ids made while offline point at the cache location, look up the server's id for them
+	 */
+	private String resolveOfflineId(String id, Context context, ProgressListener progressListener) throws Exception {
+		SharedPreferences prefs = Util.getPreferences(context);
+		String cacheLocn = prefs.getString(Constants.PREFERENCES_KEY_CACHE_LOCATION, null);
+		if(cacheLocn != null && id.indexOf(cacheLocn) != -1) {
+			String search = Util.parseOfflineIDSearch(context, id, cacheLocn);
+			SearchCritera critera = new SearchCritera(search, 1, 1, 0);
+			SearchResult result = searchNew(critera, context, progressListener);
+			if(result.getArtists().size() == 1) {
+				id = result.getArtists().get(0).getId();
+			} else if(result.getAlbums().size() == 1) {
+				id = result.getAlbums().get(0).getId();
+			}
 		}
+		return id;
+	}
+
+	private MusicDirectory getMusicDirectoryImpl(String id, String name, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+		return getDirectoryCoalesced("getMusicDirectory", id, name, context, progressListener).getDirectory();
 	}
 
 	@Override
 	public MusicDirectory getArtist(String id, String name, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
-		Reader reader = getReader(context, progressListener, "getArtist", null, "id", id);
-		try {
-			return new MusicDirectoryParser(context, getInstance(context)).parse(name, reader, progressListener);
-		} finally {
-			Util.close(reader);
-		}
+		return getDirectoryCoalesced("getArtist", id, name, context, progressListener).getDirectory();
 	}
 
 	@Override
 	public MusicDirectory getAlbum(String id, String name, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
-		Reader reader = getReader(context, progressListener, "getAlbum", null, "id", id);
-		try {
-			return new MusicDirectoryParser(context, getInstance(context)).parse(name, reader, progressListener);
-		} finally {
-			Util.close(reader);
+		return getDirectoryCoalesced("getAlbum", id, name, context, progressListener).getDirectory();
+	}
+
+	private DirectoryResponse getDirectoryCoalesced(final String method, final String id, final String name, final Context context, final ProgressListener progressListener) throws Exception {
+		final int instance = getInstance(context);
+		if(progressListener != null) {
+			progressListener.updateProgress(R.string.service_connecting);
+		}
+
+		// Name fills in the artist of entries missing one.  The request itself belongs to nobody in particular, so
+		// no one caller's progress or cancelling is tied to it.
+		return directoryRequests.execute(instance + ":" + method + ":" + id + ":" + name, new Callable<DirectoryResponse>() {
+			@Override
+			public DirectoryResponse call() throws Exception {
+				Reader reader = getJsonReader(context, null, method, null, "id", id);
+				try {
+					return new DirectoryResponse(context, instance, name, readFully(reader));
+				} finally {
+					Util.close(reader);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Used to refresh an already cached directory.  Goes through the same in flight requests as loading it, and if the
+	 * digest of the raw response matches knownDigest it isn't parsed at all and null is returned along with the digest.
+	 * @param method getMusicDirectory, getArtist or getAlbum
+	 */
+	public Pair<MusicDirectory, String> getDirectoryIfChanged(String method, String id, String name, String knownDigest, Context context) throws Exception {
+		// Multiple folders merged into one directory are hashed as a whole
+		String[] ids;
+		if("getMusicDirectory".equals(method)) {
+			ids = resolveOfflineId(id, context, null).split(";");
+		} else {
+			ids = new String[] {id};
+		}
+
+		List<DirectoryResponse> responses = new ArrayList<DirectoryResponse>();
+		StringBuilder digests = new StringBuilder();
+		for(String part: ids) {
+			DirectoryResponse response = getDirectoryCoalesced(method, part, name, context, null);
+			responses.add(response);
+			digests.append(response.digest);
+		}
+
+		String digest = ids.length == 1 ? digests.toString() : Util.md5Hex(digests.toString());
+		if(digest.equals(knownDigest)) {
+			return new Pair<>(null, digest);
+		}
+
+		MusicDirectory dir = null;
+		for(DirectoryResponse response: responses) {
+			if(dir == null) {
+				dir = response.getDirectory();
+			} else {
+				dir.addChildren(response.getDirectory().getChildren());
+			}
+		}
+		return new Pair<>(dir, digest);
+	}
+
+	private static String readFully(Reader reader) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		char[] buffer = new char[8192];
+		int n;
+		while((n = reader.read(buffer)) != -1) {
+			builder.append(buffer, 0, n);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Raw response to a directory request shared by everyone who asked for it.  Only parsed once someone actually needs
+	 * the directory, a refresh that finds the digest unchanged never does.
+	 */
+	private static class DirectoryResponse {
+		private final Context context;
+		private final int instance;
+		private final String name;
+		private final String digest;
+		private String body;
+		private MusicDirectory dir;
+
+		public DirectoryResponse(Context context, int instance, String name, String body) {
+			this.context = context;
+			this.instance = instance;
+			this.name = name;
+			this.body = body;
+			digest = Util.md5Hex(body);
+		}
+
+		/**
+		 * Callers sort and append to the list they get back, so each one gets its own
+		 */
+		public synchronized MusicDirectory getDirectory() throws Exception {
+			if(dir == null) {
+				dir = new MusicDirectoryParser(context, instance).parse(name, new StringReader(body), null);
+				body = null;
+			}
+			return dir.copy();
 		}
 	}
 
+	public static long getDeduplicatedRequestCount() {
+		return directoryRequests.getDeduplicatedCount();
+	}
+	public static long getExecutedRequestCount() {
+		return directoryRequests.getExecutedCount();
+	}
+
 	@Override
     public SearchResult search(SearchCritera critera, Context context, ProgressListener progressListener) throws Exception {
         try {
@@ -378,7 +488,7 @@ public class RESTMusicService implements MusicService {
         HttpParams params = new BasicHttpParams();
         HttpConnectionParams.setSoTimeout(params, SOCKET_READ_TIMEOUT_GET_PLAYLIST);
 
-        Reader reader = getReader(context, progressListener, "getPlaylist", params, "id", id);
+        Reader reader = getJsonReader(context, progressListener, "getPlaylist", params, "id", id);
         try {
 			return new PlaylistParser(context, getInstance(context)).parse(reader, progressListener);
         } finally {
@@ -571,7 +681,7 @@ public class RESTMusicService implements MusicService {
 			method = "getAlbumList";
 		}
 
-        Reader reader = getReader(context, progressListener, method, null, names, values, true);
+        Reader reader = getJsonReader(context, progressListener, method, null, names, values, true);
         try {
             return new EntryListParser(context, getInstance(context)).parse(reader, progressListener);
         } finally {
@@ -637,7 +747,7 @@ public class RESTMusicService implements MusicService {
 			method = "getAlbumList";
 		}
 
-		Reader reader = getReader(context, progressListener, method, null, names, values, true);
+		Reader reader = getJsonReader(context, progressListener, method, null, names, values, true);
 		try {
 			return new EntryListParser(context, instance).parse(reader, progressListener);
 		} finally {
@@ -673,7 +783,7 @@ public class RESTMusicService implements MusicService {
 				method = "getNewaddedSongs";
 		}
 
-        Reader reader = getReader(context, progressListener, method, null, names, values, true);
+        Reader reader = getJsonReader(context, progressListener, method, null, names, values, true);
         try {
             return new EntryListParser(context, getInstance(context)).parse(reader, progressListener);
         } finally {
@@ -712,7 +822,7 @@ public class RESTMusicService implements MusicService {
 			}
 		}
 
-		Reader reader = getReader(context, progressListener, method, null, names, values);
+		Reader reader = getJsonReader(context, progressListener, method, null, names, values, false);
 		try {
 			return new RandomSongsParser(context, instance).parse(reader, progressListener);
 		} finally {
@@ -746,7 +856,7 @@ public class RESTMusicService implements MusicService {
 			method = "getStarred";
 		}
 
-        Reader reader = getReader(context, progressListener, method, null, names, values, true);
+        Reader reader = getJsonReader(context, progressListener, method, null, names, values, true);
         try {
             return new StarredListParser(context, instance).parse(reader, progressListener);
         } finally {
@@ -798,7 +908,7 @@ public class RESTMusicService implements MusicService {
 			values.add(endYear);
 		}
 
-        Reader reader = getReader(context, progressListener, "getRandomSongs", params, names, values);
+        Reader reader = getJsonReader(context, progressListener, "getRandomSongs", params, names, values, false);
         try {
             return new RandomSongsParser(context, getInstance(context)).parse(reader, progressListener);
         } finally {
@@ -888,6 +998,10 @@ public class RESTMusicService implements MusicService {
 
     @Override
     public HttpResponse getDownloadInputStream(Context context, MusicDirectory.Entry song, long offset, int maxBitrate, SilentBackgroundTask task) throws Exception {
+        return getDownloadInputStream(context, song, offset, -1, maxBitrate, task);
+    }
+    @Override
+    public HttpResponse getDownloadInputStream(Context context, MusicDirectory.Entry song, long offset, long end, int maxBitrate, SilentBackgroundTask task) throws Exception {
 
         String url = getRestUrl(context, "stream");
 
@@ -898,9 +1012,11 @@ public class RESTMusicService implements MusicService {
         int timeout = (int) (SOCKET_READ_TIMEOUT_DOWNLOAD + offset * TIMEOUT_MILLIS_PER_OFFSET_BYTE);
         HttpConnectionParams.setSoTimeout(params, timeout);
 
-        // Add "Range" header if offset is given.
+        // Add "Range" header if offset or end is given.  End is inclusive, same as the header.
         List<Header> headers = new ArrayList<Header>();
-        if (offset > 0) {
+        if (end >= 0) {
+            headers.add(new BasicHeader("Range", "bytes=" + offset + "-" + end));
+        } else if (offset > 0) {
             headers.add(new BasicHeader("Range", "bytes=" + offset + "-"));
         }
 
@@ -1281,7 +1397,7 @@ public class RESTMusicService implements MusicService {
 			}
 		}
 
-		Reader reader = getReader(context, progressListener, "getSongsByGenre", params, parameterNames, parameterValues, true);
+		Reader reader = getJsonReader(context, progressListener, "getSongsByGenre", params, parameterNames, parameterValues, true);
 		try {
 			return new RandomSongsParser(context, instance).parse(reader, progressListener);
 		} finally {
@@ -1899,12 +2015,30 @@ public class RESTMusicService implements MusicService {
 	}
     private Reader getReader(Context context, ProgressListener progressListener, String method,
                              HttpParams requestParams, List<String> parameterNames, List<Object> parameterValues, boolean throwErrors) throws Exception {
+		return getReader(context, progressListener, method, requestParams, parameterNames, parameterValues, throwErrors, false);
+	}
+
+	// Only for calls whose parser also understands JSON, the server can still answer with XML
+	private Reader getJsonReader(Context context, ProgressListener progressListener, String method,
+								 HttpParams requestParams, String parameterName, Object parameterValue) throws Exception {
+		return getJsonReader(context, progressListener, method, requestParams, Arrays.asList(parameterName), Arrays.<Object>asList(parameterValue), false);
+	}
+	private Reader getJsonReader(Context context, ProgressListener progressListener, String method,
+								 HttpParams requestParams, List<String> parameterNames, List<Object> parameterValues, boolean throwErrors) throws Exception {
+		return getReader(context, progressListener, method, requestParams, parameterNames, parameterValues, throwErrors, ServerInfo.canUseJson(context, getInstance(context)));
+	}
+
+    private Reader getReader(Context context, ProgressListener progressListener, String method,
+                             HttpParams requestParams, List<String> parameterNames, List<Object> parameterValues, boolean throwErrors, boolean json) throws Exception {
 
         if (progressListener != null) {
             progressListener.updateProgress(R.string.service_connecting);
         }
 
         String url = getRestUrl(context, method);
+		if(json) {
+			url += "&f=json";
+		}
         return getReaderForURL(context, url, requestParams, parameterNames, parameterValues, progressListener, throwErrors);
     }
 
@@ -1975,9 +2109,11 @@ public class RESTMusicService implements MusicService {
 
 		SharedPreferences prefs = Util.getPreferences(context);
 		int networkTimeout = Integer.parseInt(prefs.getString(Constants.PREFERENCES_KEY_NETWORK_TIMEOUT, "15000"));
-		HttpParams newParams = httpClient.getParams();
-		HttpConnectionParams.setSoTimeout(newParams, networkTimeout);
-		httpClient.setParams(newParams);
+
+		CircuitBreaker breaker = CircuitBreaker.getInstance(getServerKey(url));
+		if(!breaker.allowRequest()) {
+			throw new IOException(context.getResources().getString(R.string.music_service_unavailable));
+		}
 
         final AtomicReference<Boolean> isCancelled = new AtomicReference<Boolean>(false);
         int attempts = 0;
@@ -2019,9 +2155,7 @@ public class RESTMusicService implements MusicService {
                 ((HttpPost) request).setEntity(new UrlEncodedFormEntity(params, Constants.UTF_8));
             }
 
-            if (requestParams != null) {
-                request.setParams(requestParams);
-            }
+            request.setParams(getAttemptParams(requestParams, networkTimeout, attempts));
 
             if (headers != null) {
                 for (Header header : headers) {
@@ -2042,37 +2176,70 @@ public class RESTMusicService implements MusicService {
 
             try {
                 HttpResponse response = httpClient.execute(request, httpContext);
+                int status = response.getStatusLine().getStatusCode();
+                if (status >= 500 || status == 429) {
+                    // Answering, but a server stuck on 502/503 is exactly what the breaker is for
+                    breaker.recordFailure();
+                } else {
+                    breaker.recordSuccess();
+                }
                 detectRedirect(originalUrl, context, httpContext);
                 return response;
             } catch (IOException x) {
                 request.abort();
-                if (attempts >= HTTP_REQUEST_MAX_ATTEMPTS || isCancelled.get() || throwErrors) {
+                if (isCancelled.get()) {
+                    breaker.recordCancelled();
+                    throw x;
+                }
+
+                breaker.recordFailure();
+                if (!RETRY_POLICY.shouldRetry(attempts) || throwErrors || !breaker.allowRequest()) {
                     throw x;
                 }
                 if (progressListener != null) {
-                    String msg = context.getResources().getString(R.string.music_service_retry, attempts, HTTP_REQUEST_MAX_ATTEMPTS - 1);
+                    String msg = context.getResources().getString(R.string.music_service_retry, attempts, RETRY_POLICY.getMaxAttempts() - 1);
                     progressListener.updateProgress(msg);
                 }
-                Log.w(TAG, "Got IOException " + x + " (" + attempts + "), will retry");
-                increaseTimeouts(requestParams);
-				Thread.sleep(2000L);
-            }
-        }
-    }
 
-    private void increaseTimeouts(HttpParams requestParams) {
-        if (requestParams != null) {
-            int connectTimeout = HttpConnectionParams.getConnectionTimeout(requestParams);
-            if (connectTimeout != 0) {
-                HttpConnectionParams.setConnectionTimeout(requestParams, (int) (connectTimeout * 1.3F));
-            }
-            int readTimeout = HttpConnectionParams.getSoTimeout(requestParams);
-            if (readTimeout != 0) {
-                HttpConnectionParams.setSoTimeout(requestParams, (int) (readTimeout * 1.5F));
+                long delay = RETRY_POLICY.getDelay(attempts);
+                Log.w(TAG, "Got IOException " + x + " (" + attempts + "), will retry in " + delay + "ms");
+				Thread.sleep(delay);
+            } catch (RuntimeException x) {
+                // Not the server's fault, but whatever it is shouldn't keep holding the probe slot
+                request.abort();
+                breaker.recordCancelled();
+                throw x;
             }
         }
     }
 
+	/**
+	 * Build the params for a single attempt without touching the shared client or the caller's params.  Each retry
+	 * gets a bit longer to connect and read.
+	 */
+	private HttpParams getAttemptParams(HttpParams requestParams, int networkTimeout, int attempts) {
+		int connectTimeout = SOCKET_CONNECT_TIMEOUT;
+		int readTimeout = networkTimeout;
+		if (requestParams != null) {
+			if (HttpConnectionParams.getConnectionTimeout(requestParams) != 0) {
+				connectTimeout = HttpConnectionParams.getConnectionTimeout(requestParams);
+			}
+			if (HttpConnectionParams.getSoTimeout(requestParams) != 0) {
+				readTimeout = HttpConnectionParams.getSoTimeout(requestParams);
+			}
+		}
+
+		HttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, (int) (connectTimeout * Math.pow(1.3, attempts - 1)));
+		HttpConnectionParams.setSoTimeout(params, (int) (readTimeout * Math.pow(1.5, attempts - 1)));
+		return params;
+	}
+
+	private String getServerKey(String url) {
+		Uri uri = Uri.parse(url);
+		return uri.getScheme() + "://" + uri.getEncodedAuthority();
+	}
+
     private void detectRedirect(String originalUrl, Context context, HttpContext httpContext) throws Exception {
         HttpUriRequest request = (HttpUriRequest) httpContext.getAttribute(ExecutionContext.HTTP_REQUEST);
         HttpHost host = (HttpHost) httpContext.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
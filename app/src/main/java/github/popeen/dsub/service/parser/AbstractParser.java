@@ -18,11 +18,18 @@
  */
 package github.popeen.dsub.service.parser;
 
+import java.io.BufferedReader;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.xmlpull.v1.XmlPullParser;
 
 import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 import android.util.Xml;
 import github.popeen.dsub.R;
@@ -41,9 +48,20 @@ public abstract class AbstractParser {
 	private static final String MADSONIC = "madsonic";
 	private static final String AMPACHE = "ampache";
 
+	// How far into the response to look for the first character when working out whether it is JSON or XML
+	private static final int FORMAT_DETECT_LIMIT = 1024;
+	// Returned by parseInt/parseLong when there is no usable number
+	protected static final int NO_INT = Integer.MIN_VALUE;
+	protected static final long NO_LONG = Long.MIN_VALUE;
+	private static final int MAX_INTERNED = 2048;
+
     protected final Context context;
 	protected final int instance;
     private XmlPullParser parser;
+	private JsonReader jsonReader;
+	private JsonAttributes attributes;
+	private final List<JsonAttributes> attributeStack = new ArrayList<JsonAttributes>();
+	private final Map<String, String> internTable = new HashMap<String, String>();
     private boolean rootElementFound;
 
     public AbstractParser(Context context, int instance) {
@@ -98,26 +116,51 @@ public abstract class AbstractParser {
     }
 
     protected String get(String name) {
+		if(jsonReader != null) {
+			return attributes == null ? null : attributes.get(name);
+		}
         return parser.getAttributeValue(null, name);
     }
 
+	// Walk the current element's attributes in one pass instead of looking each one up by name
+	protected int getAttributeCount() {
+		if(jsonReader != null) {
+			return attributes == null ? 0 : attributes.names.size();
+		}
+		return parser.getAttributeCount();
+	}
+	protected String getAttributeName(int index) {
+		if(jsonReader != null) {
+			return attributes.names.get(index);
+		}
+		return parser.getAttributeName(index);
+	}
+	protected String getAttributeValue(int index) {
+		if(jsonReader != null) {
+			return attributes.values.get(index);
+		}
+		return parser.getAttributeValue(index);
+	}
+
     protected boolean getBoolean(String name) {
         return "true".equals(get(name));
     }
 
     protected Integer getInteger(String name) {
         String s = get(name);
-        try {
-            return (s == null || "".equals(s)) ? null : Integer.valueOf(s);
-        } catch(Exception e) {
-            Log.w(TAG, "Failed to parse " + s + " into integer");
-            return null;
-        }
+		int value = parseInt(s);
+		if(value == NO_INT) {
+			if(s != null && s.length() > 0) {
+				Log.w(TAG, "Failed to parse " + s + " into integer");
+			}
+			return null;
+		}
+		return value;
     }
 
     protected Long getLong(String name) {
-        String s = get(name);
-        return s == null ? null : Long.valueOf(s);
+        long value = parseLong(get(name));
+		return value == NO_LONG ? null : value;
     }
 
     protected Float getFloat(String name) {
@@ -125,12 +168,172 @@ public abstract class AbstractParser {
         return s == null ? null : Float.valueOf(s);
     }
 
+	/**
+	 * Parse a whole number without throwing or allocating
+	 * @return NO_INT if the string is missing, empty, not a number or out of range
+	 */
+	protected static int parseInt(String s) {
+		long value = parseLong(s);
+		if(value == NO_LONG || value > Integer.MAX_VALUE || value <= Integer.MIN_VALUE) {
+			return NO_INT;
+		}
+		return (int) value;
+	}
+	protected static long parseLong(String s) {
+		if(s == null) {
+			return NO_LONG;
+		}
+
+		int length = s.length();
+		int i = 0;
+		boolean negative = false;
+		if(length > 0 && s.charAt(0) == '-') {
+			negative = true;
+			i++;
+		}
+		if(i == length || length - i > 18) {
+			return NO_LONG;
+		}
+
+		long value = 0;
+		for(; i < length; i++) {
+			char c = s.charAt(i);
+			if(c < '0' || c > '9') {
+				return NO_LONG;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Share one copy of values that repeat across a response, like suffix, content type, genre and artist
+	 */
+	protected String intern(String value) {
+		if(value == null) {
+			return null;
+		}
+
+		String existing = internTable.get(value);
+		if(existing != null) {
+			return existing;
+		} else if(internTable.size() < MAX_INTERNED) {
+			internTable.put(value, value);
+		}
+		return value;
+	}
+
     protected void init(Reader reader) throws Exception {
         parser = Xml.newPullParser();
         parser.setInput(reader);
+		jsonReader = null;
         rootElementFound = false;
     }
 
+	/**
+	 * Set up for whatever format the server actually sent back.  Servers that don't understand f=json just ignore it,
+	 * so this can't rely on what was asked for.
+	 * @return true if the response is JSON and should be read with parseJson
+	 */
+	protected boolean initResponse(Reader reader) throws Exception {
+		BufferedReader buffered = new BufferedReader(reader);
+		buffered.mark(FORMAT_DETECT_LIMIT);
+		int c;
+		int read = 0;
+		do {
+			c = buffered.read();
+			read++;
+		} while(c != -1 && Character.isWhitespace(c) && read < FORMAT_DETECT_LIMIT);
+		buffered.reset();
+
+		if(c == '{') {
+			parser = null;
+			jsonReader = new JsonReader(buffered);
+			rootElementFound = false;
+			return true;
+		} else {
+			init(buffered);
+			return false;
+		}
+	}
+
+	/**
+	 * Stream through a JSON response, calling the handler for every object in it.  Each object is reported once all
+	 * of its own values have been read, so after any objects nested inside it.  Values are available through get()
+	 * the same as XML attributes.  The response itself is depth 0, so the list or directory asked for is depth 1 and
+	 * the entries in it are depth 2.  Errors are handled here the same as in the XML parsers.
+	 */
+	protected void parseJson(JsonElementHandler handler) throws Exception {
+		jsonReader.beginObject();
+		while(jsonReader.hasNext()) {
+			String name = jsonReader.nextName();
+			if((SUBSONIC_RESPONSE.equals(name) || MADSONIC_RESPONSE.equals(name)) && jsonReader.peek() == JsonToken.BEGIN_OBJECT) {
+				readJsonObject(name, 0, handler);
+			} else {
+				jsonReader.skipValue();
+			}
+		}
+		jsonReader.endObject();
+	}
+
+	private void readJsonValue(String name, int depth, JsonElementHandler handler) throws Exception {
+		switch(jsonReader.peek()) {
+			case BEGIN_OBJECT:
+				readJsonObject(name, depth, handler);
+				break;
+			case BEGIN_ARRAY:
+				// Arrays are just how JSON repeats an element, so they don't add a level
+				jsonReader.beginArray();
+				while(jsonReader.hasNext()) {
+					readJsonValue(name, depth, handler);
+				}
+				jsonReader.endArray();
+				break;
+			default:
+				jsonReader.skipValue();
+				break;
+		}
+	}
+
+	private void readJsonObject(String name, int depth, JsonElementHandler handler) throws Exception {
+		// Nested objects are read before this one is reported, so keep one set of values per depth and reuse it
+		while(attributeStack.size() <= depth) {
+			attributeStack.add(new JsonAttributes());
+		}
+		JsonAttributes values = attributeStack.get(depth);
+		values.clear();
+
+		jsonReader.beginObject();
+		while(jsonReader.hasNext()) {
+			String key = jsonReader.nextName();
+			switch(jsonReader.peek()) {
+				case BEGIN_OBJECT:
+				case BEGIN_ARRAY:
+					readJsonValue(key, depth + 1, handler);
+					break;
+				case NULL:
+					jsonReader.nextNull();
+					break;
+				case BOOLEAN:
+					values.add(key, jsonReader.nextBoolean() ? "true" : "false");
+					break;
+				default:
+					values.add(key, jsonReader.nextString());
+					break;
+			}
+		}
+		jsonReader.endObject();
+
+		attributes = values;
+		if(depth == 0) {
+			readRootElement(name);
+		} else if(depth == 1 && "error".equals(name)) {
+			handleError();
+		} else {
+			handler.onElement(name, depth);
+		}
+	}
+
     protected int nextParseEvent() throws Exception {
 		try {
 			return parser.next();
@@ -147,27 +350,31 @@ public abstract class AbstractParser {
     protected String getElementName() {
         String name = parser.getName();
         if (SUBSONIC_RESPONSE.equals(name) || MADSONIC_RESPONSE.equals(name)) {
-            rootElementFound = true;
-            String version = get("version");
-            if (version != null) {
-            	ServerInfo server = new ServerInfo();
-            	server.setRestVersion(new Version(version));
-
-            	if(MADSONIC.equals(get("type")) || MADSONIC_RESPONSE.equals(name)) {
-					server.setRestType(ServerInfo.TYPE_MADSONIC);
-            	} if(AMPACHE.equals(get("type"))) {
-                    server.setRestType(ServerInfo.TYPE_AMPACHE);
-                } else if(SUBSONIC.equals(get("type")) && server.checkServerVersion(context, "1.13")) {
-                    // Oh am I going to regret this
-                    server.setRestType(ServerInfo.TYPE_MADSONIC);
-                    server.setRestVersion(new Version("2.0.0"));
-                }
-            	server.saveServerInfo(context, instance);
-            }
+			readRootElement(name);
         }
         return name;
     }
 
+	private void readRootElement(String name) {
+		rootElementFound = true;
+		String version = get("version");
+		if (version != null) {
+			ServerInfo server = new ServerInfo();
+			server.setRestVersion(new Version(version));
+
+			if(MADSONIC.equals(get("type")) || MADSONIC_RESPONSE.equals(name)) {
+				server.setRestType(ServerInfo.TYPE_MADSONIC);
+			} if(AMPACHE.equals(get("type"))) {
+				server.setRestType(ServerInfo.TYPE_AMPACHE);
+			} else if(SUBSONIC.equals(get("type")) && server.checkServerVersion(context, "1.13")) {
+				// Oh am I going to regret this
+				server.setRestType(ServerInfo.TYPE_MADSONIC);
+				server.setRestVersion(new Version("2.0.0"));
+			}
+			server.saveServerInfo(context, instance);
+		}
+	}
+
     protected void validate() throws Exception {
         if (!rootElementFound) {
 			if(ServerInfo.isMadsonic6(context, instance)) {
@@ -178,4 +385,32 @@ public abstract class AbstractParser {
             throw new Exception(context.getResources().getString(R.string.background_task_parse_error));
         }
     }
+
+	protected interface JsonElementHandler {
+		void onElement(String name, int depth) throws Exception;
+	}
+
+	private static class JsonAttributes {
+		private final List<String> names = new ArrayList<String>();
+		private final List<String> values = new ArrayList<String>();
+
+		private void add(String name, String value) {
+			names.add(name);
+			values.add(value);
+		}
+
+		private String get(String name) {
+			for(int i = 0; i < names.size(); i++) {
+				if(name.equals(names.get(i))) {
+					return values.get(i);
+				}
+			}
+			return null;
+		}
+
+		private void clear() {
+			names.clear();
+			values.clear();
+		}
+	}
 }
@@ -36,31 +36,47 @@ public class EntryListParser extends MusicDirectoryEntryParser {
     }
 
     public MusicDirectory parse(Reader reader, ProgressListener progressListener) throws Exception {
-        init(reader);
-
-        MusicDirectory dir = new MusicDirectory();
-        int eventType;
-        do {
-            eventType = nextParseEvent();
-            if (eventType == XmlPullParser.START_TAG) {
-                String name = getElementName();
-                if ("album".equals(name)) {
-					MusicDirectory.Entry entry = parseEntry("");
-					if(get("isDir") == null) {
-						entry.setDirectory(true);
+        final MusicDirectory dir = new MusicDirectory();
+		initPartialResults(progressListener);
+		if(initResponse(reader)) {
+			parseJson(new JsonElementHandler() {
+				@Override
+				public void onElement(String name, int depth) throws Exception {
+					if(depth == 2) {
+						parseElement(dir, name);
+					}
+				}
+			});
+		} else {
+			int eventType;
+			do {
+				eventType = nextParseEvent();
+				if (eventType == XmlPullParser.START_TAG) {
+					String name = getElementName();
+					if ("error".equals(name)) {
+						handleError();
+					} else {
+						parseElement(dir, name);
 					}
-                    dir.addChild(entry);
-                } else if ("song".equals(name)) {
-                    MusicDirectory.Entry entry = parseEntry("");
-                    dir.addChild(entry);
-                } else if ("error".equals(name)) {
-                    handleError();
-                }
-            }
-        } while (eventType != XmlPullParser.END_DOCUMENT);
+				}
+			} while (eventType != XmlPullParser.END_DOCUMENT);
+		}
 
         validate();
 
         return dir;
     }
+
+	private void parseElement(MusicDirectory dir, String name) {
+		if ("album".equals(name)) {
+			MusicDirectory.Entry entry = parseEntry("");
+			if(get("isDir") == null) {
+				entry.setDirectory(true);
+			}
+			addChild(dir, entry);
+		} else if ("song".equals(name)) {
+			MusicDirectory.Entry entry = parseEntry("");
+			addChild(dir, entry);
+		}
+	}
 }
\ No newline at end of file
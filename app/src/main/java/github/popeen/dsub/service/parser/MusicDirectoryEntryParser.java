@@ -22,63 +22,178 @@ import android.content.Context;
 
 import github.popeen.dsub.domain.Bookmark;
 import github.popeen.dsub.domain.MusicDirectory;
+import github.popeen.dsub.util.PartialResultListener;
+import github.popeen.dsub.util.ProgressListener;
+
+import java.util.ArrayList;
 
 /**
  * @author Sindre Mehus
  */
 public class MusicDirectoryEntryParser extends AbstractParser {
+	// Enough for the first screen, after that report each time the list doubles so copying stays linear
+	private static final int FIRST_PARTIAL_RESULT = 100;
+
+	private PartialResultListener partialResultListener;
+	private int nextPartialResult;
+
     public MusicDirectoryEntryParser(Context context, int instance) {
         super(context, instance);
     }
 
+	protected void initPartialResults(ProgressListener progressListener) {
+		if(progressListener instanceof PartialResultListener) {
+			partialResultListener = (PartialResultListener) progressListener;
+		} else {
+			partialResultListener = null;
+		}
+		nextPartialResult = FIRST_PARTIAL_RESULT;
+	}
+
+	protected void addChild(MusicDirectory dir, MusicDirectory.Entry entry) {
+		dir.addChild(entry);
+
+		if(partialResultListener != null && dir.getChildrenSize() >= nextPartialResult) {
+			partialResultListener.onPartialResult(new ArrayList<MusicDirectory.Entry>(dir.getChildren()));
+			nextPartialResult *= 2;
+		}
+	}
+
     protected MusicDirectory.Entry parseEntry(String artist) {
         MusicDirectory.Entry entry = new MusicDirectory.Entry();
-        entry.setId(get("id"));
-		entry.setParent(get("parent"));
-		entry.setArtistId(get("artistId"));
-        entry.setTitle(get("title"));
+		String name = null;
+		String type = null;
+		int bookmark = NO_INT;
+
+		// Single pass over whatever the server sent instead of looking up every attribute we know about
+		int count = getAttributeCount();
+		for(int i = 0; i < count; i++) {
+			String value = getAttributeValue(i);
+			switch(getAttributeName(i)) {
+				case "id":
+					entry.setId(value);
+					break;
+				case "parent":
+					entry.setParent(intern(value));
+					break;
+				case "artistId":
+					entry.setArtistId(intern(value));
+					break;
+				case "albumId":
+					entry.setAlbumId(intern(value));
+					break;
+				case "title":
+					entry.setTitle(value);
+					break;
+				case "name":
+					name = value;
+					break;
+				case "isDir":
+					entry.setDirectory("true".equals(value));
+					break;
+				case "coverArt":
+					entry.setCoverArt(intern(value));
+					break;
+				case "artist":
+					entry.setArtist(intern(value));
+					break;
+				case "album":
+					entry.setAlbum(intern(value));
+					break;
+				case "genre":
+					entry.setGenre(intern(value));
+					break;
+				case "starred":
+					entry.setStarred(value != null);
+					break;
+				case "year":
+					entry.setYear(toInteger(parseInt(value)));
+					break;
+				case "userRating":
+					entry.setRating(toInteger(parseInt(value)));
+					break;
+				case "track":
+					entry.setTrack(toInteger(parseInt(value)));
+					break;
+				case "discNumber":
+					entry.setDiscNumber(toInteger(parseInt(value)));
+					break;
+				case "duration":
+					entry.setDuration(toInteger(parseInt(value)));
+					break;
+				case "bitRate":
+					entry.setBitRate(toInteger(parseInt(value)));
+					break;
+				case "size":
+					long size = parseLong(value);
+					entry.setSize(size == NO_LONG ? null : size);
+					break;
+				case "contentType":
+					entry.setContentType(intern(value));
+					break;
+				case "suffix":
+					entry.setSuffix(intern(value));
+					break;
+				case "transcodedContentType":
+					entry.setTranscodedContentType(intern(value));
+					break;
+				case "transcodedSuffix":
+					entry.setTranscodedSuffix(intern(value));
+					break;
+				case "path":
+					entry.setPath(value);
+					break;
+				case "isVideo":
+					entry.setVideo("true".equals(value));
+					break;
+				case "bookmarkPosition":
+					bookmark = parseInt(value);
+					break;
+				case "type":
+					type = value;
+					break;
+			}
+		}
+
 		if(entry.getTitle() == null) {
-			entry.setTitle(get("name"));
+			entry.setTitle(name);
 		}
-        entry.setDirectory(getBoolean("isDir"));
-        entry.setCoverArt(get("coverArt"));
-        entry.setArtist(get("artist"));
-        entry.setStarred(get("starred") != null);
-        entry.setYear(getInteger("year"));
-        entry.setGenre(get("genre"));
-		entry.setAlbum(get("album"));
-		entry.setRating(getInteger("userRating"));
 
         if (!entry.isDirectory()) {
-			entry.setAlbumId(get("albumId"));
-            entry.setTrack(getInteger("track"));
-            entry.setContentType(get("contentType"));
-            entry.setSuffix(get("suffix"));
-            entry.setTranscodedContentType(get("transcodedContentType"));
-            entry.setTranscodedSuffix(get("transcodedSuffix"));
-            entry.setSize(getLong("size"));
-            entry.setDuration(getInteger("duration"));
-            entry.setBitRate(getInteger("bitRate"));
-            entry.setPath(get("path"));
-            entry.setVideo(getBoolean("isVideo"));
-			entry.setDiscNumber(getInteger("discNumber"));
-
-			Integer bookmark = getInteger("bookmarkPosition");
-			if(bookmark != null) {
+			if(bookmark != NO_INT) {
 				entry.setBookmark(new Bookmark(bookmark));
 			}
 
-			String type = get("type");
 			if("podcast".equals(type)) {
 				entry.setType(MusicDirectory.Entry.TYPE_PODCAST);
 			} else if("audiobook".equals(type) || (entry.getGenre() != null && "audiobook".equals(entry.getGenre().toLowerCase()))) {
 				entry.setType(MusicDirectory.Entry.TYPE_AUDIO_BOOK);
 			}
-        } else if(!"".equals(artist)) {
-			entry.setPath(artist + "/" + entry.getTitle());
+        } else {
+			// Song only values, directories never had these read
+			entry.setAlbumId(null);
+			entry.setTrack(null);
+			entry.setContentType(null);
+			entry.setSuffix(null);
+			entry.setTranscodedContentType(null);
+			entry.setTranscodedSuffix(null);
+			entry.setSize(null);
+			entry.setDuration(null);
+			entry.setBitRate(null);
+			entry.setPath(null);
+			entry.setVideo(false);
+			entry.setDiscNumber(null);
+
+			if(!"".equals(artist)) {
+				entry.setPath(artist + "/" + entry.getTitle());
+			}
 		}
         return entry;
     }
+
+	private static Integer toInteger(int value) {
+		return value == NO_INT ? null : value;
+	}
 	
 	protected MusicDirectory.Entry parseArtist() {
 		MusicDirectory.Entry entry = new MusicDirectory.Entry();
@@ -43,65 +43,94 @@ public class MusicDirectoryParser extends MusicDirectoryEntryParser {
         super(context, instance);
     }
 
-    public MusicDirectory parse(String artist, Reader reader, ProgressListener progressListener) throws Exception {
-        init(reader);
-
-        MusicDirectory dir = new MusicDirectory();
-        int eventType;
-		boolean isArtist = false;
-		boolean checkForDuplicates = Util.getPreferences(context).getBoolean(Constants.PREFERENCES_KEY_RENAME_DUPLICATES, true);
-		Map<String, Entry> titleMap = new HashMap<String, Entry>();
-        do {
-            eventType = nextParseEvent();
-            if (eventType == XmlPullParser.START_TAG) {
-                String name = getElementName();
-                if ("child".equals(name) || "song".equals(name) || "video".equals(name)) {
-					Entry entry = parseEntry(artist);
-					entry.setGrandParent(dir.getParent());
-
-					// Only check for songs
-					if(checkForDuplicates && !entry.isDirectory()) {
-						// Check if duplicates
-						String disc = (entry.getDiscNumber() != null) ? Integer.toString(entry.getDiscNumber()) : "";
-						String track = (entry.getTrack() != null) ? Integer.toString(entry.getTrack()) : "";
-						String duplicateId = disc + "-" + track + "-" + entry.getTitle();
-
-						Entry duplicate = titleMap.get(duplicateId);
-						if (duplicate != null) {
-							// Check if the first already has been rebased or not
-							if (duplicate.getTitle().equals(entry.getTitle())) {
-								duplicate.rebaseTitleOffPath();
-							}
-
-							// Rebase if this is the second instance of this title found
-							entry.rebaseTitleOffPath();
-						} else {
-							titleMap.put(duplicateId, entry);
+    public MusicDirectory parse(final String artist, Reader reader, ProgressListener progressListener) throws Exception {
+        final MusicDirectory dir = new MusicDirectory();
+		final boolean checkForDuplicates = Util.getPreferences(context).getBoolean(Constants.PREFERENCES_KEY_RENAME_DUPLICATES, true);
+		final Map<String, Entry> titleMap = new HashMap<String, Entry>();
+
+		if(initResponse(reader)) {
+			parseJson(new JsonElementHandler() {
+				@Override
+				public void onElement(String name, int depth) throws Exception {
+					if(depth == 1) {
+						setDirectory(dir);
+					} else if(depth == 2 && ("child".equals(name) || "song".equals(name) || "video".equals(name) || "album".equals(name))) {
+						Entry entry = parseEntry(artist);
+						// Albums only show up as children of an artist
+						if("album".equals(name)) {
+							entry.setDirectory(true);
 						}
+						addEntry(dir, entry, checkForDuplicates, titleMap);
 					}
-
-                    dir.addChild(entry);
-                } else if ("directory".equals(name) || "artist".equals(name) || ("album".equals(name) && !isArtist)) {
-                    dir.setName(get("name"));
-					dir.setId(get("id"));
-					if(Util.isTagBrowsing(context, instance)) {
-						dir.setParent(get("artistId"));
-					} else {
-						dir.setParent(get("parent"));
+				}
+			});
+
+			// The directory itself is only read after its children
+			for(Entry entry: dir.getChildren()) {
+				entry.setGrandParent(dir.getParent());
+			}
+		} else {
+			int eventType;
+			boolean isArtist = false;
+			do {
+				eventType = nextParseEvent();
+				if (eventType == XmlPullParser.START_TAG) {
+					String name = getElementName();
+					if ("child".equals(name) || "song".equals(name) || "video".equals(name)) {
+						Entry entry = parseEntry(artist);
+						entry.setGrandParent(dir.getParent());
+						addEntry(dir, entry, checkForDuplicates, titleMap);
+					} else if ("directory".equals(name) || "artist".equals(name) || ("album".equals(name) && !isArtist)) {
+						setDirectory(dir);
+						isArtist = true;
+					} else if("album".equals(name)) {
+						Entry entry = parseEntry(artist);
+						entry.setDirectory(true);
+						dir.addChild(entry);
+					} else if ("error".equals(name)) {
+						handleError();
 					}
-					isArtist = true;
-                } else if("album".equals(name)) {
-					Entry entry = parseEntry(artist);
-					entry.setDirectory(true);
-					dir.addChild(entry);
-				} else if ("error".equals(name)) {
-                    handleError();
-                }
-            }
-        } while (eventType != XmlPullParser.END_DOCUMENT);
+				}
+			} while (eventType != XmlPullParser.END_DOCUMENT);
+		}
 
         validate();
 
         return dir;
     }
+
+	private void setDirectory(MusicDirectory dir) {
+		dir.setName(get("name"));
+		dir.setId(get("id"));
+		if(Util.isTagBrowsing(context, instance)) {
+			dir.setParent(get("artistId"));
+		} else {
+			dir.setParent(get("parent"));
+		}
+	}
+
+	private void addEntry(MusicDirectory dir, Entry entry, boolean checkForDuplicates, Map<String, Entry> titleMap) {
+		// Only check for songs
+		if(checkForDuplicates && !entry.isDirectory()) {
+			// Check if duplicates
+			String disc = (entry.getDiscNumber() != null) ? Integer.toString(entry.getDiscNumber()) : "";
+			String track = (entry.getTrack() != null) ? Integer.toString(entry.getTrack()) : "";
+			String duplicateId = disc + "-" + track + "-" + entry.getTitle();
+
+			Entry duplicate = titleMap.get(duplicateId);
+			if (duplicate != null) {
+				// Check if the first already has been rebased or not
+				if (duplicate.getTitle().equals(entry.getTitle())) {
+					duplicate.rebaseTitleOffPath();
+				}
+
+				// Rebase if this is the second instance of this title found
+				entry.rebaseTitleOffPath();
+			} else {
+				titleMap.put(duplicateId, entry);
+			}
+		}
+
+		dir.addChild(entry);
+	}
 }
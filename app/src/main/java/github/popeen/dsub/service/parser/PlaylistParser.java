@@ -36,28 +36,44 @@ public class PlaylistParser extends MusicDirectoryEntryParser {
 	}
 
     public MusicDirectory parse(Reader reader, ProgressListener progressListener) throws Exception {
-        init(reader);
-
-        MusicDirectory dir = new MusicDirectory();
-        int eventType;
-        do {
-            eventType = nextParseEvent();
-            if (eventType == XmlPullParser.START_TAG) {
-                String name = getElementName();
-                if ("entry".equals(name)) {
-                    dir.addChild(parseEntry(""));
-                } else if ("error".equals(name)) {
-                    handleError();
-                } else if ("playlist".equals(name)) {
-					dir.setName(get("name"));
-					dir.setId(get("id"));
+        final MusicDirectory dir = new MusicDirectory();
+		initPartialResults(progressListener);
+		if(initResponse(reader)) {
+			parseJson(new JsonElementHandler() {
+				@Override
+				public void onElement(String name, int depth) throws Exception {
+					// The playlist itself and then its entries
+					if(depth == 1 || depth == 2) {
+						parseElement(dir, name);
+					}
 				}
-            }
-        } while (eventType != XmlPullParser.END_DOCUMENT);
+			});
+		} else {
+			int eventType;
+			do {
+				eventType = nextParseEvent();
+				if (eventType == XmlPullParser.START_TAG) {
+					String name = getElementName();
+					if ("error".equals(name)) {
+						handleError();
+					} else {
+						parseElement(dir, name);
+					}
+				}
+			} while (eventType != XmlPullParser.END_DOCUMENT);
+		}
 
         validate();
 
         return dir;
     }
 
+	private void parseElement(MusicDirectory dir, String name) {
+		if ("entry".equals(name)) {
+			addChild(dir, parseEntry(""));
+		} else if ("playlist".equals(name)) {
+			dir.setName(get("name"));
+			dir.setId(get("id"));
+		}
+	}
 }
\ No newline at end of file
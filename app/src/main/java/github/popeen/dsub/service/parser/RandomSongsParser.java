@@ -36,25 +36,40 @@ public class RandomSongsParser extends MusicDirectoryEntryParser {
 	}
 
     public MusicDirectory parse(Reader reader, ProgressListener progressListener) throws Exception {
-        init(reader);
-
-        MusicDirectory dir = new MusicDirectory();
-        int eventType;
-        do {
-            eventType = nextParseEvent();
-            if (eventType == XmlPullParser.START_TAG) {
-                String name = getElementName();
-                if ("song".equals(name)) {
-                    dir.addChild(parseEntry(""));
-                } else if ("error".equals(name)) {
-                    handleError();
-                }
-            }
-        } while (eventType != XmlPullParser.END_DOCUMENT);
+        final MusicDirectory dir = new MusicDirectory();
+		initPartialResults(progressListener);
+		if(initResponse(reader)) {
+			parseJson(new JsonElementHandler() {
+				@Override
+				public void onElement(String name, int depth) throws Exception {
+					if(depth == 2) {
+						parseElement(dir, name);
+					}
+				}
+			});
+		} else {
+			int eventType;
+			do {
+				eventType = nextParseEvent();
+				if (eventType == XmlPullParser.START_TAG) {
+					String name = getElementName();
+					if ("error".equals(name)) {
+						handleError();
+					} else {
+						parseElement(dir, name);
+					}
+				}
+			} while (eventType != XmlPullParser.END_DOCUMENT);
+		}
 
         validate();
 
         return dir;
     }
 
+	private void parseElement(MusicDirectory dir, String name) {
+		if ("song".equals(name)) {
+			addChild(dir, parseEntry(""));
+		}
+	}
 }
\ No newline at end of file
@@ -83,7 +83,7 @@ public class MostRecentSyncAdapter extends SubsonicSyncAdapter {
 					syncedList.remove(0);
 				}
 				
-				FileUtil.serialize(context, syncedList, SyncUtil.getMostRecentSyncFile(context, instance));
+				FileUtil.serialize(context, syncedList, SyncUtil.getMostRecentSyncFile(context, instance), true);
 
 				// If there is a new album on the active server, chances are artists need to be refreshed
 				if(Util.getActiveServer(context) == instance) {
@@ -92,7 +92,7 @@ public class MostRecentSyncAdapter extends SubsonicSyncAdapter {
 
 				Notifications.showSyncNotification(context, R.string.sync_new_albums, SyncUtil.joinNames(updated));
 			} else if(firstRun) {
-				FileUtil.serialize(context, syncedList, SyncUtil.getMostRecentSyncFile(context, instance));
+				FileUtil.serialize(context, syncedList, SyncUtil.getMostRecentSyncFile(context, instance), true);
 			}
 		} catch(Exception e) {
 			Log.e(TAG, "Failed to get most recent list for " + Util.getServerName(context, instance));
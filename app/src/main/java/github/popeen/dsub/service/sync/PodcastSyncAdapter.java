@@ -107,7 +107,7 @@ public class PodcastSyncAdapter extends SubsonicSyncAdapter {
 
 			// Make sure there are is at least one change before re-syncing
 			if(updated.size() > 0) {
-				FileUtil.serialize(context, podcastList, SyncUtil.getPodcastSyncFile(context, instance));
+				FileUtil.serialize(context, podcastList, SyncUtil.getPodcastSyncFile(context, instance), true);
 				Notifications.showSyncNotification(context, R.string.sync_new_podcasts, SyncUtil.joinNames(updated), updatedId);
 			}
 		} catch(Exception e) {
@@ -0,0 +1,144 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.os.PowerManager;
+import android.util.Log;
+
+/**
+ * Token bucket shared by every background download in the process.  Only throttles while something is being streamed,
+ * or for sync downloads while the screen is on, and picks up screen and network changes from broadcasts instead of polling.
+ */
+public class BandwidthLimiter {
+	private static final String TAG = BandwidthLimiter.class.getSimpleName();
+	// Allow up to a quarter second burst so short reads don't stall on every call
+	private static final long BURST_MILLIS = 250L;
+
+	private static BandwidthLimiter instance;
+
+	private final Context context;
+	private long bytesPerSecond;
+	private double tokens;
+	private long lastRefill;
+	private boolean screenOn;
+	private boolean streaming = false;
+
+	private final BroadcastReceiver receiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			String action = intent.getAction();
+			if(Intent.ACTION_SCREEN_ON.equals(action)) {
+				setScreenOn(true);
+			} else if(Intent.ACTION_SCREEN_OFF.equals(action)) {
+				setScreenOn(false);
+			} else if(ConnectivityManager.CONNECTIVITY_ACTION.equals(action)) {
+				// Different network, different capacity: re-read the rate and don't carry a burst over
+				update();
+			}
+		}
+	};
+
+	public static synchronized BandwidthLimiter getInstance(Context context) {
+		if(instance == null) {
+			instance = new BandwidthLimiter(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	private BandwidthLimiter(Context context) {
+		this.context = context;
+
+		PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+		screenOn = pm.isScreenOn();
+		update();
+
+		IntentFilter filter = new IntentFilter();
+		filter.addAction(Intent.ACTION_SCREEN_ON);
+		filter.addAction(Intent.ACTION_SCREEN_OFF);
+		filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+		context.registerReceiver(receiver, filter);
+	}
+
+	public synchronized void update() {
+		SharedPreferences prefs = Util.getPreferences(context);
+		bytesPerSecond = Integer.parseInt(prefs.getString(Constants.PREFERENCES_KEY_DOWNLOAD_RATE_LIMIT, "512")) * 1024L;
+		reset();
+	}
+
+	public synchronized void setScreenOn(boolean screenOn) {
+		if(this.screenOn != screenOn) {
+			Log.i(TAG, "Screen on: " + screenOn);
+			this.screenOn = screenOn;
+			reset();
+		}
+	}
+
+	public synchronized void setStreaming(boolean streaming) {
+		if(this.streaming != streaming) {
+			this.streaming = streaming;
+			reset();
+		}
+	}
+
+	/**
+	 * @param whileScreenOn Also limit while the screen is on, not just while something is streaming
+	 */
+	public synchronized boolean isLimiting(boolean whileScreenOn) {
+		return bytesPerSecond > 0 && (streaming || (whileScreenOn && screenOn));
+	}
+
+	/**
+	 * Take bytes that have just been read out of the bucket, sleeping if it has gone into debt.  Every caller adds
+	 * to the same debt, so concurrent downloads split the rate between them.
+	 */
+	public void acquire(int bytes, boolean whileScreenOn) throws InterruptedException {
+		long wait;
+		synchronized (this) {
+			if(!isLimiting(whileScreenOn)) {
+				return;
+			}
+
+			refill();
+			tokens -= bytes;
+			if(tokens >= 0) {
+				return;
+			}
+			wait = (long) (-tokens * 1000 / bytesPerSecond);
+		}
+
+		if(wait > 0) {
+			Thread.sleep(wait);
+		}
+	}
+
+	private void refill() {
+		long now = System.currentTimeMillis();
+		double capacity = bytesPerSecond * BURST_MILLIS / 1000.0;
+		tokens = Math.min(capacity, tokens + (now - lastRefill) * bytesPerSecond / 1000.0);
+		lastRefill = now;
+	}
+
+	private void reset() {
+		tokens = 0;
+		lastRefill = System.currentTimeMillis();
+	}
+}
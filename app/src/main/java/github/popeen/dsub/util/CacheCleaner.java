@@ -55,6 +55,9 @@ public class CacheCleaner {
             }
 
             FileUtil.deleteEmptyDir(dir);
+			if(!dir.exists()) {
+				OfflineCatalog.getCatalog(context).fileRemoved(dir);
+			}
         }
     }
 	
@@ -107,6 +110,7 @@ public class CacheCleaner {
                     if (Util.delete(file)) {
                         bytesDeleted += size;
 						mediaStore.deleteFromMediaStore(file);
+						OfflineCatalog.getCatalog(context).fileRemoved(file);
                     }
                 }
             }
@@ -153,6 +157,8 @@ public class CacheCleaner {
 
         for (DownloadFile downloadFile : downloadService.getDownloads()) {
             undeletable.add(downloadFile.getPartialFile());
+            undeletable.add(downloadFile.getSegmentedFile());
+            undeletable.add(downloadFile.getSegmentedStateFile());
             undeletable.add(downloadFile.getCompleteFile());
         }
 
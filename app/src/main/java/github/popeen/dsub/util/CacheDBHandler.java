@@ -0,0 +1,641 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single keyed store for everything FileUtil.serialize used to write as its own .ser file.  Writes are queued and
+ * committed together in one transaction a moment later, reads see queued writes straight away, and the file is
+ * vacuumed in the background once enough of it is free pages.  Each process has its own queue, so the sync process
+ * only sees what the app wrote once it is committed, normally within BATCH_DELAY, and the other way around.  Anything
+ * one of them writes for the other to pick up right away should be flushed.  Alongside it is an index of which stored objects hold
+ * which entries, so an update to one entry only has to touch the objects that actually contain it, and a bounded table
+ * of the first child found for directories that have no cover art of their own.
+ */
+public class CacheDBHandler extends SQLiteOpenHelper {
+	private static final String TAG = CacheDBHandler.class.getSimpleName();
+	private static CacheDBHandler dbHandler;
+
+	private static final int DATABASE_VERSION = 4;
+	public static final String DATABASE_NAME = "SerializedCache.db";
+
+	public static final String TABLE_CACHE = "SerializedCache";
+	public static final String CACHE_NAME = "name";
+	public static final String CACHE_DATA = "data";
+	public static final String CACHE_MODIFIED = "modified";
+	public static final String CACHE_DIGEST = "digest";
+
+	public static final String TABLE_ENTRY_INDEX = "EntryIndex";
+	public static final String ENTRY_ID = "entry_id";
+	public static final String ENTRY_CACHE_NAME = "name";
+
+	public static final String TABLE_CHILD_LOOKUP = "ChildLookup";
+	public static final String LOOKUP_NAME = "name";
+	public static final String LOOKUP_ENTRY_ID = "entry_id";
+	public static final String LOOKUP_CHILD = "child";
+	public static final String LOOKUP_MODIFIED = "modified";
+	// Oldest lookups are dropped past this, checked every so many new ones
+	private static final int MAX_CHILD_LOOKUPS = 5000;
+	private static final int CHILD_LOOKUP_TRIM_INTERVAL = 100;
+
+	// Stay well under SQLite's limit on bound parameters when looking up a lot of ids at once
+	private static final int MAX_QUERY_IDS = 500;
+
+	// How long writes wait for others to join them in the same transaction
+	private static final long BATCH_DELAY = 250L;
+	// How long a batch that failed to commit waits before it is tried again
+	private static final long RETRY_DELAY = 5000L;
+	// Vacuum once at least this many rows have been replaced or removed and a quarter of the file is free
+	private static final int COMPACT_CHECK_INTERVAL = 500;
+	private static final double COMPACT_FREE_RATIO = 0.25;
+
+	private final Map<String, PendingWrite> pending = new HashMap<String, PendingWrite>();
+	private final Object flushLock = new Object();
+	private final ScheduledExecutorService writer;
+	private boolean flushScheduled = false;
+	private int changesSinceCompactCheck = 0;
+	private int childLookupsSinceTrim = 0;
+
+	private CacheDBHandler(Context context) {
+		// Lives in the cache directory so clearing the app's cache still clears it
+		super(context, new File(context.getCacheDir(), DATABASE_NAME).getPath(), null, DATABASE_VERSION);
+
+		writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "CacheDBHandler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@Override
+	public void onCreate(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_CACHE + " ( " +
+				CACHE_NAME + " TEXT PRIMARY KEY, " +
+				CACHE_DATA + " BLOB NOT NULL, " +
+				CACHE_MODIFIED + " INTEGER NOT NULL, " +
+				CACHE_DIGEST + " TEXT)");
+		db.execSQL("CREATE TABLE " + TABLE_ENTRY_INDEX + " ( " +
+				ENTRY_ID + " TEXT NOT NULL, " +
+				ENTRY_CACHE_NAME + " TEXT NOT NULL, " +
+				"PRIMARY KEY (" + ENTRY_ID + ", " + ENTRY_CACHE_NAME + "))");
+		db.execSQL("CREATE INDEX " + TABLE_ENTRY_INDEX + "_name ON " + TABLE_ENTRY_INDEX + " (" + ENTRY_CACHE_NAME + ")");
+		db.execSQL("CREATE TABLE " + TABLE_CHILD_LOOKUP + " ( " +
+				LOOKUP_NAME + " TEXT NOT NULL, " +
+				LOOKUP_ENTRY_ID + " TEXT NOT NULL, " +
+				LOOKUP_CHILD + " BLOB NOT NULL, " +
+				LOOKUP_MODIFIED + " INTEGER NOT NULL, " +
+				"PRIMARY KEY (" + LOOKUP_NAME + ", " + LOOKUP_ENTRY_ID + "))");
+		db.execSQL("CREATE INDEX " + TABLE_CHILD_LOOKUP + "_modified ON " + TABLE_CHILD_LOOKUP + " (" + LOOKUP_MODIFIED + ")");
+	}
+
+	@Override
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		// Everything in here can be fetched again, and older versions have nothing in the entry index
+		db.execSQL("DROP TABLE IF EXISTS " + TABLE_CACHE);
+		db.execSQL("DROP TABLE IF EXISTS " + TABLE_ENTRY_INDEX);
+		db.execSQL("DROP TABLE IF EXISTS " + TABLE_CHILD_LOOKUP);
+		this.onCreate(db);
+	}
+
+	/**
+	 * @param maxAge Ignore anything older than this many milliseconds, 0 for no limit
+	 */
+	public byte[] get(String name, long maxAge) {
+		synchronized (pending) {
+			PendingWrite write = pending.get(name);
+			if(write != null && (write.data != null || write.delete)) {
+				return write.data;
+			}
+		}
+
+		Cursor cursor = null;
+		try {
+			SQLiteDatabase db = getReadableDatabase();
+			cursor = db.query(TABLE_CACHE, new String[] {CACHE_DATA, CACHE_MODIFIED}, CACHE_NAME + " = ?", new String[] { name }, null, null, null, null);
+			if(cursor.moveToFirst()) {
+				if(maxAge > 0 && System.currentTimeMillis() - cursor.getLong(1) > maxAge) {
+					return null;
+				}
+				return cursor.getBlob(0);
+			}
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to read " + name, e);
+		} finally {
+			if(cursor != null) {
+				cursor.close();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Cheap check of when something was last written without reading it, 0 if it isn't there
+	 */
+	public long getModified(String name) {
+		synchronized (pending) {
+			PendingWrite write = pending.get(name);
+			if(write != null && (write.data != null || write.delete || write.touched)) {
+				return write.delete ? 0 : write.modified;
+			}
+		}
+
+		Cursor cursor = null;
+		try {
+			SQLiteDatabase db = getReadableDatabase();
+			cursor = db.query(TABLE_CACHE, new String[] {CACHE_MODIFIED}, CACHE_NAME + " = ?", new String[] { name }, null, null, null, null);
+			if(cursor.moveToFirst()) {
+				return cursor.getLong(0);
+			}
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to read modified time for " + name, e);
+		} finally {
+			if(cursor != null) {
+				cursor.close();
+			}
+		}
+		return 0;
+	}
+
+	public String getDigest(String name) {
+		synchronized (pending) {
+			PendingWrite write = pending.get(name);
+			if(write != null && (write.data != null || write.delete || write.digestChanged)) {
+				return write.digest;
+			}
+		}
+
+		Cursor cursor = null;
+		try {
+			SQLiteDatabase db = getReadableDatabase();
+			cursor = db.query(TABLE_CACHE, new String[] {CACHE_DIGEST}, CACHE_NAME + " = ?", new String[] { name }, null, null, null, null);
+			if(cursor.moveToFirst()) {
+				return cursor.getString(0);
+			}
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to read digest for " + name, e);
+		} finally {
+			if(cursor != null) {
+				cursor.close();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return When it was written, as getModified will report it
+	 */
+	public long put(String name, byte[] data) {
+		return put(name, data, System.currentTimeMillis());
+	}
+	public long put(String name, byte[] data, long modified) {
+		return put(name, data, modified, null);
+	}
+	/**
+	 * @param entryIds Ids of the entries the object holds, so getNamesContaining can find it
+	 */
+	public long put(String name, byte[] data, long modified, String[] entryIds) {
+		synchronized (pending) {
+			PendingWrite write = new PendingWrite();
+			write.data = data;
+			write.modified = modified;
+			write.entryIds = entryIds;
+			write.entriesChanged = true;
+			pending.put(name, write);
+			scheduleFlush();
+			return write.modified;
+		}
+	}
+
+	/**
+	 * Mark something as just written without changing it, for when the server confirmed it is still current
+	 * @return The new modified time, 0 if there was nothing to mark
+	 */
+	public long touch(String name) {
+		if(getModified(name) == 0) {
+			return 0;
+		}
+
+		synchronized (pending) {
+			PendingWrite write = pending.get(name);
+			if(write == null) {
+				write = new PendingWrite();
+			} else {
+				// Replace so a flush already running doesn't drop this change when it clears what it committed
+				write = write.copy();
+			}
+			pending.put(name, write);
+			write.modified = System.currentTimeMillis();
+			write.touched = true;
+			scheduleFlush();
+			return write.modified;
+		}
+	}
+
+	public void setDigest(String name, String digest) {
+		synchronized (pending) {
+			PendingWrite write = pending.get(name);
+			if(write == null) {
+				write = new PendingWrite();
+				pending.put(name, write);
+			} else {
+				// Replace so a flush already running doesn't drop this change when it clears what it committed
+				write = write.copy();
+				pending.put(name, write);
+			}
+			write.digest = digest;
+			write.digestChanged = true;
+			scheduleFlush();
+		}
+	}
+
+	/**
+	 * Index the entries of something that is already stored without rewriting it
+	 */
+	public void setEntryIds(String name, String[] entryIds) {
+		synchronized (pending) {
+			PendingWrite write = pending.get(name);
+			if(write == null) {
+				write = new PendingWrite();
+			} else {
+				write = write.copy();
+			}
+			pending.put(name, write);
+			write.entryIds = entryIds;
+			write.entriesChanged = true;
+			scheduleFlush();
+		}
+	}
+
+	/**
+	 * Find everything stored that holds any of these entries
+	 * @return Ids of the entries each one holds, by name
+	 */
+	public Map<String, Set<String>> getNamesContaining(Collection<String> entryIds) {
+		Map<String, Set<String>> names = new HashMap<String, Set<String>>();
+		List<String> ids = new ArrayList<String>(entryIds);
+
+		try {
+			SQLiteDatabase db = getReadableDatabase();
+			for(int start = 0; start < ids.size(); start += MAX_QUERY_IDS) {
+				List<String> chunk = ids.subList(start, Math.min(ids.size(), start + MAX_QUERY_IDS));
+				StringBuilder where = new StringBuilder(ENTRY_ID + " IN (");
+				for(int i = 0; i < chunk.size(); i++) {
+					where.append(i == 0 ? "?" : ", ?");
+				}
+				where.append(")");
+
+				Cursor cursor = db.query(TABLE_ENTRY_INDEX, new String[] {ENTRY_ID, ENTRY_CACHE_NAME}, where.toString(), chunk.toArray(new String[chunk.size()]), null, null, null);
+				try {
+					while(cursor.moveToNext()) {
+						addName(names, cursor.getString(1), cursor.getString(0));
+					}
+				} finally {
+					cursor.close();
+				}
+			}
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to look up " + ids.size() + " entries", e);
+		}
+
+		// Writes that haven't been committed yet replace whatever the table says about them
+		Set<String> lookup = new HashSet<String>(ids);
+		synchronized (pending) {
+			for(Map.Entry<String, PendingWrite> entry: pending.entrySet()) {
+				PendingWrite write = entry.getValue();
+				if(write.delete || write.entriesChanged) {
+					names.remove(entry.getKey());
+				}
+				if(!write.delete && write.entriesChanged && write.entryIds != null) {
+					for(String id: write.entryIds) {
+						if(lookup.contains(id)) {
+							addName(names, entry.getKey(), id);
+						}
+					}
+				}
+			}
+		}
+
+		return names;
+	}
+	private static void addName(Map<String, Set<String>> names, String name, String id) {
+		Set<String> ids = names.get(name);
+		if(ids == null) {
+			ids = new HashSet<String>();
+			names.put(name, ids);
+		}
+		ids.add(id);
+	}
+
+	public void delete(String name) {
+		synchronized (pending) {
+			PendingWrite write = new PendingWrite();
+			write.delete = true;
+			pending.put(name, write);
+			scheduleFlush();
+		}
+	}
+
+	public void deleteAll() {
+		// Under the flush lock so a batch already being committed can't write its rows back after they are cleared
+		synchronized (flushLock) {
+			synchronized (pending) {
+				pending.clear();
+			}
+
+			try {
+				SQLiteDatabase db = getWritableDatabase();
+				db.delete(TABLE_CACHE, null, null);
+				db.delete(TABLE_ENTRY_INDEX, null, null);
+				db.delete(TABLE_CHILD_LOOKUP, null, null);
+			} catch(Exception e) {
+				Log.w(TAG, "Failed to clear cache", e);
+			}
+		}
+	}
+
+	/**
+	 * @param name Which lookup table, since entry ids are only unique on a single server
+	 */
+	public byte[] getChildLookup(String name, String entryId) {
+		Cursor cursor = null;
+		try {
+			SQLiteDatabase db = getReadableDatabase();
+			cursor = db.query(TABLE_CHILD_LOOKUP, new String[] {LOOKUP_CHILD}, LOOKUP_NAME + " = ? AND " + LOOKUP_ENTRY_ID + " = ?", new String[] { name, entryId }, null, null, null, null);
+			if(cursor.moveToFirst()) {
+				return cursor.getBlob(0);
+			}
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to read child lookup for " + entryId, e);
+		} finally {
+			if(cursor != null) {
+				cursor.close();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Add lookups straight away, each is a single small row so there is nothing to gain by batching them
+	 * @param children Serialized first child by entry id
+	 */
+	public void putChildLookups(String name, Map<String, byte[]> children) {
+		if(children.isEmpty()) {
+			return;
+		}
+
+		boolean trim;
+		synchronized (this) {
+			childLookupsSinceTrim += children.size();
+			trim = childLookupsSinceTrim >= CHILD_LOOKUP_TRIM_INTERVAL;
+			if(trim) {
+				childLookupsSinceTrim = 0;
+			}
+		}
+
+		try {
+			SQLiteDatabase db = getWritableDatabase();
+			db.beginTransaction();
+			try {
+				long modified = System.currentTimeMillis();
+				for(Map.Entry<String, byte[]> child: children.entrySet()) {
+					ContentValues values = new ContentValues();
+					values.put(LOOKUP_NAME, name);
+					values.put(LOOKUP_ENTRY_ID, child.getKey());
+					values.put(LOOKUP_CHILD, child.getValue());
+					values.put(LOOKUP_MODIFIED, modified);
+					db.insertWithOnConflict(TABLE_CHILD_LOOKUP, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+				}
+
+				if(trim) {
+					db.execSQL("DELETE FROM " + TABLE_CHILD_LOOKUP + " WHERE rowid IN (SELECT rowid FROM " + TABLE_CHILD_LOOKUP +
+							" ORDER BY " + LOOKUP_MODIFIED + " DESC LIMIT -1 OFFSET " + MAX_CHILD_LOOKUPS + ")");
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to write " + children.size() + " child lookups", e);
+		}
+	}
+
+	private void scheduleFlush() {
+		scheduleFlush(BATCH_DELAY);
+	}
+	private void scheduleFlush(long delay) {
+		if(!flushScheduled) {
+			flushScheduled = true;
+			writer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Commit everything queued so far
+	 */
+	private void flush() {
+		// One batch at a time so an older batch can never be committed over a newer one
+		synchronized (flushLock) {
+			flushBatch();
+		}
+	}
+
+	/**
+	 * Commit only what is queued for name on the calling thread, everything else queued still waits for its batch
+	 */
+	public void flush(String name) {
+		synchronized (flushLock) {
+			Map<String, PendingWrite> batch = new HashMap<String, PendingWrite>();
+			synchronized (pending) {
+				PendingWrite write = pending.get(name);
+				if(write == null) {
+					return;
+				}
+				batch.put(name, write);
+			}
+			commit(batch);
+		}
+	}
+
+	private void flushBatch() {
+		Map<String, PendingWrite> batch;
+		synchronized (pending) {
+			flushScheduled = false;
+			batch = new HashMap<String, PendingWrite>(pending);
+		}
+		if(batch.isEmpty()) {
+			return;
+		}
+
+		commit(batch);
+	}
+	private void commit(Map<String, PendingWrite> batch) {
+		boolean committed = false;
+		try {
+			SQLiteDatabase db = getWritableDatabase();
+			db.beginTransaction();
+			try {
+				for(Map.Entry<String, PendingWrite> entry: batch.entrySet()) {
+					String name = entry.getKey();
+					PendingWrite write = entry.getValue();
+					String[] args = new String[] { name };
+
+					if(write.delete || write.entriesChanged) {
+						db.delete(TABLE_ENTRY_INDEX, ENTRY_CACHE_NAME + " = ?", args);
+					}
+					if(!write.delete && write.entriesChanged && write.entryIds != null) {
+						for(String id: write.entryIds) {
+							ContentValues values = new ContentValues();
+							values.put(ENTRY_ID, id);
+							values.put(ENTRY_CACHE_NAME, name);
+							db.insertWithOnConflict(TABLE_ENTRY_INDEX, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+						}
+					}
+
+					if(write.delete) {
+						db.delete(TABLE_CACHE, CACHE_NAME + " = ?", args);
+					} else if(write.data != null) {
+						ContentValues values = new ContentValues();
+						values.put(CACHE_NAME, name);
+						values.put(CACHE_DATA, write.data);
+						values.put(CACHE_MODIFIED, write.modified);
+						values.put(CACHE_DIGEST, write.digest);
+						db.insertWithOnConflict(TABLE_CACHE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+					} else if(write.digestChanged || write.touched) {
+						ContentValues values = new ContentValues();
+						if(write.digestChanged) {
+							values.put(CACHE_DIGEST, write.digest);
+						}
+						if(write.touched) {
+							values.put(CACHE_MODIFIED, write.modified);
+						}
+						db.update(TABLE_CACHE, values, CACHE_NAME + " = ?", args);
+					}
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			committed = true;
+		} catch(Exception e) {
+			Log.e(TAG, "Failed to write " + batch.size() + " cache entries, trying again in " + RETRY_DELAY + "ms", e);
+		}
+
+		if(!committed) {
+			// Leave all of it queued, reads keep seeing it until a later batch gets it written
+			synchronized (pending) {
+				scheduleFlush(RETRY_DELAY);
+			}
+			return;
+		}
+
+		// Only forget writes that weren't replaced while this batch was being committed
+		synchronized (pending) {
+			for(Map.Entry<String, PendingWrite> entry: batch.entrySet()) {
+				if(pending.get(entry.getKey()) == entry.getValue()) {
+					pending.remove(entry.getKey());
+				}
+			}
+		}
+
+		changesSinceCompactCheck += batch.size();
+		if(changesSinceCompactCheck >= COMPACT_CHECK_INTERVAL) {
+			changesSinceCompactCheck = 0;
+			compact();
+		}
+	}
+
+	private void compact() {
+		Cursor cursor = null;
+		try {
+			SQLiteDatabase db = getWritableDatabase();
+			cursor = db.rawQuery("PRAGMA page_count", null);
+			long pages = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+			cursor.close();
+			cursor = db.rawQuery("PRAGMA freelist_count", null);
+			long free = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+
+			if(pages > 0 && free >= pages * COMPACT_FREE_RATIO) {
+				Log.i(TAG, "Compacting, " + free + " of " + pages + " pages free");
+				db.execSQL("VACUUM");
+			}
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to compact", e);
+		} finally {
+			if(cursor != null) {
+				cursor.close();
+			}
+		}
+	}
+
+	public static synchronized CacheDBHandler getHandler(Context context) {
+		if(dbHandler == null) {
+			dbHandler = new CacheDBHandler(context.getApplicationContext());
+		}
+
+		return dbHandler;
+	}
+
+	private static class PendingWrite {
+		private byte[] data;
+		private long modified;
+		private String digest;
+		private boolean digestChanged = false;
+		private boolean touched = false;
+		private String[] entryIds;
+		private boolean entriesChanged = false;
+		private boolean delete = false;
+
+		private PendingWrite copy() {
+			PendingWrite copy = new PendingWrite();
+			copy.data = data;
+			copy.modified = modified;
+			copy.digest = digest;
+			copy.digestChanged = digestChanged;
+			copy.touched = touched;
+			copy.entryIds = entryIds;
+			copy.entriesChanged = entriesChanged;
+			copy.delete = delete;
+			return copy;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.Build;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides how long each kind of cached server response is trusted.  A cached copy is fresh until its TTL runs out,
+ * then stale: still shown straight away, but refreshed in the background if the priority allows it on the current
+ * network.  Once past the stale window as well it has expired and has to be fetched again before it is shown.
+ */
+public final class CachePolicy {
+	private static final String TAG = CachePolicy.class.getSimpleName();
+	private static final long MINUTE = 60L * 1000L;
+	private static final long HOUR = 60L * MINUTE;
+	private static final long DAY = 24L * HOUR;
+	public static final long NO_LIMIT = -1L;
+
+	public enum Priority {
+		// Refreshed on any network
+		HIGH,
+		// Refreshed on metered networks only once it has been stale for as long again as its TTL
+		NORMAL,
+		// Only refreshed on unmetered networks, otherwise shown as is until it expires
+		LOW
+	}
+
+	public enum Freshness {
+		FRESH,
+		STALE,
+		EXPIRED
+	}
+
+	public enum Resource {
+		INDEXES(HOUR, NO_LIMIT, Priority.NORMAL),
+		DIRECTORY(5 * MINUTE, NO_LIMIT, Priority.HIGH),
+		PLAYLIST(HOUR, NO_LIMIT, Priority.NORMAL),
+		PODCAST(HOUR, 9 * HOUR, Priority.NORMAL),
+		ARTIST_INFO(DAY, 59 * DAY, Priority.LOW),
+		GENRE(DAY, NO_LIMIT, Priority.LOW);
+
+		private final long ttl;
+		private final long staleWindow;
+		private final Priority priority;
+
+		Resource(long ttl, long staleWindow, Priority priority) {
+			this.ttl = ttl;
+			this.staleWindow = staleWindow;
+			this.priority = priority;
+		}
+
+		/**
+		 * TTL before the refresh preference is applied, for caches that can't look it up
+		 */
+		public long getTtl() {
+			return ttl;
+		}
+
+		public Priority getPriority() {
+			return priority;
+		}
+	}
+
+	private static final Set<String> revalidating = new HashSet<String>();
+	// Oldest are forgotten past this, they show up again the next time they are asked for
+	private static final int MAX_STALE = 500;
+	private static final Map<String, Resource> stale = new LinkedHashMap<String, Resource>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Resource> eldest) {
+			return size() > MAX_STALE;
+		}
+	};
+
+	private CachePolicy() {
+	}
+
+	/**
+	 * TTL after the refresh preference has been applied to it
+	 */
+	public static long getTtl(Context context, Resource resource) {
+		float scale;
+		try {
+			scale = Float.parseFloat(Util.getPreferences(context).getString(Constants.PREFERENCES_KEY_CACHE_REFRESH, "1"));
+		} catch(NumberFormatException e) {
+			scale = 1;
+		}
+		return (long) (resource.ttl * scale);
+	}
+
+	public static Freshness getFreshness(Context context, Resource resource, String cacheName) {
+		long modified = CacheDBHandler.getHandler(context).getModified(cacheName);
+		if(modified == 0) {
+			// Nothing cached at all
+			return Freshness.EXPIRED;
+		}
+
+		long age = System.currentTimeMillis() - modified;
+		long ttl = getTtl(context, resource);
+		Freshness freshness;
+		if(age <= ttl) {
+			freshness = Freshness.FRESH;
+		} else if(resource.staleWindow == NO_LIMIT || age <= ttl + resource.staleWindow) {
+			freshness = Freshness.STALE;
+		} else {
+			freshness = Freshness.EXPIRED;
+		}
+
+		synchronized (stale) {
+			if(freshness == Freshness.FRESH) {
+				stale.remove(cacheName);
+			} else {
+				// Moved to the end so the most recently asked for are the last to be forgotten
+				stale.remove(cacheName);
+				stale.put(cacheName, resource);
+			}
+		}
+		return freshness;
+	}
+
+	/**
+	 * Claim the background refresh of a stale copy that is being shown.  Returns false when the network doesn't allow
+	 * it for this priority or someone else is already refreshing it, otherwise endRevalidate has to be called once done.
+	 */
+	public static boolean beginRevalidate(Context context, Resource resource, String cacheName) {
+		if(!Util.isNetworkConnected(context)) {
+			return false;
+		}
+
+		if(resource.priority != Priority.HIGH && isNetworkMetered(context)) {
+			if(resource.priority == Priority.LOW) {
+				return false;
+			}
+
+			long modified = CacheDBHandler.getHandler(context).getModified(cacheName);
+			if(modified != 0 && System.currentTimeMillis() - modified < getTtl(context, resource) * 2) {
+				return false;
+			}
+		}
+
+		synchronized (revalidating) {
+			return revalidating.add(cacheName);
+		}
+	}
+	public static void endRevalidate(String cacheName, boolean success) {
+		synchronized (revalidating) {
+			revalidating.remove(cacheName);
+		}
+
+		if(success) {
+			synchronized (stale) {
+				stale.remove(cacheName);
+			}
+		}
+	}
+
+	/**
+	 * Cached copies that were stale or expired the last time they were asked for and haven't been refreshed since, up to
+	 * the MAX_STALE most recently asked for
+	 */
+	public static Map<String, Resource> getStaleResources() {
+		synchronized (stale) {
+			return new HashMap<String, Resource>(stale);
+		}
+	}
+
+	public static void clear() {
+		synchronized (stale) {
+			stale.clear();
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private static boolean isNetworkMetered(Context context) {
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+			return manager.isActiveNetworkMetered();
+		} else {
+			return !Util.isWifiConnected(context);
+		}
+	}
+}
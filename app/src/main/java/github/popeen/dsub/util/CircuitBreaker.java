@@ -0,0 +1,140 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks the health of a single server.  After enough failures in a row it opens and requests fail straight away
+ * instead of tying up threads on a dead server.  Once the open period is over a single probe request is let through:
+ * if it works the breaker closes again, otherwise it stays open for twice as long.  A probe that never reports back
+ * gives up its slot after PROBE_TIMEOUT so the server isn't failed fast forever.
+ */
+public class CircuitBreaker {
+	private static final String TAG = CircuitBreaker.class.getSimpleName();
+	private static final int FAILURE_THRESHOLD = 3;
+	private static final long MIN_OPEN_TIME = 5000L;
+	private static final long MAX_OPEN_TIME = 60000L;
+	// Twice the longest network timeout that can be picked in settings
+	private static final long PROBE_TIMEOUT = 120000L;
+
+	private static final Map<String, CircuitBreaker> breakers = new HashMap<String, CircuitBreaker>();
+
+	private enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String key;
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long openTime = MIN_OPEN_TIME;
+	private long openedAt;
+	private long probedAt;
+
+	public static CircuitBreaker getInstance(String key) {
+		synchronized (breakers) {
+			CircuitBreaker breaker = breakers.get(key);
+			if(breaker == null) {
+				breaker = new CircuitBreaker(key);
+				breakers.put(key, breaker);
+			}
+			return breaker;
+		}
+	}
+
+	public static void resetAll() {
+		synchronized (breakers) {
+			for(CircuitBreaker breaker: breakers.values()) {
+				breaker.reset();
+			}
+		}
+	}
+
+	private CircuitBreaker(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * @return Whether a request should be sent to this server right now.  While half open only the first caller
+	 * gets through as the probe.
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				if(System.currentTimeMillis() - openedAt >= openTime) {
+					Log.i(TAG, "Probing " + key);
+					state = State.HALF_OPEN;
+					probedAt = System.currentTimeMillis();
+					return true;
+				}
+				return false;
+			case HALF_OPEN:
+			default:
+				if(System.currentTimeMillis() - probedAt >= PROBE_TIMEOUT) {
+					Log.w(TAG, "Probe of " + key + " never finished, probing again");
+					probedAt = System.currentTimeMillis();
+					return true;
+				}
+				return false;
+		}
+	}
+
+	public synchronized boolean isOpen() {
+		return state != State.CLOSED;
+	}
+
+	public synchronized void recordSuccess() {
+		if(state != State.CLOSED) {
+			Log.i(TAG, key + " is back");
+		}
+		reset();
+	}
+
+	public synchronized void recordFailure() {
+		failures++;
+		if(state == State.HALF_OPEN) {
+			openTime = Math.min(openTime * 2, MAX_OPEN_TIME);
+			open();
+		} else if(state == State.CLOSED && failures >= FAILURE_THRESHOLD) {
+			open();
+		}
+	}
+
+	/**
+	 * Give up the probe slot without counting it as either a success or a failure, ie: if the request was cancelled.
+	 */
+	public synchronized void recordCancelled() {
+		if(state == State.HALF_OPEN) {
+			state = State.OPEN;
+		}
+	}
+
+	private void open() {
+		Log.w(TAG, key + " failed " + failures + " times, failing fast for " + openTime + "ms");
+		state = State.OPEN;
+		openedAt = System.currentTimeMillis();
+	}
+
+	private synchronized void reset() {
+		state = State.CLOSED;
+		failures = 0;
+		openTime = MIN_OPEN_TIME;
+	}
+}
@@ -102,6 +102,11 @@ public final class Constants {
     public static final String PREFERENCES_KEY_CACHE_LOCATION = "cacheLocation";
     public static final String PREFERENCES_KEY_PRELOAD_COUNT_WIFI = "preloadCountWifi";
 	public static final String PREFERENCES_KEY_PRELOAD_COUNT_MOBILE = "preloadCountMobile";
+	public static final String PREFERENCES_KEY_CONCURRENT_DOWNLOADS = "concurrentDownloads";
+	public static final String PREFERENCES_KEY_SERVER_CONCURRENT_DOWNLOADS = "serverConcurrentDownloads";
+	public static final String PREFERENCES_KEY_DOWNLOAD_RATE_LIMIT = "downloadRateLimit";
+	public static final String PREFERENCES_KEY_CACHE_REFRESH = "cacheRefresh";
+	public static final String PREFERENCES_KEY_OFFLINE_CATALOG_ROOT = "offlineCatalogRoot";
     public static final String PREFERENCES_KEY_HIDE_MEDIA = "hideMedia";
     public static final String PREFERENCES_KEY_MEDIA_BUTTONS = "mediaButtons";
     public static final String PREFERENCES_KEY_SCREEN_LIT_ON_DOWNLOAD = "screenLitOnDownload";
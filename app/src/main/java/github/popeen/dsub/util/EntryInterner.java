@@ -0,0 +1,98 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import github.popeen.dsub.domain.MusicDirectory;
+
+/**
+ * Lets every copy of a song that is loaded again and again share the same strings and numbers.  Only those immutable
+ * values are shared, never the entries themselves: the queue, shuffle buffer, playlists and cached directories each
+ * change their own entries (starring, bookmarks) and the cache updaters rely on comparing those against what is stored.
+ * Everything is held weakly, once nothing else holds a value it goes.
+ */
+public final class EntryInterner {
+	private static final Map<Object, WeakReference<Object>> values = new WeakHashMap<Object, WeakReference<Object>>();
+
+	private EntryInterner() {
+	}
+
+	/**
+	 * Swap the entry's values for the shared instances of them
+	 */
+	public static synchronized void intern(MusicDirectory.Entry entry) {
+		if(entry == null) {
+			return;
+		}
+
+		entry.setId(internValue(entry.getId()));
+		entry.setTitle(internValue(entry.getTitle()));
+		entry.setPath(internValue(entry.getPath()));
+		entry.setParent(internValue(entry.getParent()));
+		entry.setGrandParent(internValue(entry.getGrandParent()));
+		entry.setAlbumId(internValue(entry.getAlbumId()));
+		entry.setArtistId(internValue(entry.getArtistId()));
+		entry.setAlbum(internValue(entry.getAlbum()));
+		entry.setArtist(internValue(entry.getArtist()));
+		entry.setGenre(internValue(entry.getGenre()));
+		entry.setContentType(internValue(entry.getContentType()));
+		entry.setSuffix(internValue(entry.getSuffix()));
+		entry.setTranscodedContentType(internValue(entry.getTranscodedContentType()));
+		entry.setTranscodedSuffix(internValue(entry.getTranscodedSuffix()));
+		entry.setCoverArt(internValue(entry.getCoverArt()));
+		entry.setTrack(internValue(entry.getTrack()));
+		entry.setYear(internValue(entry.getYear()));
+		entry.setDuration(internValue(entry.getDuration()));
+		entry.setBitRate(internValue(entry.getBitRate()));
+		entry.setDiscNumber(internValue(entry.getDiscNumber()));
+	}
+
+	public static void intern(List<MusicDirectory.Entry> list) {
+		for(MusicDirectory.Entry entry: list) {
+			intern(entry);
+		}
+	}
+	public static void intern(MusicDirectory dir) {
+		// Same lock MusicDirectory itself uses for its children
+		synchronized (dir) {
+			intern(dir.getChildren());
+		}
+	}
+
+	public static synchronized int size() {
+		return values.size();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T internValue(T value) {
+		if(value == null) {
+			return null;
+		}
+
+		WeakReference<Object> reference = values.get(value);
+		Object existing = reference == null ? null : reference.get();
+		if(existing != null) {
+			return (T) existing;
+		}
+
+		values.put(value, new WeakReference<Object>(value));
+		return value;
+	}
+}
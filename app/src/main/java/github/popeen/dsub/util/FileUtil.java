@@ -19,31 +19,35 @@
 package github.popeen.dsub.util;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.zip.CRC32;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
 
-import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Build;
 import android.os.Environment;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.util.LruCache;
 import android.util.Log;
 import github.popeen.dsub.domain.Artist;
 import github.popeen.dsub.domain.Genre;
@@ -72,18 +76,25 @@ public class FileUtil {
 	private static final List<String> PLAYLIST_FILE_EXTENSIONS = Arrays.asList("m3u");
 	private static final int MAX_FILENAME_LENGTH = 254 - ".complete.mp3".length();
     private static File DEFAULT_MUSIC_DIR;
-	private static final Kryo kryo = new Kryo();
-	private static HashMap<String, MusicDirectory.Entry> entryLookup;
-
-	static {
-		kryo.register(MusicDirectory.Entry.class);
-		kryo.register(Indexes.class);
-		kryo.register(Artist.class);
-		kryo.register(MusicFolder.class);
-		kryo.register(PodcastChannel.class);
-		kryo.register(Playlist.class);
-		kryo.register(Genre.class);
-	}
+	// Kryo isn't thread safe, so every thread doing cache I/O gets its own instead of queueing behind a shared one
+	private static final ThreadLocal<KryoState> kryoState = new ThreadLocal<KryoState>() {
+		@Override
+		protected KryoState initialValue() {
+			return new KryoState();
+		}
+	};
+	// Don't let one huge object pin a buffer this big to a thread forever
+	private static final int MAX_RETAINED_BUFFER = 256 * 1024;
+	private static final byte[] EMPTY_BUFFER = new byte[0];
+	// Every serialized object starts with a marker, format version, payload length and CRC32 of the payload
+	private static final byte SERIALIZED_MAGIC = 'D';
+	private static final byte SERIALIZED_VERSION = 1;
+	private static final int SERIALIZED_HEADER_SIZE = 10;
+	// First child of directories without their own cover art, in front of the table in the cache database
+	private static final LruCache<String, MusicDirectory.Entry> childLookup = new LruCache<String, MusicDirectory.Entry>(500);
+	// Directories whose cached contents had no child to use, until they are cached again
+	private static final LruCache<String, Boolean> childMisses = new LruCache<String, Boolean>(500);
+	private static final Set<String> migratedLookups = new HashSet<String>();
 	
 	public static File getAnySong(Context context) {
 		File dir = getMusicDirectory(context);
@@ -372,24 +383,30 @@ public class FileUtil {
         return dir;
     }
 
+	/**
+	 * Find the first child of a directory from its cached contents.  Can hit the disk, so keep it off the main thread
+	 * and use peekChild there instead.
+	 */
 	public static MusicDirectory.Entry lookupChild(Context context, MusicDirectory.Entry entry, boolean allowDir) {
-		// Initialize lookupMap if first time called
 		String lookupName = Util.getCacheName(context, "entryLookup");
-		if(entryLookup == null) {
-			entryLookup = deserialize(context, lookupName, HashMap.class);
-			
-			// Create it if 
-			if(entryLookup == null) {
-				entryLookup = new HashMap<String, MusicDirectory.Entry>();
-			}
+		String key = lookupName + entry.getId();
+		MusicDirectory.Entry child = childLookup.get(key);
+		if(child != null || childMisses.get(key) != null) {
+			return child;
 		}
-		
+
 		// Check if this lookup has already been done before
-		MusicDirectory.Entry child = entryLookup.get(entry.getId());
-		if(child != null) {
-			return child;
+		CacheDBHandler cache = CacheDBHandler.getHandler(context);
+		migrateEntryLookup(context, lookupName);
+		byte[] data = cache.getChildLookup(lookupName, entry.getId());
+		if(data != null) {
+			child = fromSerialized(data, MusicDirectory.Entry.class);
+			if(child != null) {
+				childLookup.put(key, child);
+				return child;
+			}
 		}
-		
+
 		// Do a special lookup since 4.7+ doesn't match artist/album to entry.getPath
 		String s = Util.getRestUrl(context, null, false) + entry.getId();
 		String cacheName = (Util.isTagBrowsing(context) ? "album-" : "directory-") + s.hashCode() + ".ser";
@@ -399,14 +416,45 @@ public class FileUtil {
 			List<MusicDirectory.Entry> songs = entryDir.getChildren(allowDir, true);
 			if(songs.size() > 0) {
 				child = songs.get(0);
-				entryLookup.put(entry.getId(), child);
-				serialize(context, entryLookup, lookupName);
+				childLookup.put(key, child);
+				cache.putChildLookups(lookupName, Collections.singletonMap(entry.getId(), toSerialized(child)));
 				return child;
 			}
 		}
 
+		childMisses.put(key, true);
 		return null;
 	}
+	/**
+	 * Only what lookupChild has already found and still has in memory, so it is safe on the main thread
+	 */
+	public static MusicDirectory.Entry peekChild(Context context, MusicDirectory.Entry entry) {
+		return childLookup.get(Util.getCacheName(context, "entryLookup") + entry.getId());
+	}
+	/**
+	 * Whether lookupChild already came up empty for it and nothing has been cached for it since
+	 */
+	public static boolean isChildMissing(Context context, MusicDirectory.Entry entry) {
+		return childMisses.get(Util.getCacheName(context, "entryLookup") + entry.getId()) != null;
+	}
+	private static void migrateEntryLookup(Context context, String lookupName) {
+		synchronized (migratedLookups) {
+			if(!migratedLookups.add(lookupName)) {
+				return;
+			}
+		}
+
+		// Lookups used to be kept as one map rewritten in full every time one was added
+		HashMap<String, MusicDirectory.Entry> entryLookup = deserialize(context, lookupName, HashMap.class);
+		if(entryLookup != null) {
+			Map<String, byte[]> children = new HashMap<String, byte[]>();
+			for(Map.Entry<String, MusicDirectory.Entry> child: entryLookup.entrySet()) {
+				children.put(child.getKey(), toSerialized(child.getValue()));
+			}
+			CacheDBHandler.getHandler(context).putChildLookups(lookupName, children);
+			deleteSerialized(context, lookupName);
+		}
+	}
 	
 	public static String getPodcastPath(Context context, PodcastEpisode episode) {
 		return fileSystemSafe(episode.getArtist()) + "/" + fileSystemSafe(episode.getTitle());
@@ -513,9 +561,16 @@ public class FileUtil {
 	public static boolean deleteMusicDirectory(Context context) {
 		File musicDirectory = FileUtil.getMusicDirectory(context);
 		MediaStoreService mediaStore = new MediaStoreService(context);
-		return recursiveDelete(musicDirectory, mediaStore);
+		boolean deleted = recursiveDelete(musicDirectory, mediaStore);
+		OfflineCatalog.getCatalog(context).fileRemoved(musicDirectory);
+		return deleted;
 	}
 	public static void deleteSerializedCache(Context context) {
+		CacheDBHandler.getHandler(context).deleteAll();
+		MusicDirectoryCache.getInstance().clear();
+		childLookup.evictAll();
+		childMisses.evictAll();
+		CachePolicy.clear();
 		for(File file: context.getCacheDir().listFiles()) {
 			if(file.getName().indexOf(".ser") != -1) {
 				file.delete();
@@ -592,6 +647,7 @@ public class FileUtil {
 		if(!saveFile.renameTo(completeFile)) {
 			Log.w(TAG, "Failed to upin " + saveFile + " to " + completeFile);
 		} else {
+			OfflineCatalog.getCatalog(context).fileRenamed(saveFile, completeFile);
 			try {
 				new MediaStoreService(context).renameInMediaStore(completeFile, saveFile);
 			} catch(Exception e) {
@@ -726,7 +782,7 @@ public class FileUtil {
         return files;
     }
 
-    private static boolean isMediaFile(File file) {
+    static boolean isMediaFile(File file) {
         String extension = getExtension(file.getName());
         return MUSIC_FILE_EXTENSIONS.contains(extension) || VIDEO_FILE_EXTENSIONS.contains(extension);
     }
@@ -770,6 +826,12 @@ public class FileUtil {
     }
 	
 	public static Long[] getUsedSize(Context context, File file) {
+		if(file.equals(getMusicDirectory(context))) {
+			return UsedSpaceLedger.getLedger(context).getUsedSize(file);
+		}
+		return countUsedSize(file);
+	}
+	private static Long[] countUsedSize(File file) {
 		long number = 0L;
 		long permanent = 0L;
 		long size = 0L;
@@ -785,7 +847,7 @@ public class FileUtil {
 			}
 		} else {
 			for (File child : FileUtil.listFiles(file)) {
-				Long[] pair = getUsedSize(context, child);
+				Long[] pair = countUsedSize(child);
 				number += pair[0];
 				permanent += pair[1];
 				size += pair[2];
@@ -795,19 +857,38 @@ public class FileUtil {
 	}
 
     public static <T extends Serializable> boolean serialize(Context context, T obj, String fileName) {
-		Output out = null;
+		return serialize(context, obj, fileName, false);
+	}
+	/**
+	 * @param commit Write it out before returning instead of with the next batch, anything else queued still waits for it
+	 */
+	public static <T extends Serializable> boolean serialize(Context context, T obj, String fileName, boolean commit) {
 		try {
-			RandomAccessFile file = new RandomAccessFile(context.getCacheDir() + "/" + fileName, "rw");
-			out = new Output(new FileOutputStream(file.getFD()));
-			synchronized (kryo) {
-				kryo.writeObject(out, obj);
+			if(obj instanceof MusicDirectory) {
+				// Whatever was just fetched is about to be shown, so share its values with anything already loaded
+				EntryInterner.intern((MusicDirectory) obj);
+			}
+
+			byte[] data = toSerialized(obj);
+			CacheDBHandler cache = CacheDBHandler.getHandler(context);
+			if(obj instanceof MusicDirectory) {
+				MusicDirectory dir = (MusicDirectory) obj;
+				long modified = cache.put(fileName, data, System.currentTimeMillis(), getEntryIds(dir));
+				MusicDirectoryCache.getInstance().put(fileName, dir, modified);
+				if(dir.getId() != null) {
+					// Might have children to look up now
+					childMisses.remove(Util.getCacheName(context, "entryLookup") + dir.getId());
+				}
+			} else {
+				cache.put(fileName, data);
+			}
+			if(commit) {
+				cache.flush(fileName);
 			}
 			return true;
 		} catch (Throwable x) {
 			Log.w(TAG, "Failed to serialize object to " + fileName);
 			return false;
-		} finally {
-			Util.close(out);
 		}
     }
 
@@ -816,78 +897,275 @@ public class FileUtil {
 	}
 
     public static <T extends Serializable> T deserialize(Context context, String fileName, Class<T> tClass, int hoursOld) {
-		Input in = null;
 		try {
-			File file = new File(context.getCacheDir(), fileName);
-			if(!file.exists()) {
+			// Directories are read over and over going between screens, so try the ones still in memory first
+			long modified = 0;
+			if(tClass == MusicDirectory.class) {
+				modified = CacheDBHandler.getHandler(context).getModified(fileName);
+				if(modified != 0) {
+					if(hoursOld != 0 && System.currentTimeMillis() - modified > hoursOld * 60L * 60L * 1000L) {
+						return null;
+					}
+
+					MusicDirectory dir = MusicDirectoryCache.getInstance().get(fileName, modified);
+					if(dir != null) {
+						return tClass.cast(dir);
+					}
+				}
+			}
+
+			byte[] data = getSerialized(context, fileName, hoursOld);
+			if(data == null) {
 				return null;
 			}
 
-			if(hoursOld != 0) {
-				Date fileDate = new Date(file.lastModified());
-				// Convert into hours
-				long age = (new Date().getTime() - fileDate.getTime()) / 1000 / 3600;
-				if(age > hoursOld) {
-					return null;
-				}
+			KryoState state = kryoState.get();
+			Input in = state.getInput();
+			in.setBuffer(data, SERIALIZED_HEADER_SIZE, data.length - SERIALIZED_HEADER_SIZE);
+			T result;
+			try {
+				result = state.kryo.readObject(in, tClass);
+			} finally {
+				in.setBuffer(EMPTY_BUFFER);
 			}
 
-			RandomAccessFile randomFile = new RandomAccessFile(file, "r");
+			if(result instanceof MusicDirectory) {
+				EntryInterner.intern((MusicDirectory) result);
+			}
 
-			in = new Input(new FileInputStream(randomFile.getFD()));
-			synchronized (kryo) {
-				T result = kryo.readObject(in, tClass);
-				return result;
+			// Remember when the copy just read was written, if it was replaced since then this will be thrown out next time
+			if(modified != 0) {
+				MusicDirectoryCache.getInstance().put(fileName, (MusicDirectory) result, modified);
+			} else if(result instanceof MusicDirectory) {
+				// Just moved over from an old file, so nothing knows what is in it yet
+				CacheDBHandler.getHandler(context).setEntryIds(fileName, getEntryIds((MusicDirectory) result));
 			}
-		} catch(FileNotFoundException e) {
-			// Different error message
-			Log.w(TAG, "No serialization for object from " + fileName);
-			return null;
+			return result;
 		} catch (Throwable x) {
 			Log.w(TAG, "Failed to deserialize object from " + fileName);
 			return null;
-		} finally {
-			Util.close(in);
 		}
     }
 
 	public static <T extends Serializable> boolean serializeCompressed(Context context, T obj, String fileName) {
-		Output out = null;
 		try {
-			RandomAccessFile file = new RandomAccessFile(context.getCacheDir() + "/" + fileName, "rw");
-			out = new Output(new DeflaterOutputStream(new FileOutputStream(file.getFD())));
-			synchronized (kryo) {
-				kryo.writeObject(out, obj);
-			}
+			KryoState state = kryoState.get();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			bytes.write(new byte[SERIALIZED_HEADER_SIZE]);
+			Output out = new Output(new DeflaterOutputStream(bytes));
+			state.kryo.writeObject(out, obj);
+			out.close();
+			byte[] data = bytes.toByteArray();
+			writeSerializedHeader(data, data.length);
+
+			// Only used for sync state, which the sync process needs written before it goes away
+			CacheDBHandler cache = CacheDBHandler.getHandler(context);
+			cache.put(fileName, data);
+			cache.flush(fileName);
 			return true;
 		} catch (Throwable x) {
 			Log.w(TAG, "Failed to serialize compressed object to " + fileName);
 			return false;
-		} finally {
-			Util.close(out);
 		}
 	}
 
-	@TargetApi(Build.VERSION_CODES.GINGERBREAD)
 	public static <T extends Serializable> T deserializeCompressed(Context context, String fileName, Class<T> tClass) {
-		Input in = null;
 		try {
-			RandomAccessFile file = new RandomAccessFile(context.getCacheDir() + "/" + fileName, "r");
-
-			in = new Input(new InflaterInputStream(new FileInputStream(file.getFD())));
-			synchronized (kryo) {
-				T result = kryo.readObject(in, tClass);
-				return result;
+			byte[] data = getSerialized(context, fileName, 0);
+			if(data == null) {
+				return null;
 			}
-		} catch(FileNotFoundException e) {
-			// Different error message
-			Log.w(TAG, "No serialization compressed for object from " + fileName);
-			return null;
+
+			KryoState state = kryoState.get();
+			Input in = new Input(new InflaterInputStream(new ByteArrayInputStream(data, SERIALIZED_HEADER_SIZE, data.length - SERIALIZED_HEADER_SIZE)));
+			return state.kryo.readObject(in, tClass);
 		} catch (Throwable x) {
 			Log.w(TAG, "Failed to deserialize compressed object from " + fileName);
 			return null;
+		}
+	}
+
+	private static byte[] getSerialized(Context context, String fileName, int hoursOld) throws IOException {
+		CacheDBHandler cache = CacheDBHandler.getHandler(context);
+		byte[] data = cache.get(fileName, hoursOld * 60L * 60L * 1000L);
+		if(data != null) {
+			if(isSerializedValid(data)) {
+				return data;
+			}
+
+			// Drop it instead of handing Kryo something it will choke on
+			Log.w(TAG, "Dropping corrupt serialized cache " + fileName);
+			cache.delete(fileName);
+			return null;
+		}
+
+		// Move anything still in its own file from before the cache database into it the first time it is asked for
+		File file = new File(context.getCacheDir(), fileName);
+		if(!file.exists()) {
+			return null;
+		}
+
+		if(hoursOld != 0) {
+			Date fileDate = new Date(file.lastModified());
+			// Convert into hours
+			long age = (new Date().getTime() - fileDate.getTime()) / 1000 / 3600;
+			if(age > hoursOld) {
+				return null;
+			}
+		}
+
+		FileInputStream in = new FileInputStream(file);
+		try {
+			// Old files have no header, so give them one.  They can't be checked, Kryo will have to find out.
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(SERIALIZED_HEADER_SIZE + (int) file.length());
+			bytes.write(new byte[SERIALIZED_HEADER_SIZE]);
+			Util.copy(in, bytes);
+			data = bytes.toByteArray();
+			writeSerializedHeader(data, data.length);
 		} finally {
 			Util.close(in);
 		}
+
+		// Keep its age so it isn't taken as freshly fetched
+		cache.put(fileName, data, file.lastModified());
+		file.delete();
+		return data;
+	}
+
+	static byte[] toSerialized(Object obj) {
+		KryoState state = kryoState.get();
+		Output out = state.getOutput();
+		out.setPosition(SERIALIZED_HEADER_SIZE);
+		state.kryo.writeObject(out, obj);
+		writeSerializedHeader(out.getBuffer(), out.position());
+		return out.toBytes();
+	}
+	/**
+	 * @return null if it isn't intact
+	 */
+	static <T> T fromSerialized(byte[] data, Class<T> tClass) {
+		if(!isSerializedValid(data)) {
+			return null;
+		}
+
+		KryoState state = kryoState.get();
+		Input in = state.getInput();
+		in.setBuffer(data, SERIALIZED_HEADER_SIZE, data.length - SERIALIZED_HEADER_SIZE);
+		try {
+			return state.kryo.readObject(in, tClass);
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to read serialized " + tClass.getSimpleName(), e);
+			return null;
+		} finally {
+			in.setBuffer(EMPTY_BUFFER);
+		}
+	}
+
+	private static void writeSerializedHeader(byte[] data, int end) {
+		int length = end - SERIALIZED_HEADER_SIZE;
+		CRC32 crc = new CRC32();
+		crc.update(data, SERIALIZED_HEADER_SIZE, length);
+
+		data[0] = SERIALIZED_MAGIC;
+		data[1] = SERIALIZED_VERSION;
+		writeInt(data, 2, length);
+		writeInt(data, 6, (int) crc.getValue());
+	}
+	private static boolean isSerializedValid(byte[] data) {
+		// Check the cheap things first so most garbage never gets as far as the checksum
+		if(data.length < SERIALIZED_HEADER_SIZE || data[0] != SERIALIZED_MAGIC || data[1] != SERIALIZED_VERSION) {
+			return false;
+		}
+
+		int length = readInt(data, 2);
+		if(length != data.length - SERIALIZED_HEADER_SIZE) {
+			return false;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(data, SERIALIZED_HEADER_SIZE, length);
+		return (int) crc.getValue() == readInt(data, 6);
+	}
+	private static void writeInt(byte[] data, int offset, int value) {
+		data[offset] = (byte) (value >>> 24);
+		data[offset + 1] = (byte) (value >>> 16);
+		data[offset + 2] = (byte) (value >>> 8);
+		data[offset + 3] = (byte) value;
+	}
+	private static int readInt(byte[] data, int offset) {
+		return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+	}
+
+	private static String[] getEntryIds(MusicDirectory dir) {
+		List<MusicDirectory.Entry> children = dir.getChildren();
+		String[] ids = new String[children.size()];
+		int count = 0;
+		for(MusicDirectory.Entry child: children) {
+			if(child != null && child.getId() != null) {
+				ids[count++] = child.getId();
+			}
+		}
+		return count == ids.length ? ids : Arrays.copyOf(ids, count);
+	}
+
+	/**
+	 * Mark a cached object as current again without rewriting it
+	 */
+	public static void touchSerialized(Context context, String fileName) {
+		CacheDBHandler cache = CacheDBHandler.getHandler(context);
+		long oldModified = cache.getModified(fileName);
+		long modified = cache.touch(fileName);
+		if(modified != 0) {
+			MusicDirectoryCache.getInstance().touch(fileName, oldModified, modified);
+		}
+	}
+
+	public static void deleteSerialized(Context context, String fileName) {
+		CacheDBHandler.getHandler(context).delete(fileName);
+		MusicDirectoryCache.getInstance().remove(fileName);
+		new File(context.getCacheDir(), fileName).delete();
+	}
+
+	/**
+	 * Digest of the server response a cached object was last built from, so a refresh can tell nothing changed
+	 * without deserializing anything.  Cleared whenever the object is written again without one.
+	 */
+	public static String getCacheDigest(Context context, String fileName) {
+		return CacheDBHandler.getHandler(context).getDigest(fileName);
+	}
+	public static void setCacheDigest(Context context, String fileName, String digest) {
+		CacheDBHandler.getHandler(context).setDigest(fileName, digest);
+	}
+
+	private static class KryoState {
+		private final Kryo kryo = new Kryo();
+		private Output output;
+		private Input input;
+
+		private KryoState() {
+			kryo.register(MusicDirectory.Entry.class);
+			kryo.register(Indexes.class);
+			kryo.register(Artist.class);
+			kryo.register(MusicFolder.class);
+			kryo.register(PodcastChannel.class);
+			kryo.register(Playlist.class);
+			kryo.register(Genre.class);
+		}
+
+		private Output getOutput() {
+			if(output == null || output.getBuffer().length > MAX_RETAINED_BUFFER) {
+				output = new Output(4096, -1);
+			} else {
+				output.clear();
+			}
+			return output;
+		}
+
+		private Input getInput() {
+			if(input == null) {
+				input = new Input();
+			}
+			return input;
+		}
 	}
 }
@@ -224,10 +224,17 @@ public class ImageLoader {
 			task.execute();
 			return task;
 		} else if(entry != null && entry.getCoverArt() == null && entry.isDirectory() && !Util.isOffline(context)) {
-			// Try to lookup child cover art
-			MusicDirectory.Entry firstChild = FileUtil.lookupChild(context, entry, true);
+			// Try to lookup child cover art, anything not already in memory is left for the task to look up
+			MusicDirectory.Entry firstChild = FileUtil.peekChild(context, entry);
 			if(firstChild != null) {
 				entry.setCoverArt(firstChild.getCoverArt());
+			} else if(!FileUtil.isChildMissing(context, entry)) {
+				if (!large) {
+					setImage(view, null, false);
+				}
+				ImageTask task = new ViewImageTask(view.getContext(), entry, size, imageSizeLarge, large, view, crossfade);
+				task.execute();
+				return task;
 			}
 		}
 
@@ -428,6 +435,7 @@ public class ImageLoader {
 		private final int mSaveSize;
 		private final boolean mIsNowPlaying;
 		protected Drawable mDrawable;
+		private String mChildCoverArt;
 
 		public ImageTask(Context context, MusicDirectory.Entry entry, int size, int saveSize, boolean isNowPlaying) {
 			super(context);
@@ -441,10 +449,24 @@ public class ImageLoader {
 		@Override
 		protected Void doInBackground() throws Throwable {
 			try {
-				MusicService musicService = MusicServiceFactory.getMusicService(mContext);
-				Bitmap bitmap = musicService.getCoverArt(mContext, mEntry, mSize, null, this);
+				// Entry is shared with whatever is showing it, so it is only changed from done
+				MusicDirectory.Entry entry = mEntry;
+				if(entry.getCoverArt() == null && entry.isDirectory()) {
+					MusicDirectory.Entry firstChild = FileUtil.lookupChild(mContext, entry, true);
+					if(firstChild != null) {
+						mChildCoverArt = firstChild.getCoverArt();
+						entry = entry.copy();
+						entry.setCoverArt(mChildCoverArt);
+					}
+				}
+
+				Bitmap bitmap = null;
+				if(entry.getCoverArt() != null) {
+					MusicService musicService = MusicServiceFactory.getMusicService(mContext);
+					bitmap = musicService.getCoverArt(mContext, entry, mSize, null, this);
+				}
 				if(bitmap != null) {
-					String key = getKey(mEntry.getCoverArt(), mSize);
+					String key = getKey(entry.getCoverArt(), mSize);
 					cache.put(key, bitmap);
 					// Make sure key is the most recently "used"
 					cache.get(key);
@@ -463,6 +485,13 @@ public class ImageLoader {
 
 			return null;
 		}
+
+		@Override
+		protected void done(Void result) {
+			if(mChildCoverArt != null && mEntry.getCoverArt() == null) {
+				mEntry.setCoverArt(mChildCoverArt);
+			}
+		}
 	}
 
 	private class ViewImageTask extends ImageTask {
@@ -478,6 +507,7 @@ public class ImageLoader {
 
 		@Override
 		protected void done(Void result) {
+			super.done(result);
 			setImage(mView, mDrawable, mCrossfade);
 		}
 	}
@@ -493,6 +523,7 @@ public class ImageLoader {
 
 		@Override
 		protected void done(Void result) {
+			super.done(result);
 			setImage(mEntry, mRemoteControl, mDrawable);
 		}
 	}
@@ -541,15 +572,13 @@ public class ImageLoader {
 						}
 					};
 				} else {
+					MusicDirectory.Entry firstChild = null;
 					if (mEntry != null && mEntry.getCoverArt() == null && mEntry.isDirectory() && !Util.isOffline(context)) {
-						// Try to lookup child cover art
-						MusicDirectory.Entry firstChild = FileUtil.lookupChild(context, mEntry, true);
-						if (firstChild != null) {
-							mEntry.setCoverArt(firstChild.getCoverArt());
-						}
+						// Try to lookup child cover art, the image task picks it up from there
+						firstChild = FileUtil.lookupChild(context, mEntry, true);
 					}
 
-					if (mEntry != null && mEntry.getCoverArt() != null) {
+					if (mEntry != null && (mEntry.getCoverArt() != null || firstChild != null)) {
 						subTask = new ViewImageTask(mContext, mEntry, mSize, mSaveSize, mIsNowPlaying, mView, mCrossfade);
 					} else {
 						// If entry is null as well, we need to just set as a blank image
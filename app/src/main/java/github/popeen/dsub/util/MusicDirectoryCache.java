@@ -0,0 +1,113 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import github.popeen.dsub.domain.MusicDirectory;
+
+/**
+ * Recently used directories kept in memory in front of the serialized cache.  Every entry remembers when the copy in
+ * the cache database was written, so anything written since, including from the sync process, is never served.
+ */
+public class MusicDirectoryCache {
+	private static final String TAG = MusicDirectoryCache.class.getSimpleName();
+	// Sized in entries instead of directories since a starred list can be as big as a hundred albums
+	private static final int MAX_ENTRIES = 5000;
+
+	private static MusicDirectoryCache instance;
+
+	private final LruCache<String, CachedDirectory> cache;
+
+	public static synchronized MusicDirectoryCache getInstance() {
+		if(instance == null) {
+			instance = new MusicDirectoryCache();
+		}
+		return instance;
+	}
+
+	private MusicDirectoryCache() {
+		cache = new LruCache<String, CachedDirectory>(MAX_ENTRIES) {
+			@Override
+			protected int sizeOf(String key, CachedDirectory value) {
+				return value.directory.getChildrenSize() + 1;
+			}
+		};
+	}
+
+	/**
+	 * @param modified When the cache database says it was last written
+	 */
+	public MusicDirectory get(String name, long modified) {
+		CachedDirectory cached = cache.get(name);
+		if(cached == null) {
+			return null;
+		}
+
+		if(cached.modified != modified) {
+			cache.remove(name);
+			return null;
+		}
+
+		// Callers sort the list and change the entries they get back (starring, bookmarks) before the cache updaters
+		// compare against what is stored, so nothing handed out can share anything with the copy kept here
+		return cached.directory.deepCopy();
+	}
+
+	public void put(String name, MusicDirectory directory, long modified) {
+		cache.put(name, new CachedDirectory(directory.deepCopy(), modified));
+	}
+
+	/**
+	 * Carry a cached directory over to a new modified time if it is still the one written at the old time
+	 */
+	public void touch(String name, long oldModified, long modified) {
+		CachedDirectory cached = cache.get(name);
+		if(cached != null && cached.modified == oldModified) {
+			cache.put(name, new CachedDirectory(cached.directory, modified));
+		}
+	}
+
+	public void remove(String name) {
+		cache.remove(name);
+	}
+
+	public void clear() {
+		cache.evictAll();
+	}
+
+	public void onLowMemory(float percent) {
+		Log.i(TAG, "Cache size: " + cache.size() + " => " + Math.round(MAX_ENTRIES * (1 - percent)) + " out of " + cache.maxSize());
+		cache.resize(Math.max(1, Math.round(MAX_ENTRIES * (1 - percent))));
+	}
+	public void onUIVisible() {
+		if(cache.maxSize() != MAX_ENTRIES) {
+			Log.i(TAG, "Returned to full cache size");
+			cache.resize(MAX_ENTRIES);
+		}
+	}
+
+	private static class CachedDirectory {
+		private final MusicDirectory directory;
+		private final long modified;
+
+		private CachedDirectory(MusicDirectory directory, long modified) {
+			this.directory = directory;
+			this.modified = modified;
+		}
+	}
+}
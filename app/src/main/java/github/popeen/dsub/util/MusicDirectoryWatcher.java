@@ -0,0 +1,359 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Watches every folder in the music directory for files being added, removed or renamed, whether by downloads or by
+ * the user copying files in, and hands them out in batches once things have been quiet for a moment.  FileObserver only
+ * watches a single folder, so there is one for each folder, added and dropped as folders come and go.
+ */
+public class MusicDirectoryWatcher {
+	private static final String TAG = MusicDirectoryWatcher.class.getSimpleName();
+	private static final int EVENTS = FileObserver.CREATE | FileObserver.CLOSE_WRITE | FileObserver.DELETE | FileObserver.MOVED_FROM | FileObserver.MOVED_TO;
+	// How long to wait after the last change before handing out the batch
+	private static final long BATCH_DELAY = 1000L;
+
+	private static MusicDirectoryWatcher instance;
+
+	private final Context context;
+	private final Handler handler;
+	private final Map<String, DirectoryObserver> observers = new HashMap<String, DirectoryObserver>();
+	private final List<OnFilesChangedListener> listeners = new CopyOnWriteArrayList<OnFilesChangedListener>();
+	private File root;
+	// Bumped every time watching starts over, so anyone keeping track knows changes might have been missed in between
+	private int watchId = 0;
+	private Changes pending = new Changes();
+	// A move out of a folder is only a rename if the move into the new name comes right after it
+	private File movedFrom;
+
+	private final Runnable flush = new Runnable() {
+		@Override
+		public void run() {
+			Changes changes;
+			synchronized (MusicDirectoryWatcher.this) {
+				movedOut();
+				changes = pending;
+				pending = new Changes();
+			}
+
+			if(changes.isEmpty()) {
+				return;
+			}
+			for(OnFilesChangedListener listener: listeners) {
+				try {
+					listener.onFilesChanged(changes);
+				} catch(Exception e) {
+					Log.w(TAG, "Failed to handle changes to music directory", e);
+				}
+			}
+		}
+	};
+
+	private MusicDirectoryWatcher(Context context) {
+		this.context = context;
+		HandlerThread thread = new HandlerThread(TAG);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+	}
+
+	public static synchronized MusicDirectoryWatcher getWatcher(Context context) {
+		if(instance == null) {
+			instance = new MusicDirectoryWatcher(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * Start watching the current music directory, or move over to it if it isn't the one being watched.  Once started
+	 * it keeps watching for as long as the process lives, so the watch id only changes along with the music directory.
+	 */
+	public void start() {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				File dir = FileUtil.getMusicDirectory(context);
+				synchronized (MusicDirectoryWatcher.this) {
+					if(dir.equals(root)) {
+						return;
+					}
+					stopWatching();
+					root = dir;
+					watchId++;
+				}
+
+				long start = System.currentTimeMillis();
+				watch(dir, null);
+				Log.i(TAG, "Watching " + observers.size() + " folders in " + dir + " after " + (System.currentTimeMillis() - start) + " ms");
+			}
+		});
+	}
+	private synchronized void stopWatching() {
+		for(DirectoryObserver observer: observers.values()) {
+			observer.stopWatching();
+		}
+		observers.clear();
+		pending = new Changes();
+		movedFrom = null;
+	}
+
+	/**
+	 * Id of the current run of watching dir, or -1 when it isn't being watched.  Anything built from walking dir can be
+	 * kept up to date from the changes as long as this stays the same.
+	 */
+	public synchronized int getWatchId(File dir) {
+		return dir.equals(root) ? watchId : -1;
+	}
+	/**
+	 * Same as getWatchId, but only once everything start was asked to do before has been done, so anything
+	 * walked after this returns is covered by the changes.  Not to be called from a listener.
+	 */
+	public int awaitWatchId(File dir) throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		});
+		latch.await();
+		return getWatchId(dir);
+	}
+
+	public void addOnFilesChangedListener(OnFilesChangedListener listener) {
+		listeners.add(listener);
+	}
+	public void removeOnFilesChangedListener(OnFilesChangedListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Watch a folder and everything under it
+	 * @param added Everything already in it goes in here, for folders that showed up after watching started
+	 */
+	private void watch(File dir, Changes added) {
+		synchronized (this) {
+			if(root == null || observers.containsKey(dir.getPath())) {
+				return;
+			}
+
+			DirectoryObserver observer = new DirectoryObserver(dir);
+			observers.put(dir.getPath(), observer);
+			observer.startWatching();
+		}
+
+		File[] files = dir.listFiles();
+		if(files == null) {
+			return;
+		}
+		for(File file: files) {
+			if(file.isDirectory()) {
+				if(added != null) {
+					added.add(file);
+				}
+				watch(file, added);
+			} else if(added != null) {
+				added.add(file);
+			}
+		}
+	}
+	private synchronized void unwatch(File dir) {
+		String prefix = dir.getPath() + "/";
+		Iterator<Map.Entry<String, DirectoryObserver>> it = observers.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<String, DirectoryObserver> entry = it.next();
+			if(entry.getKey().equals(dir.getPath()) || entry.getKey().startsWith(prefix)) {
+				entry.getValue().stopWatching();
+				it.remove();
+			}
+		}
+	}
+
+	private synchronized void onEvent(final File file, int event) {
+		if(event == FileObserver.MOVED_TO && movedFrom != null) {
+			final File from = movedFrom;
+			movedFrom = null;
+			pending.rename(from, file);
+
+			if(file.isDirectory()) {
+				// Paths the observers were started with are now wrong
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						unwatch(from);
+						watch(file, null);
+					}
+				});
+			}
+		} else {
+			movedOut();
+
+			switch(event) {
+				case FileObserver.CREATE:
+				case FileObserver.MOVED_TO:
+					if(file.isDirectory()) {
+						pending.add(file);
+						// Anything copied in along with it might have landed before it was being watched
+						handler.post(new Runnable() {
+							@Override
+							public void run() {
+								Changes added = new Changes();
+								watch(file, added);
+								synchronized (MusicDirectoryWatcher.this) {
+									pending.added.addAll(added.added);
+								}
+							}
+						});
+					} else if(event == FileObserver.MOVED_TO) {
+						pending.add(file);
+					}
+					// Regular files are only added once they are done being written
+					break;
+				case FileObserver.CLOSE_WRITE:
+					pending.add(file);
+					break;
+				case FileObserver.MOVED_FROM:
+					movedFrom = file;
+					break;
+				case FileObserver.DELETE:
+					pending.remove(file);
+					handler.post(new Runnable() {
+						@Override
+						public void run() {
+							unwatch(file);
+						}
+					});
+					break;
+			}
+		}
+
+		handler.removeCallbacks(flush);
+		handler.postDelayed(flush, BATCH_DELAY);
+	}
+
+	/**
+	 * Nothing came in to match the last move out of a folder, so it was moved out of the music directory
+	 */
+	private synchronized void movedOut() {
+		if(movedFrom == null) {
+			return;
+		}
+
+		final File file = movedFrom;
+		movedFrom = null;
+		pending.remove(file);
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				unwatch(file);
+			}
+		});
+	}
+
+	/**
+	 * Only sees what changed during the current run of watching, nothing from before it started, like while the app was
+	 * closed.
+	 * Anything built from walking the music directory has to remember the getWatchId it was walked under and walk it
+	 * again once that changes, like UsedSpaceLedger and OfflineCatalog do.  Listeners that only act on the changes
+	 * themselves, like MediaStoreService, don't need to.
+	 */
+	public interface OnFilesChangedListener {
+		/**
+		 * Called on the watcher's own thread, so it is fine to do slow work here
+		 */
+		void onFilesChanged(Changes changes);
+	}
+
+	/**
+	 * A batch of changes, to be applied as removed, then renamed, then added
+	 */
+	public static class Changes {
+		public final Set<File> added = new LinkedHashSet<File>();
+		public final Set<File> removed = new LinkedHashSet<File>();
+		public final Map<File, File> renamed = new LinkedHashMap<File, File>();
+
+		private void add(File file) {
+			added.add(file);
+		}
+		private void remove(File file) {
+			// Renamed and then deleted under its new name, as far as anyone else knows it is the old name that is gone
+			File from = getRenamedFrom(file);
+			if(from != null) {
+				renamed.remove(from);
+				removed.add(from);
+			} else if(!added.remove(file)) {
+				// Something that came and went within the same batch was never there as far as anyone else knows
+				removed.add(file);
+			}
+		}
+		private void rename(File from, File to) {
+			File original = getRenamedFrom(from);
+			if(added.remove(from)) {
+				added.add(to);
+			} else if(original != null) {
+				// Renamed twice, only the first and last names matter
+				renamed.put(original, to);
+			} else {
+				renamed.put(from, to);
+			}
+		}
+		private File getRenamedFrom(File to) {
+			for(Map.Entry<File, File> rename: renamed.entrySet()) {
+				if(rename.getValue().equals(to)) {
+					return rename.getKey();
+				}
+			}
+			return null;
+		}
+
+		public boolean isEmpty() {
+			return added.isEmpty() && removed.isEmpty() && renamed.isEmpty();
+		}
+	}
+
+	private class DirectoryObserver extends FileObserver {
+		private final File dir;
+
+		private DirectoryObserver(File dir) {
+			super(dir.getPath(), EVENTS);
+			this.dir = dir;
+		}
+
+		@Override
+		public void onEvent(int event, String path) {
+			if(path == null) {
+				return;
+			}
+			MusicDirectoryWatcher.this.onEvent(new File(dir, path), event & FileObserver.ALL_EVENTS);
+		}
+	}
+}
@@ -0,0 +1,668 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import github.popeen.dsub.domain.MusicDirectory.Entry;
+import github.popeen.dsub.domain.PodcastEpisode;
+import github.popeen.dsub.util.tags.BastpUtil;
+
+/**
+ * Everything in the music directory along with what had to be read from disk to show it offline: sizes, tags,
+ * durations and whether there is album art.  Built once in the background by walking the whole directory, only
+ * reading tags from files that are new or changed since the last walk, and after that kept up to date as downloads
+ * finish and files are deleted.  Offline browsing answers from here once it is built instead of walking the directory.
+ */
+public class OfflineCatalog extends SQLiteOpenHelper implements MusicDirectoryWatcher.OnFilesChangedListener {
+	private static final String TAG = OfflineCatalog.class.getSimpleName();
+	private static OfflineCatalog catalog;
+
+	private static final int DATABASE_VERSION = 2;
+	public static final String DATABASE_NAME = "OfflineCatalog.db";
+
+	public static final String TABLE_FILES = "OfflineFiles";
+	public static final String FILES_PATH = "path";
+	public static final String FILES_PARENT = "parent";
+	public static final String FILES_DIRECTORY = "directory";
+	public static final String FILES_SIZE = "size";
+	public static final String FILES_MODIFIED = "modified";
+	public static final String FILES_ARTIST = "artist";
+	public static final String FILES_ALBUM = "album";
+	public static final String FILES_DISC_NUMBER = "discNumber";
+	public static final String FILES_BIT_RATE = "bitRate";
+	public static final String FILES_DURATION = "duration";
+	public static final String FILES_COVER_ART = "coverArt";
+	public static final String FILES_GENRE = "genre";
+	public static final String FILES_YEAR = "year";
+	private static final String[] COLUMNS = {FILES_PATH, FILES_DIRECTORY, FILES_SIZE, FILES_MODIFIED, FILES_ARTIST, FILES_ALBUM,
+			FILES_DISC_NUMBER, FILES_BIT_RATE, FILES_DURATION, FILES_COVER_ART, FILES_GENRE, FILES_YEAR};
+
+	// How many changed files a scan reads before writing them out
+	private static final int SCAN_BATCH_SIZE = 100;
+
+	private final Context context;
+	private final ExecutorService scanner = Executors.newSingleThreadExecutor();
+	private final Object scanLock = new Object();
+	private boolean scanQueued = false;
+	// Run of the watcher the last scan was kept up to date by, anything that changed outside of it hasn't been seen
+	private volatile int watchId = -1;
+	private final List<OnCatalogChangedListener> listeners = new CopyOnWriteArrayList<OnCatalogChangedListener>();
+
+	private OfflineCatalog(Context context) {
+		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		this.context = context;
+	}
+
+	public static synchronized OfflineCatalog getCatalog(Context context) {
+		if(catalog == null) {
+			catalog = new OfflineCatalog(context.getApplicationContext());
+			MusicDirectoryWatcher.getWatcher(context).addOnFilesChangedListener(catalog);
+		}
+		return catalog;
+	}
+
+	@Override
+	public void onCreate(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_FILES + " ( " +
+				FILES_PATH + " TEXT PRIMARY KEY, " +
+				FILES_PARENT + " TEXT NOT NULL, " +
+				FILES_DIRECTORY + " INTEGER NOT NULL, " +
+				FILES_SIZE + " INTEGER NOT NULL, " +
+				FILES_MODIFIED + " INTEGER NOT NULL, " +
+				FILES_ARTIST + " TEXT, " +
+				FILES_ALBUM + " TEXT, " +
+				FILES_DISC_NUMBER + " INTEGER, " +
+				FILES_BIT_RATE + " INTEGER, " +
+				FILES_DURATION + " INTEGER, " +
+				FILES_COVER_ART + " TEXT, " +
+				FILES_GENRE + " TEXT, " +
+				FILES_YEAR + " INTEGER)");
+		db.execSQL("CREATE INDEX " + TABLE_FILES + "_parent ON " + TABLE_FILES + " (" + FILES_PARENT + ")");
+	}
+
+	@Override
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		// Can always be built again from the files themselves
+		db.execSQL("DROP TABLE IF EXISTS " + TABLE_FILES);
+		this.onCreate(db);
+		Util.getPreferences(context).edit().remove(Constants.PREFERENCES_KEY_OFFLINE_CATALOG_ROOT).commit();
+	}
+
+	/**
+	 * Whether a full scan of the current music directory has finished, before that callers should look at the files
+	 */
+	public boolean isReady() {
+		String root = Util.getPreferences(context).getString(Constants.PREFERENCES_KEY_OFFLINE_CATALOG_ROOT, null);
+		return root != null && root.equals(FileUtil.getMusicDirectory(context).getPath());
+	}
+	/**
+	 * Whether the watcher has been watching since the last scan, otherwise files might have been added or deleted while
+	 * nothing was watching, like while the app was closed, and it needs to be scanned again before it can be trusted
+	 */
+	public boolean isCurrent() {
+		int id = MusicDirectoryWatcher.getWatcher(context).getWatchId(FileUtil.getMusicDirectory(context));
+		return isReady() && id != -1 && id == watchId;
+	}
+
+	/**
+	 * Start a scan unless one is already waiting or running
+	 */
+	public void scanInBackground() {
+		synchronized (scanLock) {
+			if(scanQueued) {
+				return;
+			}
+			scanQueued = true;
+		}
+
+		scanner.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scan();
+				} catch(Exception e) {
+					Log.e(TAG, "Failed to scan offline files", e);
+				} finally {
+					// Anything that changes while it is running is picked up from the watcher, no need for another one
+					synchronized (scanLock) {
+						scanQueued = false;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Walk the music directory, only reading files whose size or modified time changed since they were last read
+	 */
+	public void scan() {
+		long start = System.currentTimeMillis();
+		File root = FileUtil.getMusicDirectory(context);
+		// Anything that changes while walking is picked up from the watcher instead
+		MusicDirectoryWatcher watcher = MusicDirectoryWatcher.getWatcher(context);
+		watcher.start();
+		int id;
+		try {
+			id = watcher.awaitWatchId(root);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		Map<String, long[]> known = new HashMap<String, long[]>();
+		Cursor cursor = getReadableDatabase().query(TABLE_FILES, new String[] {FILES_PATH, FILES_SIZE, FILES_MODIFIED}, null, null, null, null, null);
+		try {
+			while(cursor.moveToNext()) {
+				known.put(cursor.getString(0), new long[] {cursor.getLong(1), cursor.getLong(2)});
+			}
+		} finally {
+			cursor.close();
+		}
+
+		Set<String> seen = new HashSet<String>();
+		List<Metadata> changed = new ArrayList<Metadata>();
+		int read = scan(root, root.getPath(), known, seen, changed);
+		write(changed);
+
+		List<String> removed = new ArrayList<String>();
+		for(String path: known.keySet()) {
+			if(!seen.contains(path)) {
+				removed.add(path);
+			}
+		}
+		delete(removed);
+
+		Util.getPreferences(context).edit().putString(Constants.PREFERENCES_KEY_OFFLINE_CATALOG_ROOT, root.getPath()).commit();
+		watchId = id;
+		Log.i(TAG, "Scanned " + seen.size() + " offline files in " + (System.currentTimeMillis() - start) + " ms, read " + read + " and removed " + removed.size());
+	}
+	private int scan(File dir, String root, Map<String, long[]> known, Set<String> seen, List<Metadata> changed) {
+		int read = 0;
+		for(File file: FileUtil.listMediaFiles(dir)) {
+			boolean directory = file.isDirectory();
+			if(getName(file, directory) == null) {
+				continue;
+			}
+
+			seen.add(file.getPath());
+			long[] last = known.get(file.getPath());
+			if(last == null || (!directory && (last[0] != file.length() || last[1] != file.lastModified()))) {
+				changed.add(Metadata.read(context, file, root, true));
+				storeReplayGain(file);
+				read++;
+
+				if(changed.size() >= SCAN_BATCH_SIZE) {
+					write(changed);
+					changed.clear();
+				}
+			}
+
+			if(directory) {
+				read += scan(file, root, known, seen, changed);
+			}
+		}
+		return read;
+	}
+
+	/**
+	 * Stored for playback while the file is being read for the catalog anyways, browsing the files never does this
+	 */
+	private void storeReplayGain(File file) {
+		if(!file.isDirectory() && FileUtil.isMusicFile(file)) {
+			try {
+				BastpUtil.storeReplayGainValues(context, file);
+			} catch(Exception e) {
+				Log.w(TAG, "Failed to store replay gain for " + file, e);
+			}
+		}
+	}
+
+	public void addOnCatalogChangedListener(OnCatalogChangedListener listener) {
+		listeners.add(listener);
+	}
+	public void removeOnCatalogChangedListener(OnCatalogChangedListener listener) {
+		listeners.remove(listener);
+	}
+
+	public Metadata getMetadata(File file) {
+		Cursor cursor = getReadableDatabase().query(TABLE_FILES, COLUMNS, FILES_PATH + " = ?", new String[] { file.getPath() }, null, null, null);
+		try {
+			if(cursor.moveToFirst()) {
+				return new Metadata(cursor);
+			}
+		} finally {
+			cursor.close();
+		}
+		return null;
+	}
+
+	/**
+	 * In the same order FileUtil.listFiles would list them
+	 */
+	public List<Metadata> getChildren(File dir) {
+		return query(FILES_PARENT + " = ?", new String[] { dir.getPath() });
+	}
+	public List<Metadata> getAll() {
+		return query(null, null);
+	}
+	public List<Metadata> getFiles() {
+		return query(FILES_DIRECTORY + " = 0", null);
+	}
+	private List<Metadata> query(String selection, String[] selectionArgs) {
+		List<Metadata> result = new ArrayList<Metadata>();
+		Cursor cursor = getReadableDatabase().query(TABLE_FILES, COLUMNS, selection, selectionArgs, null, null, FILES_PATH);
+		try {
+			while(cursor.moveToNext()) {
+				result.add(new Metadata(cursor));
+			}
+		} finally {
+			cursor.close();
+		}
+		return result;
+	}
+
+	/**
+	 * A file finished downloading or otherwise showed up in the music directory
+	 */
+	public void fileAdded(File file) {
+		if(getName(file) == null || !file.exists()) {
+			return;
+		}
+
+		// Downloads are added as they finish, and then again once the watcher sees them
+		Metadata existing = getMetadata(file);
+		if(existing != null && (existing.directory || (existing.size == file.length() && existing.modified == file.lastModified()))) {
+			return;
+		}
+
+		try {
+			String root = FileUtil.getMusicDirectory(context).getPath();
+			List<Metadata> added = new ArrayList<Metadata>();
+			added.add(Metadata.read(context, file, root, true));
+			storeReplayGain(file);
+
+			// Make sure the folders it is in can be browsed to as well
+			for(File parent = file.getParentFile(); parent != null && parent.getPath().startsWith(root + "/"); parent = parent.getParentFile()) {
+				if(getMetadata(parent) != null) {
+					break;
+				}
+				added.add(Metadata.read(context, parent, root, false));
+			}
+			write(added);
+
+			// Album art is downloaded along with the first song, so the rest of the album might not have known about it
+			Metadata metadata = added.get(0);
+			if(metadata.coverArt != null) {
+				ContentValues values = new ContentValues();
+				values.put(FILES_COVER_ART, metadata.coverArt);
+				String dir = file.getParent();
+				if(getWritableDatabase().update(TABLE_FILES, values, "(" + FILES_PARENT + " = ? OR " + FILES_PATH + " = ?) AND " + FILES_COVER_ART + " IS NULL", new String[] { dir, dir }) > 0) {
+					List<Metadata> updated = getChildren(file.getParentFile());
+					updated.add(getMetadata(file.getParentFile()));
+					notifyAdded(updated);
+				}
+			}
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to add " + file + " to offline catalog", e);
+		}
+	}
+	/**
+	 * A file or folder was deleted from the music directory, anything under a folder goes with it
+	 */
+	public void fileRemoved(File file) {
+		try {
+			String path = file.getPath();
+			// Read from the file, so it is no good once the file is gone and a new one shows up under the same name
+			BastpUtil.removeReplayGainValues(context, path);
+			// Everything that starts with path + '/', without having to escape LIKE patterns
+			if(getWritableDatabase().delete(TABLE_FILES, FILES_PATH + " = ? OR (" + FILES_PATH + " >= ? AND " + FILES_PATH + " < ?)", new String[] { path, path + "/", path + "0" }) > 0) {
+				for(OnCatalogChangedListener listener: listeners) {
+					listener.onFileRemoved(file);
+				}
+			}
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to remove " + file + " from offline catalog", e);
+		}
+	}
+	/**
+	 * Pinned or unpinned, the contents didn't change so there is nothing to read again
+	 */
+	public void fileRenamed(File from, File to) {
+		try {
+			ContentValues values = new ContentValues();
+			values.put(FILES_PATH, to.getPath());
+			values.put(FILES_PARENT, to.getParent());
+			values.put(FILES_MODIFIED, to.lastModified());
+			SQLiteDatabase db = getWritableDatabase();
+			db.delete(TABLE_FILES, FILES_PATH + " = ?", new String[] { to.getPath() });
+			if(db.update(TABLE_FILES, values, FILES_PATH + " = ?", new String[] { from.getPath() }) == 0) {
+				fileAdded(to);
+			} else {
+				for(OnCatalogChangedListener listener: listeners) {
+					listener.onFileRemoved(from);
+				}
+				List<Metadata> renamed = new ArrayList<Metadata>();
+				renamed.add(getMetadata(to));
+				notifyAdded(renamed);
+			}
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to rename " + from + " in offline catalog", e);
+		}
+	}
+
+	/**
+	 * Files copied in, deleted or moved around in the music directory by anyone, including the app itself
+	 */
+	@Override
+	public void onFilesChanged(MusicDirectoryWatcher.Changes changes) {
+		// Nothing to keep up to date until the first scan has built it, which will see all of these anyways, only the
+		// ReplayGain read from deleted files has to go
+		if(!isReady()) {
+			for(File file: changes.removed) {
+				BastpUtil.removeReplayGainValues(context, file.getPath());
+			}
+			return;
+		}
+		// Watching started over since the last scan, so whatever happened in between has to be found by scanning again
+		if(!isCurrent()) {
+			scanInBackground();
+		}
+
+		for(File file: changes.removed) {
+			fileRemoved(file);
+		}
+		for(Map.Entry<File, File> rename: changes.renamed.entrySet()) {
+			if(rename.getValue().isDirectory()) {
+				// Everything under it has a new path as well
+				fileRemoved(rename.getKey());
+				addTree(rename.getValue());
+			} else if(getMetadata(rename.getKey()) == null) {
+				// Never made it in under its old name, like a download that was still partial
+				fileAdded(rename.getValue());
+			} else {
+				fileRenamed(rename.getKey(), rename.getValue());
+			}
+		}
+		for(File file: changes.added) {
+			fileAdded(file);
+		}
+	}
+	private void addTree(File dir) {
+		fileAdded(dir);
+		for(File file: FileUtil.listMediaFiles(dir)) {
+			if(file.isDirectory()) {
+				addTree(file);
+			} else {
+				fileAdded(file);
+			}
+		}
+	}
+
+	private void write(List<Metadata> files) {
+		if(files.isEmpty()) {
+			return;
+		}
+
+		SQLiteDatabase db = getWritableDatabase();
+		db.beginTransaction();
+		try {
+			for(Metadata metadata: files) {
+				ContentValues values = new ContentValues();
+				values.put(FILES_PATH, metadata.file.getPath());
+				values.put(FILES_PARENT, metadata.file.getParent());
+				values.put(FILES_DIRECTORY, metadata.directory ? 1 : 0);
+				values.put(FILES_SIZE, metadata.size);
+				values.put(FILES_MODIFIED, metadata.modified);
+				values.put(FILES_ARTIST, metadata.artist);
+				values.put(FILES_ALBUM, metadata.album);
+				values.put(FILES_DISC_NUMBER, metadata.discNumber);
+				values.put(FILES_BIT_RATE, metadata.bitRate);
+				values.put(FILES_DURATION, metadata.duration);
+				values.put(FILES_COVER_ART, metadata.coverArt);
+				values.put(FILES_GENRE, metadata.genre);
+				values.put(FILES_YEAR, metadata.year);
+				db.insertWithOnConflict(TABLE_FILES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+
+		notifyAdded(files);
+	}
+	private void notifyAdded(List<Metadata> files) {
+		// Scans reuse the list they pass in here
+		List<Metadata> added = new ArrayList<Metadata>(files);
+		for(OnCatalogChangedListener listener: listeners) {
+			listener.onFilesAdded(added);
+		}
+	}
+	private void delete(List<String> paths) {
+		if(paths.isEmpty()) {
+			return;
+		}
+
+		SQLiteDatabase db = getWritableDatabase();
+		db.beginTransaction();
+		try {
+			for(String path: paths) {
+				db.delete(TABLE_FILES, FILES_PATH + " = ?", new String[] { path });
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+
+		for(String path: paths) {
+			for(OnCatalogChangedListener listener: listeners) {
+				listener.onFileRemoved(new File(path));
+			}
+		}
+	}
+
+	/**
+	 * Name shown for a file, null for anything that isn't shown at all
+	 */
+	public static String getName(File file) {
+		return getName(file, file.isDirectory());
+	}
+	public static String getName(File file, boolean directory) {
+		String name = file.getName();
+		if (directory) {
+			return name;
+		}
+
+		if (name.endsWith(".partial") || name.contains(".partial.") || name.equals(Constants.ALBUM_ART_FILE)) {
+			return null;
+		}
+
+		name = name.replace(".complete", "");
+		return FileUtil.getBaseName(name);
+	}
+
+	/**
+	 * Build what is shown for a file from its path and what was read from it, without going to disk
+	 */
+	public static Entry createEntry(File file, String name, String root, Metadata metadata, boolean isPodcast) {
+		Entry entry;
+		if(isPodcast) {
+			PodcastEpisode episode = new PodcastEpisode();
+			episode.setStatus("completed");
+			entry = episode;
+		} else {
+			entry = new Entry();
+		}
+		entry.setDirectory(metadata.directory);
+		entry.setId(file.getPath());
+		entry.setParent(file.getParent());
+		entry.setSize(metadata.size);
+		if(!file.getParentFile().getParentFile().getPath().equals(root)) {
+			entry.setGrandParent(file.getParentFile().getParent());
+		}
+		entry.setPath(file.getPath().replaceFirst("^" + root + "/" , ""));
+		String title = name;
+		if (!metadata.directory) {
+			File artistFolder = file.getParentFile().getParentFile();
+			File albumFolder = file.getParentFile();
+			if(artistFolder.getPath().equals(root)) {
+				entry.setArtist(albumFolder.getName());
+			} else {
+				entry.setArtist(artistFolder.getName());
+			}
+			entry.setAlbum(albumFolder.getName());
+
+			int index = name.indexOf('-');
+			if(index != -1) {
+				try {
+					entry.setTrack(Integer.parseInt(name.substring(0, index)));
+					title = title.substring(index + 1);
+				} catch(Exception e) {
+					// Failed parseInt, just means track filled out
+				}
+			}
+
+			if(metadata.discNumber != null) {
+				entry.setDiscNumber(metadata.discNumber);
+			}
+			if(metadata.bitRate != null) {
+				entry.setBitRate(metadata.bitRate);
+			}
+			if(metadata.duration != null) {
+				entry.setDuration(metadata.duration);
+			}
+			if(metadata.artist != null) {
+				entry.setArtist(metadata.artist);
+			}
+			if(metadata.album != null) {
+				entry.setAlbum(metadata.album);
+			}
+			if(metadata.genre != null) {
+				entry.setGenre(metadata.genre);
+			}
+			if(metadata.year != null) {
+				entry.setYear(metadata.year);
+			}
+		}
+
+		entry.setTitle(title);
+		entry.setSuffix(FileUtil.getExtension(file.getName().replace(".complete", "")));
+		entry.setCoverArt(metadata.coverArt);
+		if(FileUtil.isVideoFile(file)) {
+			entry.setVideo(true);
+		}
+		return entry;
+	}
+
+	public interface OnCatalogChangedListener {
+		/**
+		 * Files that are new or were read again, along with any folders they are in that weren't known yet
+		 */
+		void onFilesAdded(List<Metadata> files);
+		/**
+		 * A file is gone, or a folder along with everything in it
+		 */
+		void onFileRemoved(File file);
+	}
+
+	public static class Metadata {
+		public final File file;
+		public final boolean directory;
+		private long size;
+		private long modified;
+		private String artist;
+		private String album;
+		private Integer discNumber;
+		private Integer bitRate;
+		private Integer duration;
+		private String coverArt;
+		private String genre;
+		private Integer year;
+
+		Metadata(File file, boolean directory) {
+			this.file = file;
+			this.directory = directory;
+		}
+		private Metadata(Cursor cursor) {
+			file = new File(cursor.getString(0));
+			directory = cursor.getInt(1) == 1;
+			size = cursor.getLong(2);
+			modified = cursor.getLong(3);
+			artist = cursor.getString(4);
+			album = cursor.getString(5);
+			discNumber = cursor.isNull(6) ? null : cursor.getInt(6);
+			bitRate = cursor.isNull(7) ? null : cursor.getInt(7);
+			duration = cursor.isNull(8) ? null : cursor.getInt(8);
+			coverArt = cursor.getString(9);
+			genre = cursor.getString(10);
+			year = cursor.isNull(11) ? null : cursor.getInt(11);
+		}
+
+		/**
+		 * @param loadTags Read the tags as well, which is by far the slowest part
+		 */
+		public static Metadata read(Context context, File file, String root, boolean loadTags) {
+			Metadata metadata = new Metadata(file, file.isDirectory());
+			metadata.size = file.length();
+			metadata.modified = file.lastModified();
+
+			if(!metadata.directory && loadTags) {
+				Entry tags = new Entry();
+				tags.loadMetadata(file);
+				metadata.artist = tags.getArtist();
+				metadata.album = tags.getAlbum();
+				metadata.discNumber = tags.getDiscNumber();
+				metadata.bitRate = tags.getBitRate();
+				metadata.duration = tags.getDuration();
+				metadata.genre = tags.getGenre();
+				metadata.year = tags.getYear();
+			}
+
+			String name = getName(file, metadata.directory);
+			File albumArt = FileUtil.getAlbumArtFile(context, createEntry(file, name == null ? file.getName() : name, root, metadata, false));
+			if(albumArt.exists()) {
+				metadata.coverArt = albumArt.getPath();
+			}
+			return metadata;
+		}
+
+		/**
+		 * Null when the file has no genre tag or its tags haven't been read
+		 */
+		public String getGenre() {
+			return genre;
+		}
+		public Integer getYear() {
+			return year;
+		}
+	}
+}
@@ -0,0 +1,358 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import github.popeen.dsub.domain.Artist;
+import github.popeen.dsub.domain.MusicDirectory.Entry;
+import github.popeen.dsub.domain.SearchCritera;
+import github.popeen.dsub.domain.SearchResult;
+
+/**
+ * Artist, album and song names from the offline catalog, indexed by every two and three character piece of them so a
+ * search only has to look at names that share the rarest piece of the query.  Matches and ranks the same way
+ * OfflineMusicService did when it walked the files: every space separated part of the query in order, closest first.
+ */
+public class OfflineSearchIndex implements OfflineCatalog.OnCatalogChangedListener {
+	private static final String TAG = OfflineSearchIndex.class.getSimpleName();
+	private static final int TYPE_ARTIST = 0;
+	private static final int TYPE_ALBUM = 1;
+	private static final int TYPE_SONG = 2;
+	// Rebuild the piece lists once this many names have been removed and at least half of them are gone
+	private static final int MIN_COMPACT = 1000;
+
+	private static OfflineSearchIndex instance;
+
+	private final String root;
+	private final List<Item> items = new ArrayList<Item>();
+	private final Map<String, Item> byPath = new HashMap<String, Item>();
+	private final Map<String, IntList> grams = new HashMap<String, IntList>();
+	private int removed = 0;
+
+	/**
+	 * Only call once the catalog is current, it is loaded from whatever the catalog has at the time.  Never looks at the
+	 * files or the watcher itself, whatever a rescan of the catalog finds comes through its changes like anything else.
+	 */
+	public static synchronized OfflineSearchIndex getIndex(Context context) {
+		String root = FileUtil.getMusicDirectory(context).getPath();
+		if(instance == null || !instance.root.equals(root)) {
+			OfflineCatalog catalog = OfflineCatalog.getCatalog(context);
+			if(instance != null) {
+				catalog.removeOnCatalogChangedListener(instance);
+			}
+
+			instance = new OfflineSearchIndex(root);
+			// Changes that come in while loading wait for it to finish instead of being applied to half an index
+			synchronized (instance) {
+				catalog.addOnCatalogChangedListener(instance);
+				instance.onFilesAdded(catalog.getAll());
+			}
+		}
+		return instance;
+	}
+
+	OfflineSearchIndex(String root) {
+		this.root = root;
+	}
+
+	@Override
+	public synchronized void onFilesAdded(List<OfflineCatalog.Metadata> files) {
+		for(OfflineCatalog.Metadata metadata: files) {
+			if(metadata != null) {
+				add(metadata);
+			}
+		}
+	}
+	private void add(OfflineCatalog.Metadata metadata) {
+		String path = metadata.file.getPath();
+		if(!path.startsWith(root + "/")) {
+			return;
+		}
+
+		String name = OfflineCatalog.getName(metadata.file, metadata.directory);
+		if(name == null) {
+			return;
+		}
+
+		String[] parts = path.substring(root.length() + 1).split("/");
+		int type;
+		String album = null;
+		if(parts.length == 1) {
+			// Only folders in the root are artists, there is nothing to find in loose files there
+			if(!metadata.directory) {
+				return;
+			}
+			type = TYPE_ARTIST;
+		} else if(metadata.directory) {
+			type = TYPE_ALBUM;
+		} else {
+			type = TYPE_SONG;
+			// Songs directly in an artist's folder are their own album
+			album = parts.length == 2 ? name : metadata.file.getParentFile().getName();
+		}
+
+		Item existing = byPath.get(path);
+		if(existing != null) {
+			existing.removed = true;
+			removed++;
+		}
+
+		Item item = new Item(items.size(), metadata, name, type, parts[0], album);
+		items.add(item);
+		byPath.put(path, item);
+		for(String gram: getGrams(item.lowerName)) {
+			IntList list = grams.get(gram);
+			if(list == null) {
+				list = new IntList();
+				grams.put(gram, list);
+			}
+			list.add(item.index);
+		}
+	}
+
+	@Override
+	public synchronized void onFileRemoved(File file) {
+		String path = file.getPath();
+		Item item = byPath.remove(path);
+		if(item != null) {
+			item.removed = true;
+			removed++;
+		}
+
+		// Only folders can have anything under them
+		if(item == null || item.metadata.directory) {
+			String prefix = path + "/";
+			Iterator<Map.Entry<String, Item>> it = byPath.entrySet().iterator();
+			while(it.hasNext()) {
+				Map.Entry<String, Item> entry = it.next();
+				if(entry.getKey().startsWith(prefix)) {
+					entry.getValue().removed = true;
+					removed++;
+					it.remove();
+				}
+			}
+		}
+
+		if(removed >= MIN_COMPACT && removed * 2 >= items.size()) {
+			compact();
+		}
+	}
+	private void compact() {
+		List<Item> live = new ArrayList<Item>(byPath.values());
+		Collections.sort(live, new Comparator<Item>() {
+			@Override
+			public int compare(Item lhs, Item rhs) {
+				return lhs.index < rhs.index ? -1 : (lhs.index == rhs.index ? 0 : 1);
+			}
+		});
+
+		items.clear();
+		byPath.clear();
+		grams.clear();
+		removed = 0;
+		for(Item item: live) {
+			add(item.metadata);
+		}
+	}
+
+	public synchronized SearchResult search(SearchCritera criteria) {
+		String query = criteria.getQuery().toLowerCase();
+		List<String> parts = new ArrayList<String>();
+		for(String part: query.split("[ *]+")) {
+			if(part.length() > 0) {
+				parts.add(part);
+			}
+		}
+
+		// Only look at names that have the rarest piece of any part of the query, or everything for single characters
+		IntList candidates = null;
+		for(String part: parts) {
+			for(String gram: getQueryGrams(part)) {
+				IntList list = grams.get(gram);
+				if(list == null) {
+					return new SearchResult(new ArrayList<Artist>(), new ArrayList<Entry>(), new ArrayList<Entry>());
+				} else if(candidates == null || list.size < candidates.size) {
+					candidates = list;
+				}
+			}
+		}
+
+		List<PriorityQueue<Match>> matches = new ArrayList<PriorityQueue<Match>>();
+		int[] limits = {criteria.getArtistCount(), criteria.getAlbumCount(), criteria.getSongCount()};
+		for(int i = 0; i < limits.length; i++) {
+			matches.add(new PriorityQueue<Match>(Math.max(1, limits[i] + 1), WORST_FIRST));
+		}
+
+		int count = candidates == null ? items.size() : candidates.size;
+		for(int i = 0; i < count; i++) {
+			Item item = items.get(candidates == null ? i : candidates.values[i]);
+			if(item.removed || limits[item.type] <= 0 || !matches(item.lowerName, parts)) {
+				continue;
+			}
+
+			int closeness = Util.getStringDistance(query, item.lowerName);
+			if(closeness <= 0) {
+				continue;
+			}
+
+			PriorityQueue<Match> queue = matches.get(item.type);
+			queue.add(new Match(item, closeness));
+			if(queue.size() > limits[item.type]) {
+				queue.poll();
+			}
+		}
+
+		List<Artist> artists = new ArrayList<Artist>();
+		for(Match match: sorted(matches.get(TYPE_ARTIST))) {
+			Artist artist = new Artist();
+			artist.setId(match.item.metadata.file.getPath());
+			artist.setIndex(match.item.name.substring(0, 1));
+			artist.setName(match.item.name);
+			artist.setCloseness(match.closeness);
+			artists.add(artist);
+		}
+		return new SearchResult(artists, createEntries(matches.get(TYPE_ALBUM)), createEntries(matches.get(TYPE_SONG)));
+	}
+
+	public synchronized int size() {
+		return byPath.size();
+	}
+
+	private List<Entry> createEntries(PriorityQueue<Match> queue) {
+		List<Entry> entries = new ArrayList<Entry>();
+		for(Match match: sorted(queue)) {
+			Entry entry = OfflineCatalog.createEntry(match.item.metadata.file, match.item.name, root, match.item.metadata, false);
+			entry.setArtist(match.item.artist);
+			if(match.item.album != null) {
+				entry.setAlbum(match.item.album);
+			}
+			entry.setCloseness(match.closeness);
+			entries.add(entry);
+		}
+		return entries;
+	}
+	private static List<Match> sorted(PriorityQueue<Match> queue) {
+		List<Match> list = new ArrayList<Match>(queue);
+		Collections.sort(list, Collections.reverseOrder(WORST_FIRST));
+		return list;
+	}
+
+	/**
+	 * Same as the regular expression from SearchCritera.getPattern, every part somewhere in the name in order
+	 */
+	private static boolean matches(String name, List<String> parts) {
+		int from = 0;
+		for(String part: parts) {
+			int index = name.indexOf(part, from);
+			if(index == -1) {
+				return false;
+			}
+			from = index + part.length();
+		}
+		return true;
+	}
+
+	private static Set<String> getGrams(String name) {
+		Set<String> result = new HashSet<String>();
+		for(int length = 2; length <= 3; length++) {
+			for(int i = 0; i + length <= name.length(); i++) {
+				result.add(name.substring(i, i + length));
+			}
+		}
+		return result;
+	}
+	private static List<String> getQueryGrams(String part) {
+		if(part.length() < 2) {
+			return Collections.emptyList();
+		} else if(part.length() == 2) {
+			return Arrays.asList(part);
+		}
+
+		List<String> result = new ArrayList<String>();
+		for(int i = 0; i + 3 <= part.length(); i++) {
+			result.add(part.substring(i, i + 3));
+		}
+		return result;
+	}
+
+	// Closest is the one with the highest closeness, same as the old sort, and ties go to whichever was indexed first
+	private static final Comparator<Match> WORST_FIRST = new Comparator<Match>() {
+		@Override
+		public int compare(Match lhs, Match rhs) {
+			if(lhs.closeness != rhs.closeness) {
+				return lhs.closeness < rhs.closeness ? -1 : 1;
+			}
+			return lhs.item.index > rhs.item.index ? -1 : (lhs.item.index == rhs.item.index ? 0 : 1);
+		}
+	};
+
+	private static class Item {
+		private final int index;
+		private final OfflineCatalog.Metadata metadata;
+		private final String name;
+		private final String lowerName;
+		private final int type;
+		private final String artist;
+		private final String album;
+		private boolean removed = false;
+
+		private Item(int index, OfflineCatalog.Metadata metadata, String name, int type, String artist, String album) {
+			this.index = index;
+			this.metadata = metadata;
+			this.name = name;
+			this.lowerName = name.toLowerCase();
+			this.type = type;
+			this.artist = artist;
+			this.album = album;
+		}
+	}
+
+	private static class Match {
+		private final Item item;
+		private final int closeness;
+
+		private Match(Item item, int closeness) {
+			this.item = item;
+			this.closeness = closeness;
+		}
+	}
+
+	private static class IntList {
+		private int[] values = new int[4];
+		private int size = 0;
+
+		private void add(int value) {
+			if(size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Every playable file in the offline catalog held in an array so a random one can be picked without walking anything,
+ * along with one per genre.  Kept up to date from the catalog's changes, a removed song swaps the last one into its place.
+ */
+public class OfflineSongPool implements OfflineCatalog.OnCatalogChangedListener {
+	// How many picks per song asked for are tried before going through all of them for a year range that few songs are in
+	private static final int MAX_TRIES_PER_SONG = 20;
+
+	private static OfflineSongPool instance;
+
+	private final String root;
+	private final Random random = new Random();
+	private final Pool songs = new Pool();
+	private final Map<String, Pool> genres = new HashMap<String, Pool>();
+	private int withYear = 0;
+
+	/**
+	 * Only call once the catalog is current, it is loaded from whatever the catalog has at the time.  Never looks at the
+	 * files or the watcher itself, whatever a rescan of the catalog finds comes through its changes like anything else.
+	 */
+	public static synchronized OfflineSongPool getPool(Context context) {
+		String root = FileUtil.getMusicDirectory(context).getPath();
+		if(instance == null || !instance.root.equals(root)) {
+			OfflineCatalog catalog = OfflineCatalog.getCatalog(context);
+			if(instance != null) {
+				catalog.removeOnCatalogChangedListener(instance);
+			}
+
+			instance = new OfflineSongPool(root);
+			// Changes that come in while loading wait for it to finish instead of being applied to half a pool
+			synchronized (instance) {
+				catalog.addOnCatalogChangedListener(instance);
+				instance.onFilesAdded(catalog.getFiles());
+			}
+		}
+		return instance;
+	}
+
+	OfflineSongPool(String root) {
+		this.root = root;
+	}
+
+	@Override
+	public synchronized void onFilesAdded(List<OfflineCatalog.Metadata> files) {
+		for(OfflineCatalog.Metadata metadata: files) {
+			if(metadata == null || metadata.directory || !metadata.file.getPath().startsWith(root + "/")) {
+				continue;
+			}
+
+			remove(metadata.file.getPath());
+			songs.add(metadata);
+			String genre = getGenreKey(metadata.getGenre());
+			if(genre != null) {
+				Pool pool = genres.get(genre);
+				if(pool == null) {
+					pool = new Pool();
+					genres.put(genre, pool);
+				}
+				pool.add(metadata);
+			}
+			if(metadata.getYear() != null) {
+				withYear++;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void onFileRemoved(File file) {
+		String path = file.getPath();
+		if(remove(path)) {
+			return;
+		}
+
+		// Not a song, so it might be a folder with songs in it
+		String prefix = path + "/";
+		for(int i = songs.size - 1; i >= 0; i--) {
+			if(i < songs.size && songs.values[i].file.getPath().startsWith(prefix)) {
+				remove(songs.values[i].file.getPath());
+			}
+		}
+	}
+	private boolean remove(String path) {
+		OfflineCatalog.Metadata metadata = songs.remove(path);
+		if(metadata == null) {
+			return false;
+		}
+
+		String genre = getGenreKey(metadata.getGenre());
+		if(genre != null) {
+			Pool pool = genres.get(genre);
+			pool.remove(path);
+			if(pool.size == 0) {
+				genres.remove(genre);
+			}
+		}
+		if(metadata.getYear() != null) {
+			withYear--;
+		}
+		return true;
+	}
+
+	/**
+	 * Picks without repeats as long as there are enough songs to.  Genre and year are only filtered on once at least
+	 * one song has that tag, without them every song is a candidate.
+	 */
+	public synchronized List<OfflineCatalog.Metadata> getRandomSongs(int size, String genre, String startYear, String endYear) {
+		List<OfflineCatalog.Metadata> result = new ArrayList<OfflineCatalog.Metadata>();
+
+		Pool pool = songs;
+		String genreKey = getGenreKey(genre);
+		if(genreKey != null && !genres.isEmpty()) {
+			pool = genres.get(genreKey);
+			if(pool == null) {
+				return result;
+			}
+		}
+
+		Integer start = parseYear(startYear);
+		Integer end = parseYear(endYear);
+		if(withYear == 0) {
+			start = end = null;
+		}
+
+		if(pool.size == 0 || size <= 0) {
+			return result;
+		}
+
+		// Most of the time almost every pick is in range, only go through them all when that doesn't find enough
+		Set<Integer> picked = new HashSet<Integer>();
+		int tries = size * MAX_TRIES_PER_SONG;
+		for(int i = 0; i < tries && result.size() < size && picked.size() < pool.size; i++) {
+			int index = random.nextInt(pool.size);
+			OfflineCatalog.Metadata metadata = pool.values[index];
+			if(isInRange(metadata, start, end) && picked.add(index)) {
+				result.add(metadata);
+			}
+		}
+
+		if(result.size() < size && (start != null || end != null)) {
+			List<OfflineCatalog.Metadata> inRange = new ArrayList<OfflineCatalog.Metadata>();
+			for(int i = 0; i < pool.size; i++) {
+				if(!picked.contains(i) && isInRange(pool.values[i], start, end)) {
+					inRange.add(pool.values[i]);
+				}
+			}
+
+			while(result.size() < size && !inRange.isEmpty()) {
+				int index = random.nextInt(inRange.size());
+				result.add(inRange.get(index));
+				inRange.set(index, inRange.get(inRange.size() - 1));
+				inRange.remove(inRange.size() - 1);
+			}
+		}
+
+		return result;
+	}
+
+	public synchronized int size() {
+		return songs.size;
+	}
+
+	private static boolean isInRange(OfflineCatalog.Metadata metadata, Integer start, Integer end) {
+		if(start == null && end == null) {
+			return true;
+		}
+
+		Integer year = metadata.getYear();
+		return year != null && (start == null || year >= start) && (end == null || year <= end);
+	}
+	private static Integer parseYear(String year) {
+		if(year == null || year.length() == 0) {
+			return null;
+		}
+
+		try {
+			return Integer.parseInt(year);
+		} catch(NumberFormatException e) {
+			return null;
+		}
+	}
+	private static String getGenreKey(String genre) {
+		if(genre == null || genre.trim().length() == 0) {
+			return null;
+		}
+		return genre.trim().toLowerCase();
+	}
+
+	private static class Pool {
+		private OfflineCatalog.Metadata[] values = new OfflineCatalog.Metadata[16];
+		private int size = 0;
+		private final Map<String, Integer> positions = new HashMap<String, Integer>();
+
+		private void add(OfflineCatalog.Metadata metadata) {
+			if(size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			positions.put(metadata.file.getPath(), size);
+			values[size++] = metadata;
+		}
+
+		private OfflineCatalog.Metadata remove(String path) {
+			Integer index = positions.remove(path);
+			if(index == null) {
+				return null;
+			}
+
+			OfflineCatalog.Metadata metadata = values[index];
+			size--;
+			if(index != size) {
+				values[index] = values[size];
+				positions.put(values[index].file.getPath(), index);
+			}
+			values[size] = null;
+			return metadata;
+		}
+	}
+}
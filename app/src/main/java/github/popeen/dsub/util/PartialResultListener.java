@@ -0,0 +1,27 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+import java.util.List;
+
+import github.popeen.dsub.domain.MusicDirectory;
+
+/**
+ * Implemented alongside ProgressListener by anything that wants to show the start of a long list while the rest of
+ * it is still being parsed.  Called from the parsing thread with a copy of everything parsed so far.
+ */
+public interface PartialResultListener {
+	void onPartialResult(List<MusicDirectory.Entry> entries);
+}
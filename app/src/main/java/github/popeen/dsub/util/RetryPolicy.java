@@ -0,0 +1,56 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+import java.util.Random;
+
+/**
+ * Decides how many times a failed request is attempted and how long to wait in between.  The wait doubles on each
+ * attempt up to a cap, and a random part is added so clients that failed together don't all retry together.
+ */
+public class RetryPolicy {
+	private final int maxAttempts;
+	private final long baseDelay;
+	private final long maxDelay;
+	private final Random random = new Random();
+
+	public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public boolean shouldRetry(int attempts) {
+		return attempts < maxAttempts;
+	}
+
+	/**
+	 * @param attempts Number of attempts that have already failed, starting at 1
+	 * @return Milliseconds to wait before the next attempt, somewhere between half and all of the backoff
+	 */
+	public long getDelay(int attempts) {
+		long delay = baseDelay << Math.min(Math.max(attempts - 1, 0), 16);
+		delay = Math.min(delay, maxDelay);
+
+		long half = delay / 2;
+		synchronized (random) {
+			return half + (long) (random.nextDouble() * (delay - half));
+		}
+	}
+}
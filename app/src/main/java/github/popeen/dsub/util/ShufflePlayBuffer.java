@@ -18,7 +18,6 @@
  */
 package github.popeen.dsub.util;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executors;
@@ -143,6 +142,7 @@ public class ShufflePlayBuffer {
 				lastCount = 0;
 				for(MusicDirectory.Entry entry: songs.getChildren()) {
 					if(!buffer.contains(entry) && entry.getRating() != 1) {
+						EntryInterner.intern(entry);
 						buffer.add(entry);
 						lastCount++;
 					}
@@ -201,8 +201,7 @@ public class ShufflePlayBuffer {
 					firstRun = false;
 				} else {
 					// Clear cache
-					File file = new File(context.getCacheDir(), CACHE_FILENAME);
-					file.delete();
+					FileUtil.deleteSerialized(context, CACHE_FILENAME);
 				}
 			}
 		}
@@ -0,0 +1,124 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Lets concurrent callers asking for the same key share a single execution.  The first caller runs the call and
+ * everyone who shows up while it is still in flight waits for and gets the same result or exception.  If it only failed
+ * because the caller running it was cancelled, everyone still waiting runs it again instead.
+ */
+public class SingleFlight<T> {
+	private static final String TAG = SingleFlight.class.getSimpleName();
+
+	private final Map<String, Call<T>> calls = new HashMap<String, Call<T>>();
+	private long executed = 0;
+	private long deduplicated = 0;
+
+	/**
+	 * Waiting on someone else's call can be cancelled by interrupting the thread, same as running it
+	 */
+	public T execute(String key, Callable<T> callable) throws Exception {
+		while(true) {
+			Call<T> call;
+			boolean leader = false;
+			synchronized (calls) {
+				call = calls.get(key);
+				if(call != null) {
+					deduplicated++;
+				} else {
+					call = new Call<T>();
+					calls.put(key, call);
+					executed++;
+					leader = true;
+				}
+			}
+
+			if(!leader) {
+				Log.d(TAG, "Joined in flight call for " + key);
+				call.latch.await();
+				if(call.abandoned) {
+					// Says nothing about how it would go for anyone else
+					continue;
+				}
+				if(call.error != null) {
+					throw call.error;
+				}
+				return call.result;
+			}
+
+			T result = null;
+			Exception error = null;
+			boolean finished = false;
+			try {
+				result = callable.call();
+				finished = true;
+				return result;
+			} catch(Exception e) {
+				error = e;
+				finished = true;
+				throw e;
+			} finally {
+				// Gone before anyone wakes up, so whoever runs it again doesn't find this one
+				synchronized (calls) {
+					calls.remove(key);
+				}
+
+				if(finished) {
+					call.complete(result, error, error != null && isCancelled(error));
+				} else {
+					// Don't leave anyone waiting forever if the call died with an Error
+					call.complete(null, new Exception("In flight call for " + key + " failed"), false);
+				}
+			}
+		}
+	}
+
+	private static boolean isCancelled(Exception e) {
+		return e instanceof InterruptedException || Thread.currentThread().isInterrupted();
+	}
+
+	public long getExecutedCount() {
+		synchronized (calls) {
+			return executed;
+		}
+	}
+	public long getDeduplicatedCount() {
+		synchronized (calls) {
+			return deduplicated;
+		}
+	}
+
+	private static class Call<T> {
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private T result;
+		private Exception error;
+		private boolean abandoned;
+
+		private void complete(T result, Exception error, boolean abandoned) {
+			this.result = result;
+			this.error = error;
+			this.abandoned = abandoned;
+			latch.countDown();
+		}
+	}
+}
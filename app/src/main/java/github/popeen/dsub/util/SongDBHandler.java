@@ -32,7 +32,7 @@ public class SongDBHandler extends SQLiteOpenHelper {
 	private static final String TAG = SongDBHandler.class.getSimpleName();
 	private static SongDBHandler dbHandler;
 
-	private static final int DATABASE_VERSION = 2;
+	private static final int DATABASE_VERSION = 3;
 	public static final String DATABASE_NAME = "SongsDB";
 
 	public static final String TABLE_SONGS = "RegisteredSongs";
@@ -43,6 +43,12 @@ public class SongDBHandler extends SQLiteOpenHelper {
 	public static final String SONGS_LAST_PLAYED = "lastPlayed";
 	public static final String SONGS_LAST_COMPLETED = "lastCompleted";
 
+	public static final String TABLE_REPLAY_GAIN = "ReplayGain";
+	public static final String REPLAY_GAIN_PATH = "path";
+	public static final String REPLAY_GAIN_MODIFIED = "modified";
+	public static final String REPLAY_GAIN_TRACK = "trackGain";
+	public static final String REPLAY_GAIN_ALBUM = "albumGain";
+
 	private Context context;
 
 	private SongDBHandler(Context context) {
@@ -60,12 +66,26 @@ public class SongDBHandler extends SQLiteOpenHelper {
 				SONGS_LAST_PLAYED + " INTEGER, " +
 				SONGS_LAST_COMPLETED + " INTEGER, " +
 				"UNIQUE(" + SONGS_SERVER_KEY + ", " + SONGS_SERVER_ID + "))");
+		createReplayGainTable(db);
+	}
+	private void createReplayGainTable(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_REPLAY_GAIN + " ( " +
+				REPLAY_GAIN_PATH + " TEXT PRIMARY KEY, " +
+				REPLAY_GAIN_MODIFIED + " INTEGER NOT NULL, " +
+				REPLAY_GAIN_TRACK + " REAL NOT NULL, " +
+				REPLAY_GAIN_ALBUM + " REAL NOT NULL)");
 	}
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		db.execSQL("DROP TABLE IF EXISTS " + TABLE_SONGS);
-		this.onCreate(db);
+		if(oldVersion < 2) {
+			db.execSQL("DROP TABLE IF EXISTS " + TABLE_SONGS);
+			db.execSQL("DROP TABLE IF EXISTS " + TABLE_REPLAY_GAIN);
+			this.onCreate(db);
+		} else if(oldVersion < 3) {
+			// Only the ReplayGain table is new, keep what has been played
+			createReplayGainTable(db);
+		}
 	}
 
 	public JSONArray exportData() {
@@ -289,6 +309,55 @@ public class SongDBHandler extends SQLiteOpenHelper {
 		}
 	}
 
+	/**
+	 * ReplayGain as <track,album> read from the file at path, or null if it hasn't been read since the file last changed
+	 */
+	public synchronized float[] getReplayGain(String path, long modified) {
+		SQLiteDatabase db = this.getReadableDatabase();
+
+		String[] columns = {REPLAY_GAIN_TRACK, REPLAY_GAIN_ALBUM};
+		Cursor cursor = db.query(TABLE_REPLAY_GAIN, columns, REPLAY_GAIN_PATH + " = ? AND " + REPLAY_GAIN_MODIFIED + " = ?", new String[] { path, Long.toString(modified) }, null, null, null, null);
+		try {
+			if(cursor.moveToFirst()) {
+				return new float[] {cursor.getFloat(0), cursor.getFloat(1)};
+			}
+			return null;
+		} finally {
+			cursor.close();
+		}
+	}
+	public synchronized void setReplayGain(String path, long modified, float[] gain) {
+		SQLiteDatabase db = this.getWritableDatabase();
+
+		ContentValues values = new ContentValues();
+		values.put(REPLAY_GAIN_PATH, path);
+		values.put(REPLAY_GAIN_MODIFIED, modified);
+		values.put(REPLAY_GAIN_TRACK, gain[0]);
+		values.put(REPLAY_GAIN_ALBUM, gain[1]);
+		db.insertWithOnConflict(TABLE_REPLAY_GAIN, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+	}
+	/**
+	 * Pinned or unpinned, the file itself didn't change so there is nothing to read again
+	 */
+	public synchronized void renameReplayGain(String from, String to, long modified) {
+		SQLiteDatabase db = this.getWritableDatabase();
+
+		db.delete(TABLE_REPLAY_GAIN, REPLAY_GAIN_PATH + " = ?", new String[] { to });
+		ContentValues values = new ContentValues();
+		values.put(REPLAY_GAIN_PATH, to);
+		values.put(REPLAY_GAIN_MODIFIED, modified);
+		db.update(TABLE_REPLAY_GAIN, values, REPLAY_GAIN_PATH + " = ?", new String[] { from });
+	}
+	/**
+	 * The file at path was deleted, or the folder at path along with everything in it
+	 */
+	public synchronized void deleteReplayGain(String path) {
+		SQLiteDatabase db = this.getWritableDatabase();
+
+		// Everything that starts with path + '/', without having to escape LIKE patterns
+		db.delete(TABLE_REPLAY_GAIN, REPLAY_GAIN_PATH + " = ? OR (" + REPLAY_GAIN_PATH + " >= ? AND " + REPLAY_GAIN_PATH + " < ?)", new String[] { path, path + "/", path + "0" });
+	}
+
 	public static SongDBHandler getHandler(Context context) {
 		if(dbHandler == null) {
 			dbHandler = new SongDBHandler(context);
@@ -2,7 +2,6 @@ package github.popeen.dsub.util;
 
 import android.content.Context;
 
-import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -116,7 +115,7 @@ public final class SyncUtil {
 		if(!podcasts.contains(set)) {
 			podcasts.add(set);
 		}
-		FileUtil.serialize(context, podcasts, podcastFile);
+		FileUtil.serialize(context, podcasts, podcastFile, true);
 		syncedPodcasts = podcasts;
 	}
 	public static void removeSyncedPodcast(Context context, String podcastId) {
@@ -128,7 +127,7 @@ public final class SyncUtil {
 		SyncSet set = new SyncSet(podcastId);
 		if(podcasts.contains(set)) {
 			podcasts.remove(set);
-			FileUtil.serialize(context, podcasts, podcastFile);
+			FileUtil.serialize(context, podcasts, podcastFile, true);
 			syncedPodcasts = podcasts;
 		}
 	}
@@ -166,8 +165,7 @@ public final class SyncUtil {
 	public static void removeMostRecentSyncFiles(Context context) {
 		int total = Util.getServerCount(context);
 		for(int i = 0; i < total; i++) {
-			File file = new File(context.getCacheDir(), getMostRecentSyncFile(context, i));
-			file.delete();
+			FileUtil.deleteSerialized(context, getMostRecentSyncFile(context, i));
 		}
 	}
 	public static String getMostRecentSyncFile(Context context, int instance) {
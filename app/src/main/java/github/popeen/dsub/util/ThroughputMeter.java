@@ -0,0 +1,65 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+
+/**
+ * Tracks a smoothed bytes/sec rate of whatever is fed to it.  Safe to feed from several threads at once.
+ */
+public class ThroughputMeter {
+	// How often the rate is recalculated and how much weight each new sample gets
+	private static final long SAMPLE_INTERVAL = 500L;
+	private static final double SMOOTHING = 0.3;
+
+	private long sampleBytes = 0;
+	private long sampleStart = 0;
+	private double bytesPerSecond = 0;
+
+	public synchronized void add(long bytes) {
+		long now = System.currentTimeMillis();
+		if(sampleStart == 0) {
+			sampleStart = now;
+		}
+
+		sampleBytes += bytes;
+
+		long elapsed = now - sampleStart;
+		if(elapsed >= SAMPLE_INTERVAL) {
+			double sample = sampleBytes * 1000.0 / elapsed;
+			if(bytesPerSecond == 0) {
+				bytesPerSecond = sample;
+			} else {
+				bytesPerSecond = bytesPerSecond + SMOOTHING * (sample - bytesPerSecond);
+			}
+
+			sampleBytes = 0;
+			sampleStart = now;
+		}
+	}
+
+	public synchronized long getBytesPerSecond() {
+		// Don't keep reporting an old rate if nothing has come in for a while
+		if(sampleStart != 0 && System.currentTimeMillis() - sampleStart > SAMPLE_INTERVAL * 10) {
+			return 0;
+		}
+		return (long) bytesPerSecond;
+	}
+
+	public synchronized void reset() {
+		sampleBytes = 0;
+		sampleStart = 0;
+		bytesPerSecond = 0;
+	}
+}
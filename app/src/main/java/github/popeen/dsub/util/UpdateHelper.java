@@ -29,7 +29,9 @@ import android.widget.RatingBar;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import github.popeen.dsub.R;
 import github.popeen.dsub.domain.Artist;
@@ -254,45 +256,59 @@ public final class UpdateHelper {
 	}
 
 	public static abstract class EntryInstanceUpdater {
-		private Entry entry;
+		private Map<String, Entry> entries;
 		protected int metadataUpdate = DownloadService.METADATA_UPDATED_ALL;
 
 		public EntryInstanceUpdater(Entry entry) {
-			this.entry = entry;
+			this.entries = Collections.singletonMap(entry.getId(), entry);
 		}
 		public EntryInstanceUpdater(Entry entry, int metadataUpdate) {
-			this.entry = entry;
+			this(entry);
 			this.metadataUpdate = metadataUpdate;
 		}
+		/**
+		 * Update a whole batch of entries by id, with the play queue only being saved and told about it once
+		 */
+		public EntryInstanceUpdater(Map<String, Entry> entries) {
+			this.entries = entries;
+		}
 
 		public abstract void update(Entry found);
 
 		public void execute() {
+			if(entries.isEmpty()) {
+				return;
+			}
+
 			DownloadService downloadService = DownloadService.getInstance();
-			if(downloadService != null && !entry.isDirectory()) {
+			if(downloadService != null) {
 				boolean serializeChanges = false;
+				boolean currentUpdated = false;
 				List<DownloadFile> downloadFiles = downloadService.getDownloads();
 				DownloadFile currentPlaying = downloadService.getCurrentPlaying();
 
 				for(DownloadFile file: downloadFiles) {
 					Entry check = file.getSong();
-					if(entry.getId().equals(check.getId())) {
+					Entry entry = entries.get(check.getId());
+					if(entry != null && !entry.isDirectory()) {
 						update(check);
 						serializeChanges = true;
 
 						if(currentPlaying != null && currentPlaying.getSong() != null && currentPlaying.getSong().getId().equals(entry.getId())) {
-							downloadService.onMetadataUpdate(metadataUpdate);
+							currentUpdated = true;
 						}
 					}
 				}
 
+				if(currentUpdated) {
+					downloadService.onMetadataUpdate(metadataUpdate);
+				}
 				if(serializeChanges) {
 					downloadService.serializeQueue();
 				}
 			}
 
-			Entry find = UpdateView.findEntry(entry);
-			if(find != null) {
+			for(Entry find: UpdateView.findEntries(entries)) {
 				update(find);
 			}
 		}
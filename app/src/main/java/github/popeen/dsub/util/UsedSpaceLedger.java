@@ -0,0 +1,132 @@
+/*
+	This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2016 (C) Scott Jackson
+*/
+
+package github.popeen.dsub.util;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Size of every media file in the music directory, walked once and then kept up to date from the watcher so the space
+ * used can be shown without walking it again.  Only trusted as long as the watcher has been watching since it was walked.
+ */
+public class UsedSpaceLedger implements MusicDirectoryWatcher.OnFilesChangedListener {
+	private static UsedSpaceLedger instance;
+
+	private final MusicDirectoryWatcher watcher;
+	private final Map<String, Long> sizes = new HashMap<String, Long>();
+	private File root;
+	private int watchId = -1;
+	private long permanent = 0;
+	private long size = 0;
+
+	private UsedSpaceLedger(Context context) {
+		watcher = MusicDirectoryWatcher.getWatcher(context);
+		watcher.addOnFilesChangedListener(this);
+	}
+
+	public static synchronized UsedSpaceLedger getLedger(Context context) {
+		if(instance == null) {
+			instance = new UsedSpaceLedger(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * Same as FileUtil.getUsedSize: number of files, how many of them are pinned, and their total size
+	 */
+	public synchronized Long[] getUsedSize(File dir) {
+		int id = watcher.getWatchId(dir);
+		if(!dir.equals(root) || id == -1 || id != watchId) {
+			sizes.clear();
+			permanent = 0;
+			size = 0;
+			root = dir;
+			watchId = id;
+			add(dir);
+		}
+
+		return new Long[] {(long) sizes.size(), permanent, size};
+	}
+
+	@Override
+	public synchronized void onFilesChanged(MusicDirectoryWatcher.Changes changes) {
+		if(root == null) {
+			return;
+		}
+
+		for(File file: changes.removed) {
+			remove(file);
+		}
+		for(Map.Entry<File, File> rename: changes.renamed.entrySet()) {
+			remove(rename.getKey());
+			add(rename.getValue());
+		}
+		for(File file: changes.added) {
+			add(file);
+		}
+	}
+
+	private void add(File file) {
+		if(file.isFile()) {
+			if(FileUtil.isMediaFile(file)) {
+				// Written again in place, so take out what it used to be first
+				remove(file);
+				sizes.put(file.getPath(), file.length());
+				if(isPermanent(file.getPath())) {
+					permanent++;
+				}
+				size += file.length();
+			}
+		} else if(file.isDirectory()) {
+			for(File child: FileUtil.listFiles(file)) {
+				add(child);
+			}
+		}
+	}
+	private void remove(File file) {
+		String path = file.getPath();
+		Long removed = sizes.remove(path);
+		if(removed != null) {
+			removeSize(path, removed);
+			return;
+		}
+
+		// Might have been a folder, in which case everything under it went with it
+		String prefix = path + "/";
+		Iterator<Map.Entry<String, Long>> it = sizes.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<String, Long> entry = it.next();
+			if(entry.getKey().startsWith(prefix)) {
+				removeSize(entry.getKey(), entry.getValue());
+				it.remove();
+			}
+		}
+	}
+	private void removeSize(String path, long removed) {
+		if(isPermanent(path)) {
+			permanent--;
+		}
+		size -= removed;
+	}
+
+	private static boolean isPermanent(String path) {
+		return path.indexOf(".complete") == -1;
+	}
+}
@@ -200,6 +200,7 @@ public final class Util {
 		String userName = prefs.getString(Constants.PREFERENCES_KEY_USERNAME + newInstance, null);
 		String password = prefs.getString(Constants.PREFERENCES_KEY_PASSWORD + newInstance, null);
 		String musicFolderId = prefs.getString(Constants.PREFERENCES_KEY_MUSIC_FOLDER_ID + newInstance, null);
+		String concurrentDownloads = prefs.getString(Constants.PREFERENCES_KEY_SERVER_CONCURRENT_DOWNLOADS + newInstance, null);
 
 		// Store the +1 server details in the to be deleted instance
 		editor.putString(Constants.PREFERENCES_KEY_SERVER_KEY + instance, server);
@@ -208,6 +209,7 @@ public final class Util {
 		editor.putString(Constants.PREFERENCES_KEY_USERNAME + instance, userName);
 		editor.putString(Constants.PREFERENCES_KEY_PASSWORD + instance, password);
 		editor.putString(Constants.PREFERENCES_KEY_MUSIC_FOLDER_ID + instance, musicFolderId);
+		editor.putString(Constants.PREFERENCES_KEY_SERVER_CONCURRENT_DOWNLOADS + instance, concurrentDownloads);
 
 		// Delete the +1 server instance
 		// Calling method will loop up to fill this in if +2 server exists
@@ -217,6 +219,7 @@ public final class Util {
 		editor.putString(Constants.PREFERENCES_KEY_USERNAME + newInstance, null);
 		editor.putString(Constants.PREFERENCES_KEY_PASSWORD + newInstance, null);
 		editor.putString(Constants.PREFERENCES_KEY_MUSIC_FOLDER_ID + newInstance, null);
+		editor.putString(Constants.PREFERENCES_KEY_SERVER_CONCURRENT_DOWNLOADS + newInstance, null);
 		editor.commit();
 
 		if (instance == activeInstance) {
@@ -378,6 +381,20 @@ public final class Util {
         return preloadCount == -1 ? Integer.MAX_VALUE : preloadCount;
     }
 
+	public static int getMaxConcurrentDownloads(Context context) {
+		SharedPreferences prefs = getPreferences(context);
+		int concurrentDownloads = Integer.parseInt(prefs.getString(Constants.PREFERENCES_KEY_CONCURRENT_DOWNLOADS, "2"));
+
+		// Each server can be capped lower than the global setting
+		int instance = getActiveServer(context);
+		int serverLimit = Integer.parseInt(prefs.getString(Constants.PREFERENCES_KEY_SERVER_CONCURRENT_DOWNLOADS + instance, "-1"));
+		if(serverLimit != -1) {
+			concurrentDownloads = Math.min(concurrentDownloads, serverLimit);
+		}
+
+		return Math.max(1, concurrentDownloads);
+	}
+
     public static int getCacheSizeMB(Context context) {
         SharedPreferences prefs = getPreferences(context);
         int cacheSize = Integer.parseInt(prefs.getString(Constants.PREFERENCES_KEY_CACHE_SIZE, "-1"));
@@ -18,9 +18,7 @@
 
 package github.popeen.dsub.util.tags;
 
-import java.io.RandomAccessFile;
 import java.io.IOException;
-import java.util.HashMap;
 
 
 public class Bastp {
@@ -28,22 +26,28 @@ public class Bastp {
 	public Bastp() {
 	}
 	
-	public HashMap getTags(String fname) {
-		HashMap tags = new HashMap();
+	public Tags getTags(String fname) {
+		Tags tags = new Tags();
+		TagReader s = null;
 		try {
-			RandomAccessFile ra = new RandomAccessFile(fname, "r");
-			tags = getTags(ra);
-			ra.close();
+			s = new TagReader(fname);
+			tags = getTags(s);
 		}
 		catch(Exception e) {
 			/* we dont' care much: SOMETHING went wrong. d'oh! */
 		}
+		finally {
+			try {
+				if(s != null)
+					s.close();
+			} catch(IOException e) {}
+		}
 		
 		return tags;
 	}
 	
-	public HashMap getTags(RandomAccessFile s) {
-		HashMap tags = new HashMap();
+	public Tags getTags(TagReader s) {
+		Tags tags = new Tags();
 		byte[] file_ff = new byte[4];
 		
 		try {
@@ -60,26 +64,18 @@ public class Bastp {
 			}
 			else if(magic.substring(0,3).equals("ID3")) {
 				tags = (new ID3v2File()).getTags(s);
-				if(tags.containsKey("_hdrlen")) {
-					Long hlen = Long.parseLong( tags.get("_hdrlen").toString(), 10 );
-					HashMap lameInfo = (new LameHeader()).parseLameHeader(s, hlen);
+				if(tags.getHeaderLength() > 0) {
+					Tags lameInfo = (new LameHeader()).parseLameHeader(s, tags.getHeaderLength());
 					/* add gain tags if not already present */
-					inheritTag("REPLAYGAIN_TRACK_GAIN", lameInfo, tags);
-					inheritTag("REPLAYGAIN_ALBUM_GAIN", lameInfo, tags);
+					tags.inherit(Tags.REPLAYGAIN_TRACK_GAIN, lameInfo);
+					tags.inherit(Tags.REPLAYGAIN_ALBUM_GAIN, lameInfo);
 				}
 			}
-			tags.put("_magic", magic);
+			tags.setMagic(magic);
 		}
 		catch (IOException e) {
 		}
 		return tags;
 	}
 	
-	private void inheritTag(String key, HashMap from, HashMap to) {
-		if(!to.containsKey(key) && from.containsKey(key)) {
-			to.put(key, from.get(key));
-		}
-	}
-	
 }
-
@@ -17,48 +17,79 @@
  
 package github.popeen.dsub.util.tags;
 
+import android.content.Context;
 import android.support.v4.util.LruCache;
-import java.util.HashMap;
-import java.util.Vector;
+
+import java.io.File;
+
+import github.popeen.dsub.util.SongDBHandler;
 
 public final class BastpUtil {
 	private static final RGLruCache rgCache = new RGLruCache(16);
 
-	/** Returns the ReplayGain values of 'path' as <track,album>
+	/** Returns the ReplayGain values of 'path' as <track,album>, only reading
+	 ** the file itself if they weren't stored when it was downloaded or indexed
+	 */
+	public static float[] getReplayGainValues(Context context, String path) {
+		float[] cached = peekReplayGainValues(context, path);
+
+		if(cached == null) {
+			cached = storeReplayGainValues(context, new File(path));
+		}
+		return cached;
+	}
+
+	/** Same as getReplayGainValues, but null instead of reading the file
 	 */
-	public static float[] getReplayGainValues(String path) {
+	public static float[] peekReplayGainValues(Context context, String path) {
 		float[] cached = rgCache.get(path);
 
 		if(cached == null) {
-			cached = getReplayGainValuesFromFile(path);
-			rgCache.put(path, cached);
+			cached = SongDBHandler.getHandler(context).getReplayGain(path, new File(path).lastModified());
+			if(cached != null) {
+				rgCache.put(path, cached);
+			}
 		}
 		return cached;
 	}
+
+	/** Read and store the ReplayGain values of a file that finished downloading
+	 ** or was found offline, unless they are already stored for it as it is now
+	 */
+	public static float[] storeReplayGainValues(Context context, File file) {
+		String path = file.getPath();
+		long modified = file.lastModified();
+		SongDBHandler db = SongDBHandler.getHandler(context);
+
+		float[] values = db.getReplayGain(path, modified);
+		if(values == null) {
+			values = getReplayGainValuesFromFile(path);
+			db.setReplayGain(path, modified, values);
+		}
+		rgCache.put(path, values);
+		return values;
+	}
 	
-	
-	
-	/** Parse given file and return track,album replay gain values
+	/** Forget the ReplayGain values of a deleted file, or of everything in
+	 ** a deleted folder
 	 */
-	private static float[] getReplayGainValuesFromFile(String path) {
-		String[] keys = { "REPLAYGAIN_TRACK_GAIN", "REPLAYGAIN_ALBUM_GAIN" };
-		float[] adjust= { 0f                     , 0f                      };
-		HashMap tags  = (new Bastp()).getTags(path);
-		
-		for (int i=0; i<keys.length; i++) {
-			String curKey = keys[i];
-			if(tags.containsKey(curKey)) {
-				String rg_raw = (String)((Vector)tags.get(curKey)).get(0);
-				String rg_numonly = "";
-				float rg_float = 0f;
-				try {
-					String nums = rg_raw.replaceAll("[^0-9.-]","");
-					rg_float = Float.parseFloat(nums);
-				} catch(Exception e) {}
-				adjust[i] = rg_float;
+	public static void removeReplayGainValues(Context context, String path) {
+		String prefix = path + "/";
+		for(String key : rgCache.snapshot().keySet()) {
+			if(key.equals(path) || key.startsWith(prefix)) {
+				rgCache.remove(key);
 			}
 		}
-		return adjust;
+		SongDBHandler.getHandler(context).deleteReplayGain(path);
+	}
+
+	/** Parse given file and return track,album replay gain values
+	 */
+	private static float[] getReplayGainValuesFromFile(String path) {
+		Tags tags = (new Bastp()).getTags(path);
+		Float track = tags.getTrackGain();
+		Float album = tags.getAlbumGain();
+		return new float[] { track == null ? 0f : track, album == null ? 0f : album };
 	}
 	
 	/** LRU cache for ReplayGain values
@@ -19,9 +19,6 @@
 package github.popeen.dsub.util.tags;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
-import java.util.Vector;
 
 public class Common {
 	private static final long MAX_PKT_SIZE = 524288;
@@ -63,8 +60,8 @@ public class Common {
 		System.out.println("DBUG "+s);
 	}
 	
-	public HashMap parse_vorbis_comment(RandomAccessFile s, long offset, long payload_len) throws IOException {
-		HashMap tags = new HashMap();
+	public Tags parse_vorbis_comment(TagReader s, long offset, long payload_len) throws IOException {
+		Tags tags = new Tags();
 		int comments   = 0;                // number of found comments 
 		int xoff       = 0;                // offset within 'scratch'
 		int can_read   = (int)(payload_len > MAX_PKT_SIZE ? MAX_PKT_SIZE : payload_len);
@@ -92,20 +89,9 @@ public class Common {
 			String[] tag_vec = tag_raw.split("=",2);
 			String   tag_key = tag_vec[0].toUpperCase();
 			
-			addTagEntry(tags, tag_key, tag_vec[1]);
+			tags.add(tag_key, tag_vec[1]);
 		}
 		return tags;
 	}
 	
-	public void addTagEntry(HashMap tags, String key, String value) {
-		if(tags.containsKey(key)) {
-			((Vector)tags.get(key)).add(value); // just add to existing vector
-		}
-		else {
-			Vector vx = new Vector();
-			vx.add(value);
-			tags.put(key, vx);
-		}
-	}
-	
 }
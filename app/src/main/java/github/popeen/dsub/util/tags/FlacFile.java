@@ -18,8 +18,6 @@
 package github.popeen.dsub.util.tags;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
 
 
 public class FlacFile extends Common {
@@ -28,11 +26,11 @@ public class FlacFile extends Common {
 	public FlacFile() {
 	}
 	
-	public HashMap getTags(RandomAccessFile s) throws IOException {
+	public Tags getTags(TagReader s) throws IOException {
 		int xoff  = 4;  // skip file magic
 		int retry = 64;
 		int r[];
-		HashMap tags = new HashMap();
+		Tags tags = new Tags();
 		
 		for(; retry > 0; retry--) {
 			r = parse_metadata_block(s, xoff);
@@ -54,7 +52,7 @@ public class FlacFile extends Common {
 	/* Parses the metadata block at 'offset' and returns
 	** [header_size, payload_size, type, stop_after]
 	*/
-	private int[] parse_metadata_block(RandomAccessFile s, long offset) throws IOException {
+	private int[] parse_metadata_block(TagReader s, long offset) throws IOException {
 		int[] result   = new int[4];
 		byte[] mb_head = new byte[4];
 		int stop_after = 0;
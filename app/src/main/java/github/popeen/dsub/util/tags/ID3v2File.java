@@ -18,7 +18,6 @@
 package github.popeen.dsub.util.tags;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
@@ -29,12 +28,18 @@ public class ID3v2File extends Common {
 	private static int ID3_ENC_UTF16LE = 0x01;
 	private static int ID3_ENC_UTF16BE = 0x02;
 	private static int ID3_ENC_UTF8    = 0x03;
+	private static final HashMap<String, String> FRAME_NAMES = new HashMap<String, String>();
+	static {
+		FRAME_NAMES.put("TIT2", Tags.TITLE);
+		FRAME_NAMES.put("TALB", Tags.ALBUM);
+		FRAME_NAMES.put("TPE1", Tags.ARTIST);
+	}
 	
 	public ID3v2File() {
 	}
 	
-	public HashMap getTags(RandomAccessFile s) throws IOException {
-		HashMap tags = new HashMap();
+	public Tags getTags(TagReader s) throws IOException {
+		Tags tags;
 		
 		final int v2hdr_len = 10;
 		byte[] v2hdr = new byte[v2hdr_len];
@@ -56,46 +61,51 @@ public class ID3v2File extends Common {
 		// we should already be at the first frame
 		// so we can start the parsing right now
 		tags = parse_v3_frames(s, v3len);
-		tags.put("_hdrlen", v3len+v2hdr_len);
+		tags.setHeaderLength(v3len+v2hdr_len);
 		return tags;
 	}
 	
 	/* Parses all ID3v2 frames at the current position up until payload_len
 	** bytes were read
 	*/
-	public HashMap parse_v3_frames(RandomAccessFile s, long payload_len) throws IOException {
-		HashMap tags = new HashMap();
+	public Tags parse_v3_frames(TagReader s, long payload_len) throws IOException {
+		Tags tags = new Tags();
 		byte[] frame   = new byte[10]; // a frame header is always 10 bytes
 		long bread     = 0;            // total amount of read bytes
 		
 		while(bread < payload_len) {
-			bread += s.read(frame);
+			int fread = s.read(frame);
+			if(fread != frame.length)
+				break;
+			bread += fread;
 			String framename = new String(frame, 0, 4);
 			int slen = b2be32(frame, 4);
 			
 			/* Abort on silly sizes */
-			if(slen < 1 || slen > 524288)
+			if(slen < 1)
 				break;
 			
+			/* Only text frames are of any use, skip over pictures and such
+			** without reading them, no matter how big they are */
+			if(framename.charAt(0) != 'T' || slen > 524288) {
+				s.skip(slen);
+				bread += slen;
+				continue;
+			}
+			
 			byte[] xpl = new byte[slen];
 			bread += s.read(xpl);
 
-			if(framename.substring(0,1).equals("T")) {
-				String[] nmzInfo = normalizeTaginfo(framename, xpl);
+			String[] nmzInfo = normalizeTaginfo(framename, xpl);
 
-				for(int i = 0; i < nmzInfo.length; i += 2) {
-					String oggKey = nmzInfo[i];
-					String decPld = nmzInfo[i + 1];
+			for(int i = 0; i < nmzInfo.length; i += 2) {
+				String oggKey = nmzInfo[i];
+				String decPld = nmzInfo[i + 1];
 
-					if (oggKey.length() > 0 && !tags.containsKey(oggKey)) {
-						addTagEntry(tags, oggKey, decPld);
-					}
+				if (oggKey.length() > 0 && !tags.contains(oggKey)) {
+					tags.add(oggKey, decPld);
 				}
 			}
-			else if(framename.equals("RVA2")) {
-				//
-			}
-			
 		}
 		return tags;
 	}
@@ -103,14 +113,10 @@ public class ID3v2File extends Common {
 	/* Converts ID3v2 sillyframes to OggNames */
 	private String[] normalizeTaginfo(String k, byte[] v) {
 		String[] rv = new String[] {"",""};
-		HashMap lu = new HashMap<String, String>();
-		lu.put("TIT2", "TITLE");
-		lu.put("TALB", "ALBUM");
-		lu.put("TPE1", "ARTIST");
 		
-		if(lu.containsKey(k)) {
+		if(FRAME_NAMES.containsKey(k)) {
 			/* A normal, known key: translate into Ogg-Frame name */
-			rv[0] = (String)lu.get(k);
+			rv[0] = FRAME_NAMES.get(k);
 			rv[1] = getDecodedString(v);
 		}
 		else if(k.equals("TXXX")) {
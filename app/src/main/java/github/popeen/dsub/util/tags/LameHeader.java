@@ -18,8 +18,6 @@
 package github.popeen.dsub.util.tags;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
 
 
 public class LameHeader extends Common {
@@ -27,12 +25,12 @@ public class LameHeader extends Common {
 	public LameHeader() {
 	}
 	
-	public HashMap getTags(RandomAccessFile s) throws IOException {
+	public Tags getTags(TagReader s) throws IOException {
 		return parseLameHeader(s, 0);
 	}
 	
-	public HashMap parseLameHeader(RandomAccessFile s, long offset) throws IOException {
-		HashMap tags = new HashMap();
+	public Tags parseLameHeader(TagReader s, long offset) throws IOException {
+		Tags tags = new Tags();
 		byte[] chunk = new byte[4];
 		
 		s.seek(offset + 0x24);
@@ -55,10 +53,10 @@ public class LameHeader extends Common {
 			galb_val = ((galb_raw&0x0200)!=0 ? -1*galb_val : galb_val);
 			
 			if( (gtrk_raw&0xE000) == 0x2000 ) {
-				addTagEntry(tags, "REPLAYGAIN_TRACK_GAIN", gtrk_val+" dB");
+				tags.add(Tags.REPLAYGAIN_TRACK_GAIN, gtrk_val+" dB");
 			}
 			if( (gtrk_raw&0xE000) == 0x4000 ) {
-				addTagEntry(tags, "REPLAYGAIN_ALBUM_GAIN", galb_val+" dB");
+				tags.add(Tags.REPLAYGAIN_ALBUM_GAIN, galb_val+" dB");
 			}
 			
 		}
@@ -19,8 +19,6 @@ package github.popeen.dsub.util.tags;
 
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
 
 
 public class OggFile extends Common {
@@ -31,10 +29,10 @@ public class OggFile extends Common {
 	public OggFile() {
 	}
 	
-	public HashMap getTags(RandomAccessFile s) throws IOException {
+	public Tags getTags(TagReader s) throws IOException {
 		long offset = 0;
 		int  retry  = 64;
-		HashMap tags = new HashMap();
+		Tags tags = new Tags();
 		
 		for( ; retry > 0 ; retry-- ) {
 			long res[] = parse_ogg_page(s, offset);
@@ -51,7 +49,7 @@ public class OggFile extends Common {
 	/* Parses the ogg page at offset 'offset' and returns
 	** [header_size, payload_size, type]
 	*/
-	private long[] parse_ogg_page(RandomAccessFile s, long offset) throws IOException {
+	private long[] parse_ogg_page(TagReader s, long offset) throws IOException {
 		long[] result   = new long[3];               // [header_size, payload_size]
 		byte[] p_header = new byte[OGG_PAGE_SIZE];   // buffer for the page header 
 		byte[] scratch;
@@ -95,7 +93,7 @@ public class OggFile extends Common {
 	/* In 'vorbiscomment' field is prefixed with \3vorbis in OGG files
 	** we check that this marker is present and call the generic comment
 	** parset with the correct offset (+7) */
-	private HashMap parse_ogg_vorbis_comment(RandomAccessFile s, long offset, long pl_len) throws IOException {
+	private Tags parse_ogg_vorbis_comment(TagReader s, long offset, long pl_len) throws IOException {
 		final int pfx_len = 7;
 		byte[] pfx        = new byte[pfx_len];
 		
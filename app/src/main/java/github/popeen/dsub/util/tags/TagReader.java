@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2013 Adrian Ulrich <adrian@blinkenlights.ch>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package github.popeen.dsub.util.tags;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+
+/* Reads a file through a window of BUFFER_SIZE bytes, so the many small
+** header reads and seeks of the parsers are served from memory instead of
+** being a syscall each. Reads at least as big as the window go straight to
+** the file. Works like the parts of RandomAccessFile the parsers use.
+*/
+public class TagReader implements Closeable {
+	private static final int BUFFER_SIZE = 65536;
+
+	private final RandomAccessFile file;  // null if everything is in 'buffer'
+	private final long length;
+	private final byte[] buffer;
+	private long bufferStart = 0;          // file offset of buffer[0]
+	private int bufferLength = 0;          // number of valid bytes in 'buffer'
+	private long position = 0;
+
+	public TagReader(String path) throws IOException {
+		file   = new RandomAccessFile(path, "r");
+		length = file.length();
+		buffer = new byte[(int)Math.min(BUFFER_SIZE, Math.max(length, 1))];
+	}
+
+	/* Reads from data that is already in memory */
+	public TagReader(byte[] data) {
+		file         = null;
+		length       = data.length;
+		buffer       = data;
+		bufferLength = data.length;
+	}
+
+	public long length() {
+		return length;
+	}
+
+	public long getFilePointer() {
+		return position;
+	}
+
+	public void seek(long pos) {
+		position = pos;
+	}
+
+	public void skip(long n) {
+		position += n;
+	}
+
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	/* Returns the number of bytes read, or -1 if already at the end */
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0)
+			return 0;
+		if(position >= length)
+			return -1;
+
+		int total = 0;
+		while(len > 0 && position < length) {
+			if(position < bufferStart || position >= bufferStart + bufferLength) {
+				if(file != null && len >= buffer.length) {
+					/* too big to be worth buffering */
+					file.seek(position);
+					int n = file.read(b, off, len);
+					if(n <= 0)
+						break;
+					total += n;
+					position += n;
+					break;
+				}
+				if(!fill(position))
+					break;
+			}
+
+			int avail = (int)(bufferStart + bufferLength - position);
+			int n     = Math.min(len, avail);
+			System.arraycopy(buffer, (int)(position - bufferStart), b, off, n);
+			total    += n;
+			off      += n;
+			len      -= n;
+			position += n;
+		}
+		return total;
+	}
+
+	private boolean fill(long pos) throws IOException {
+		if(file == null)
+			return false;
+
+		file.seek(pos);
+		int n = 0;
+		while(n < buffer.length) {
+			int r = file.read(buffer, n, buffer.length - n);
+			if(r <= 0)
+				break;
+			n += r;
+		}
+		bufferStart  = pos;
+		bufferLength = n;
+		return n > 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(file != null)
+			file.close();
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2013 Adrian Ulrich <adrian@blinkenlights.ch>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package github.popeen.dsub.util.tags;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/* Tags found by one of the parsers, keyed by their vorbis comment names
+** (ID3 frames are translated to those). Every key can have more than one
+** value, the getters return the first one.
+*/
+public class Tags {
+	public static final String TITLE                 = "TITLE";
+	public static final String ARTIST                = "ARTIST";
+	public static final String ALBUM                 = "ALBUM";
+	public static final String REPLAYGAIN_TRACK_GAIN = "REPLAYGAIN_TRACK_GAIN";
+	public static final String REPLAYGAIN_ALBUM_GAIN = "REPLAYGAIN_ALBUM_GAIN";
+
+	private final Map<String, List<String>> values = new HashMap<String, List<String>>();
+	private String magic;          // first 4 bytes of the file
+	private long headerLength = 0; // size of the ID3v2 tag, 0 for everything else
+
+	public void add(String key, String value) {
+		List<String> list = values.get(key);
+		if(list == null) {
+			list = new ArrayList<String>(1);
+			values.put(key, list);
+		}
+		list.add(value);
+	}
+
+	/* add 'from's values for 'key' if we don't have any yet */
+	public void inherit(String key, Tags from) {
+		if(!values.containsKey(key) && from.values.containsKey(key)) {
+			values.put(key, from.values.get(key));
+		}
+	}
+
+	public boolean contains(String key) {
+		return values.containsKey(key);
+	}
+
+	public List<String> getAll(String key) {
+		List<String> list = values.get(key);
+		return list == null ? Collections.<String>emptyList() : list;
+	}
+
+	public String get(String key) {
+		List<String> list = values.get(key);
+		return list == null || list.isEmpty() ? null : list.get(0);
+	}
+
+	public String getTitle() {
+		return get(TITLE);
+	}
+	public String getArtist() {
+		return get(ARTIST);
+	}
+	public String getAlbum() {
+		return get(ALBUM);
+	}
+
+	/* ReplayGain in dB, null if the file doesn't have it */
+	public Float getTrackGain() {
+		return getGain(REPLAYGAIN_TRACK_GAIN);
+	}
+	public Float getAlbumGain() {
+		return getGain(REPLAYGAIN_ALBUM_GAIN);
+	}
+	private Float getGain(String key) {
+		String raw = get(key);
+		if(raw == null)
+			return null;
+
+		try {
+			/* usually something like '-6.20 dB' */
+			return Float.parseFloat(raw.replaceAll("[^0-9.-]", ""));
+		} catch(NumberFormatException e) {
+			return 0f;
+		}
+	}
+
+	public String getMagic() {
+		return magic;
+	}
+	void setMagic(String magic) {
+		this.magic = magic;
+	}
+
+	public long getHeaderLength() {
+		return headerLength;
+	}
+	void setHeaderLength(long headerLength) {
+		this.headerLength = headerLength;
+	}
+
+}
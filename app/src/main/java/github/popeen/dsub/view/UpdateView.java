@@ -33,12 +33,16 @@ import android.widget.LinearLayout;
 import android.widget.RatingBar;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
 
 import github.popeen.dsub.domain.MusicDirectory;
 import github.popeen.dsub.R;
 import github.popeen.dsub.util.DrawableTint;
+import github.popeen.dsub.util.MusicDirectoryWatcher;
 import github.popeen.dsub.util.SilentBackgroundTask;
 
 public abstract class UpdateView<T> extends LinearLayout {
@@ -85,7 +89,7 @@ public abstract class UpdateView<T> extends LinearLayout {
 		if(autoUpdate) {
 			INSTANCES.put(this, null);
 		}
-		startUpdater();
+		startUpdater(context);
 	}
 	
 	@Override
@@ -115,10 +119,18 @@ public abstract class UpdateView<T> extends LinearLayout {
 	}
 	protected abstract void setObjectImpl(T obj);
 	
-	private static synchronized void startUpdater() {
+	private static synchronized void startUpdater(Context context) {
 		if(uiHandler != null) {
 			return;
 		}
+
+		// Files showing up or going away change whether they show as downloaded or pinned
+		MusicDirectoryWatcher.getWatcher(context).addOnFilesChangedListener(new MusicDirectoryWatcher.OnFilesChangedListener() {
+			@Override
+			public void onFilesChanged(MusicDirectoryWatcher.Changes changes) {
+				triggerUpdate();
+			}
+		});
 		
 		uiHandler = new Handler();
 		// Needed so handler is never null until thread creates it
@@ -233,6 +245,27 @@ public abstract class UpdateView<T> extends LinearLayout {
 
 		return null;
 	}
+	/**
+	 * Same as findEntry for a batch of entries by id, in one pass over the views
+	 */
+	public static List<MusicDirectory.Entry> findEntries(Map<String, MusicDirectory.Entry> entries) {
+		List<MusicDirectory.Entry> found = new ArrayList<MusicDirectory.Entry>();
+		Set<String> foundIds = new HashSet<String>();
+		for(UpdateView view: INSTANCES.keySet()) {
+			MusicDirectory.Entry check = null;
+			if(view instanceof SongView) {
+				check = ((SongView) view).getEntry();
+			} else if(view instanceof AlbumView) {
+				check = ((AlbumView) view).getEntry();
+			}
+
+			if(check != null && entries.containsKey(check.getId()) && entries.get(check.getId()) != check && foundIds.add(check.getId())) {
+				found.add(check);
+			}
+		}
+
+		return found;
+	}
 	
 	protected void updateBackground() {
 		